@@ -67,6 +67,111 @@ class ScoreBoard {
     }
 }
 
+// PaddlePredictor moves the player's own paddle as soon as they press a key,
+// instead of a round trip later, by running the server's paddle rules
+// locally. Inputs carry sequence numbers that game states echo once the
+// server applied them. The newest acknowledged input tells which local tick
+// matches a server tick, so each state's paddle can be compared with where
+// the prediction was at that tick and any difference corrected. Like the
+// server, it keeps positions in 1/256ths of a pixel.
+class PaddlePredictor {
+    constructor() {
+        // The server's tick length and paddle rules, in subpixels and
+        // physics steps
+        this.kTickMillis = 1000 / 80;
+        this.kSubpixels = 256;
+        this.kStepsPerTick = 6;
+        this.kSpeed = 85;
+        this.kMaxY = (400 - 100) * this.kSubpixels;
+        // Ticks of predicted positions kept to compare with states
+        this.kHistory = 256;
+        this.reset(-1, 0);
+    }
+
+    // Starts predicting paddle index of a new match from the server's y.
+    reset(index, y) {
+        this.index = index;
+        this.subY = y * this.kSubpixels;
+        this.velocity = 0;
+        this.serverTick = -1;
+        this.tick = 0;
+        this.lastStepMillis = performance.now();
+        this.history = new Array(this.kHistory).fill(this.subY);
+        // Inputs not acknowledged yet, as [sequence, local tick] pairs
+        this.pending = [];
+        // The local tick minus the server tick, or null if not known yet
+        this.tickOffset = null;
+    }
+
+    // Runs the local ticks that passed since the last call.
+    advance() {
+        const now = performance.now();
+        while (now - this.lastStepMillis >= this.kTickMillis) {
+            this.lastStepMillis += this.kTickMillis;
+            this.tick++;
+            this.move();
+            this.history[this.tick % this.kHistory] = this.subY;
+        }
+    }
+
+    // Returns the predicted y in whole pixels, as the server reports it.
+    get y() {
+        return Math.floor(this.subY / this.kSubpixels);
+    }
+
+    // Moves the paddle by its velocity for a tick, keeping it inside the
+    // canvas.
+    move() {
+        const subY = this.subY + this.velocity * this.kStepsPerTick;
+        this.subY = Math.max(Math.min(subY, this.kMaxY), 0);
+    }
+
+    // Applies an input the way the server will, from the next tick on.
+    input(directive, sequence) {
+        this.advance();
+        if (directive === directives.stopMovingPlayer) {
+            this.velocity = 0;
+        } else {
+            this.velocity = directive === directives.movePlayerUp ? -this.kSpeed : this.kSpeed;
+        }
+        this.pending.push([sequence, this.tick]);
+        // Inputs the server ignored, e.g. between matches, are never acked.
+        while (this.pending.length > 0 && this.tick - this.pending[0][1] > this.kHistory) {
+            this.pending.shift();
+        }
+    }
+
+    // Corrects the prediction with a game state addressed to this player.
+    reconcile(serverTick, index, ack, serverY) {
+        // A new match starts from a lower tick or with another paddle.
+        if (index !== this.index || serverTick < this.serverTick) this.reset(index, serverY);
+        this.serverTick = serverTick;
+        this.advance();
+
+        let acked = null;
+        while (this.pending.length > 0 && ((ack - this.pending[0][0]) & 0xFFFF) < 0x8000) {
+            acked = this.pending.shift();
+        }
+        // The server applied the input in the step that ended serverTick;
+        // locally, that step ended the tick after the input.
+        if (acked !== null) this.tickOffset = acked[1] + 1 - serverTick;
+        if (this.tickOffset === null) {
+            if (this.pending.length === 0) this.subY = serverY * this.kSubpixels;
+            return;
+        }
+
+        const local = serverTick + this.tickOffset;
+        if (local > this.tick || this.tick - local >= this.kHistory) return;
+        // States only carry whole pixels, so the fraction of a pixel the
+        // prediction has is kept.
+        const predicted = Math.floor(this.history[local % this.kHistory] / this.kSubpixels);
+        const error = (serverY - predicted) * this.kSubpixels;
+        if (error === 0) return;
+        for (let t = local; t <= this.tick; t++) this.history[t % this.kHistory] += error;
+        this.subY = Math.max(Math.min(this.subY + error, this.kMaxY), 0);
+    }
+}
+
 // Game stores and paints the state of the players, score, and ball.
 // This class does not calculate game logic. That task is left
 // to the server.
@@ -76,6 +181,9 @@ class Game {
         this.ctx = canvas.getContext('2d');
         this.scoreboard = new ScoreBoard();
         this.playerId = 0;
+        // The fields of the last game state, in GAME_STATE order
+        this.serverState = [0, 0, 0, 0, 0, 0];
+        this.predictor = new PaddlePredictor();
 
         this.createEntities();
         this.drawLobbyView();
@@ -96,15 +204,36 @@ class Game {
     // Draws on the canvas temporary entities and a lobby message
     drawLobbyView() {
         this.drawState();
+        this.drawNotice('Waiting on another player...');
+    }
 
+    // Writes a message over the top half of the canvas
+    drawNotice(text) {
         this.ctx.font = '20px Arial';
         this.ctx.fillStyle = '#FFF';
         this.ctx.textAlign = 'center';
-        this.ctx.fillText('Waiting on another player...', this.canvas.width / 2,
-                          this.canvas.height / 2 - 60);
+        this.ctx.fillText(text, this.canvas.width / 2, this.canvas.height / 2 - 60);
         this.ctx.fillStyle = '#000';
     }
 
+    // Shows the last game state, with the player's own paddle where the
+    // predictor has it.
+    showState() {
+        const s = this.serverState;
+        this.players[0].xPos = s[0];
+        this.players[0].yPos = s[1];
+        this.players[1].xPos = s[2];
+        this.players[1].yPos = s[3];
+        this.ball.xPos = s[4];
+        this.ball.yPos = s[5];
+        const own = this.predictor.index;
+        if (own === 0 || own === 1) {
+            this.predictor.advance();
+            this.players[own].yPos = this.predictor.y;
+        }
+        this.drawState();
+    }
+
     // Draws all entities onto the canvas
     drawState() { 
         this.ctx.fillRect(0, 0, this.canvas.width, this.canvas.height);
@@ -120,9 +249,65 @@ class Game {
     }
 }
 
+// Visiting the page with ?watch=<match id> spectates that match instead of
+// joining the lobby. An optional &rate=<n> receives every nth state.
+const pageParams = new URLSearchParams(window.location.search);
+const watchMatchId = pageParams.get('watch');
+
+// Visiting the page with ?broker=<url> asks that cluster broker which game
+// server to play on instead of using the default one.
+const brokerUrl = pageParams.get('broker');
+const kDefaultServer = 'ws://srv.marcusposey.com:8001';
+
 // A WebSocket connection to the game server
-var socket = new WebSocket('ws://srv.marcusposey.com:8001');
-socket.binaryType = 'arraybuffer';
+var socket;
+// The server the socket connects to
+var gameServer;
+
+// The token, in hex, that resumes this player's place after the server
+// restarts, and how many times resuming has been tried since it did
+var resumeToken = null;
+var resumeAttempts = 0;
+const kMaxResumeAttempts = 8;
+
+// The newest protocol version the client speaks, and the one the server
+// chose when it sent the player's id. Spectators always use version 1.
+const kProtocolVersion = 2;
+var protocolVersion = 1;
+
+// Connects to a game server and handles its messages.
+function connect(server) {
+    gameServer = server;
+    let url = server + (watchMatchId === null ? '' : '/watch');
+    const query = watchMatchId === null ? ['v=' + kProtocolVersion] : [];
+    if (resumeToken !== null) query.push('resume=' + resumeToken);
+    if (query.length > 0) url += '/?' + query.join('&');
+    socket = new WebSocket(url);
+    socket.binaryType = 'arraybuffer';
+    socket.onopen = onOpen;
+    socket.onmessage = onMessage;
+    socket.onclose = onClose;
+}
+
+// Reconnects when the server restarts (1012), retrying with backoff while it
+// is down (1006), so the player resumes their match or lobby place.
+function onClose(event) {
+    const isRestarting = event.code === 1012 || (event.code === 1006 && resumeAttempts > 0);
+    if (!isRestarting || resumeToken === null || resumeAttempts >= kMaxResumeAttempts) return;
+    const delay = 500 * Math.pow(2, Math.min(resumeAttempts, 4));
+    resumeAttempts++;
+    setTimeout(() => connect(gameServer), delay);
+}
+
+if (brokerUrl === null) {
+    connect(kDefaultServer);
+} else {
+    fetch(brokerUrl + '/assign')
+        .then(response => response.ok ? response.text() : Promise.reject(response.status))
+        .then(connect)
+        .catch(error => console.error('No game server is available', error));
+}
+
 // A directive is the first 8 bits of a message to the game server. This
 // is used to describe the intent of all communication.
 const directives = Object.freeze({
@@ -132,27 +317,61 @@ const directives = Object.freeze({
     movePlayerDown: 3,
     stopMovingPlayer: 4,
     gameScore: 5,
+    gameStateDelta: 6,
+    watchMatch: 7,
+    stopWatching: 8,
+    clientFps: 9,
+    resumeToken: 10,
+    matchEnded: 11,
 });
 
+// Asks the server to stream a match to this spectator.
+function onOpen() {
+    if (watchMatchId === null) return;
+    let message = new ArrayBuffer(6);
+    let dv = new DataView(message);
+    dv.setInt8(0, directives.watchMatch);
+    dv.setInt32(1, watchMatchId | 0);
+    dv.setUint8(5, (pageParams.get('rate') | 0) || 1);
+    socket.send(message);
+}
+
 // Handle messages sent from the game server.
-socket.onmessage = function(event) {
+function onMessage(event) {
     let msg = new DataView(event.data);
-    let directive = msg.getInt8(0);
+    // Version 2 game states keep the receiver in the top 2 bits.
+    let directive = msg.getUint8(0) & 0x3F;
     switch (directive) {
-        // Get the player's id when they connect to the server.
+        // Get the player's id and protocol version when they connect.
         case directives.id:
             game.playerId = msg.getInt32(1);
+            protocolVersion = msg.byteLength > 6 ? msg.getUint8(5) : 1;
+            resumeAttempts = 0;
+            break;
+
+        // Get the token that resumes the player after a server restart.
+        case directives.resumeToken:
+            resumeToken = msg.getUint32(1).toString(16).padStart(8, '0') +
+                          msg.getUint32(5).toString(16).padStart(8, '0');
             break;
 
         // Get the state of the game.
         case directives.gameState:
-            game.players[0].xPos = msg.getInt32(1);
-            game.players[0].yPos = msg.getInt32(5);
-            game.players[1].xPos = msg.getInt32(9);
-            game.players[1].yPos = msg.getInt32(13);
-            game.ball.xPos = msg.getInt32(17);
-            game.ball.yPos = msg.getInt32(21);
-            game.drawState();
+            if (protocolVersion >= 2) {
+                applyCompactState(msg, false);
+            } else {
+                for (let i = 0; i < game.serverState.length; i++) {
+                    game.serverState[i] = msg.getInt32(kStateHeaderSize + 4 * i);
+                }
+            }
+            onState(msg);
+            break;
+
+        // Get the parts of the game state that changed.
+        case directives.gameStateDelta:
+            if (protocolVersion >= 2) applyCompactState(msg, true);
+            else applyStateDelta(msg);
+            onState(msg);
             break;
 
         // Get the scores of each player.
@@ -161,17 +380,152 @@ socket.onmessage = function(event) {
             game.scoreboard.scores[1] = msg.getInt32(5);
             game.drawState();
             break;
+
+        // The match being watched ended, or there was no such match.
+        case directives.matchEnded:
+            game.drawNotice('Match ' + msg.getInt32(1) + ' has ended');
+            break;
+    }
+}
+
+// Game states start with a header of the directive, the server's 32-bit
+// tick, the index of the receiving player (255 for spectators) and the
+// 16-bit sequence number of their last input the server applied.
+const kStateHeaderSize = 8;
+
+// Version 2 game states start with a shorter header: the directive in the
+// low 6 bits of the first byte and the receiving player in its top 2 bits
+// (3 for spectators), the low 24 bits of the tick and the 16-bit input ack.
+const kCompactHeaderSize = 6;
+
+// Reconciles the predicted paddle with a game state and shows the state.
+function onState(msg) {
+    let index, tick, ack;
+    if (protocolVersion >= 2) {
+        index = msg.getUint8(0) >> 6;
+        tick = msg.getUint8(1) << 16 | msg.getUint16(2);
+        ack = msg.getUint16(4);
+    } else {
+        index = msg.getUint8(5);
+        tick = msg.getUint32(1);
+        ack = msg.getUint16(6);
+    }
+    if (index === 0 || index === 1) {
+        game.predictor.reconcile(tick, index, ack, game.serverState[2 * index + 1]);
+    }
+    game.showState();
+}
+
+// Applies a delta message to the game state. The byte after the header is a
+// mask in which bit i says whether field i of the full state follows as an
+// int16.
+function applyStateDelta(msg) {
+    const mask = msg.getUint8(kStateHeaderSize);
+    let offset = kStateHeaderSize + 1;
+    for (let i = 0; i < game.serverState.length; i++) {
+        if (mask & (1 << i)) {
+            game.serverState[i] = msg.getInt16(offset);
+            offset += 2;
+        }
+    }
+}
+
+// Reads values packed most significant bit first, as the server writes
+// version 2 game states.
+class BitReader {
+    constructor(view, offset) {
+        this.view = view;
+        this.bit = offset * 8;
     }
-};
+
+    // Reads an unsigned value of width bits.
+    read(width) {
+        let value = 0;
+        for (let i = 0; i < width; i++, this.bit++) {
+            const byte = this.view.getUint8(this.bit >> 3);
+            value = value * 2 + ((byte >> (7 - (this.bit & 7))) & 1);
+        }
+        return value;
+    }
+
+    // Reads a two's complement value of width bits.
+    readSigned(width) {
+        const value = this.read(width);
+        return value >= 1 << (width - 1) ? value - (1 << width) : value;
+    }
+}
+
+// Applies a version 2 game state or delta to the game state and scores.
+// Coordinates are 10 bits, offset by 32. A delta starts with a mask in which
+// bits 0-5 stand for the coordinates and bits 6-7 for the scores; a changed
+// coordinate is a 0 bit and a 5-bit difference from its last value, or a 1
+// bit and its 10-bit value. Scores are 16 bits.
+function applyCompactState(msg, isDelta) {
+    const bits = new BitReader(msg, kCompactHeaderSize);
+    const mask = isDelta ? bits.read(8) : 0xFF;
+    const fields = game.serverState.length;
+    for (let i = 0; i < fields; i++) {
+        if (!(mask & (1 << i))) continue;
+        if (isDelta && bits.read(1) === 0) {
+            game.serverState[i] += bits.readSigned(5);
+        } else {
+            game.serverState[i] = bits.read(10) - 32;
+        }
+    }
+    for (let i = 0; i < 2; i++) {
+        if (mask & (1 << (fields + i))) game.scoreboard.scores[i] = bits.read(16);
+    }
+}
+
+// The sequence number of the last input sent; 0 means none, so it is skipped
+var inputSequence = 0;
 
 // Signals to the server that the client player would like to move in a
-// new direction or stop moving
+// new direction or stop moving, and predicts the result right away
 function updateMovement(directive) {
-    let message = new ArrayBuffer(5);
+    inputSequence = inputSequence % 0xFFFF + 1;
+    let message = new ArrayBuffer(7);
     let dv = new DataView(message);
     dv.setInt8(0, directive);
     dv.setInt32(1, game.playerId);
+    dv.setUint16(5, inputSequence);
     socket.send(message);
+
+    if (game.predictor.index !== -1) {
+        game.predictor.input(directive, inputSequence);
+        game.showState();
+    }
+}
+
+// Tells the server how many frames per second the browser draws, so that a
+// slow device or a hidden tab is sent fewer game states. The rate is only
+// reported when it changes noticeably.
+function reportFrameRate() {
+    const kReportMillis = 2000;
+    let frames = 0;
+    let lastFps = -1;
+
+    const countFrame = function() {
+        frames++;
+        // Keep the predicted paddle moving between game states.
+        if (game.predictor.velocity !== 0) game.showState();
+        window.requestAnimationFrame(countFrame);
+    };
+    window.requestAnimationFrame(countFrame);
+
+    setInterval(function() {
+        const fps = Math.min(Math.round(frames * 1000 / kReportMillis), 255);
+        frames = 0;
+        if (game.playerId === 0 || Math.abs(fps - lastFps) < 5) return;
+        lastFps = fps;
+
+        let message = new ArrayBuffer(6);
+        let dv = new DataView(message);
+        dv.setInt8(0, directives.clientFps);
+        dv.setInt32(1, game.playerId);
+        dv.setUint8(5, fps);
+        socket.send(message);
+    }, kReportMillis);
 }
 
 // Registers keyboard and touch events which dictate player movement
@@ -203,5 +557,9 @@ var game;
 function main() {
     game = new Game(document.getElementById('game'));
 
-    registerEventHandlers();
+    // Spectators cannot move a paddle.
+    if (watchMatchId === null) {
+        registerEventHandlers();
+        reportFrameRate();
+    }
 }
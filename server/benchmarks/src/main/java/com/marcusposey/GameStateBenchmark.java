@@ -0,0 +1,25 @@
+package com.marcusposey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures one update of a single match whose players never disconnect */
+@State(Scope.Thread)
+public class GameStateBenchmark {
+    private GameState state;
+    private Broadcast broadcast;
+
+    @Setup
+    public void setup() {
+        state = new GameState(new Player(new StubSocket()),
+                              new Player(new StubSocket()));
+        broadcast = new Broadcast(ArrayBufferProtocol.kMaxTickMessageSize);
+    }
+
+    @Benchmark
+    public void update() {
+        state.update(broadcast);
+    }
+}
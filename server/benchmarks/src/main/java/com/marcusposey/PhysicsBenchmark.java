@@ -0,0 +1,25 @@
+package com.marcusposey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures the cost of moving the ball */
+@State(Scope.Thread)
+public class PhysicsBenchmark {
+    private Ball ball;
+    private Player[] players;
+
+    @Setup
+    public void setup() {
+        ball = new Ball();
+        players = new Player[]{new Player(null), new Player(null)};
+        new GameState(players[0], players[1]);
+    }
+
+    @Benchmark
+    public boolean ballMove() {
+        return ball.move(players);
+    }
+}
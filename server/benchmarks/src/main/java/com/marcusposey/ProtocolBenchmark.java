@@ -0,0 +1,61 @@
+package com.marcusposey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Measures the cost of encoding the messages sent every tick */
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+    private GameState state;
+    private int[] scores;
+    private ByteBuffer buffer;
+    private BitWriter bits;
+    private int[] compactBaseline;
+
+    @Setup
+    public void setup() {
+        state = new GameState(new Player(null), new Player(null));
+        scores = new int[]{3, 7};
+        buffer = ByteBuffer.allocate(ArrayBufferProtocol.kMaxTickMessageSize);
+        bits = new BitWriter(buffer);
+        compactBaseline = new int[ArrayBufferProtocol.kCompactStateFields];
+    }
+
+    @Benchmark
+    public byte[] encodeGameState() {
+        return ArrayBufferProtocol.encodeGameState(state);
+    }
+
+    @Benchmark
+    public byte[] encodeGameScore() {
+        return ArrayBufferProtocol.encodeGameScore(scores);
+    }
+
+    @Benchmark
+    public ByteBuffer writeGameState() {
+        buffer.clear();
+        ArrayBufferProtocol.writeGameState(state, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeCompactGameState() {
+        buffer.clear();
+        ArrayBufferProtocol.writeCompactGameState(state, buffer, bits);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeCompactGameStateDelta() {
+        buffer.clear();
+        // Every field differs from the cleared baseline, so the delta is full.
+        Arrays.fill(compactBaseline, 0);
+        ArrayBufferProtocol.writeCompactGameStateDelta(state, compactBaseline, buffer, true, bits);
+        return buffer;
+    }
+}
@@ -0,0 +1,87 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.Framedata;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/** An always-open WebSocket that discards everything sent to it */
+public class StubSocket implements WebSocket {
+    private Object attachment;
+
+    @Override
+    public void close(int code, String message) { }
+
+    @Override
+    public void close(int code) { }
+
+    @Override
+    public void close() { }
+
+    @Override
+    public void closeConnection(int code, String message) { }
+
+    @Override
+    public void send(String text) { }
+
+    @Override
+    public void send(ByteBuffer bytes) { }
+
+    @Override
+    public void send(byte[] bytes) { }
+
+    @Override
+    public void sendFrame(Framedata framedata) { }
+
+    @Override
+    public void sendFrame(Collection<Framedata> frames) { }
+
+    @Override
+    public void sendPing() { }
+
+    @Override
+    public void sendFragmentedFrame(Framedata.Opcode op, ByteBuffer buffer, boolean fin) { }
+
+    @Override
+    public boolean hasBufferedData() { return false; }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress() { return null; }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() { return null; }
+
+    @Override
+    public boolean isConnecting() { return false; }
+
+    @Override
+    public boolean isOpen() { return true; }
+
+    @Override
+    public boolean isClosing() { return false; }
+
+    @Override
+    public boolean isFlushAndClose() { return false; }
+
+    @Override
+    public boolean isClosed() { return false; }
+
+    @Override
+    public Draft getDraft() { return null; }
+
+    @Override
+    public READYSTATE getReadyState() { return READYSTATE.OPEN; }
+
+    @Override
+    public String getResourceDescriptor() { return "/"; }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() { return (T) attachment; }
+
+    @Override
+    public <T> void setAttachment(T attachment) { this.attachment = attachment; }
+}
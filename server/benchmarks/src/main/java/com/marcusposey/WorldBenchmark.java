@@ -0,0 +1,40 @@
+package com.marcusposey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures a full world tick: the world loop followed by every shard
+ *
+ * The shards are ticked on the benchmark thread one after another, so the
+ * score is the total CPU time of a tick rather than its wall-clock time.
+ */
+@State(Scope.Thread)
+public class WorldBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int matchCount;
+
+    private World world;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        world = new World();
+        for (int i = 0; i < 2 * matchCount; i++) {
+            world.addPlayer(new StubSocket());
+        }
+        // Pair everyone up and let the shards adopt the new matches.
+        tick();
+    }
+
+    @Benchmark
+    public void tick() {
+        world.tick();
+        for (Shard shard : world.getShards()) {
+            shard.tick();
+        }
+    }
+}
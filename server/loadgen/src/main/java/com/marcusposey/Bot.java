@@ -0,0 +1,182 @@
+package com.marcusposey;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless client that plays like a person and measures what it sees
+ *
+ * The bot alternates between holding a direction and standing still for
+ * random periods. Game states say which paddle it controls, and it measures
+ * how long each input takes to show up in one.
+ */
+public class Bot extends WebSocketClient {
+    // Inputs not seen in a game state within this time are counted as lost
+    private static final long kInputTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+    private static final int kNone = Integer.MIN_VALUE;
+
+    private final LoadStats stats;
+    private final ScheduledExecutorService timer;
+    private final long tickPeriodNanos;
+
+    private volatile int playerId;
+    private volatile boolean isClosed = false;
+    private long idNanos;
+    private long lastFrameNanos;
+    private boolean hasState = false;
+
+    // The latest game state fields in GAME_STATE order
+    private final int[] fields = new int[ArrayBufferProtocol.kStateFields];
+    // The y coordinate of each paddle in the previous frame
+    private final int[] previousY = new int[2];
+    private final int[] velocity = new int[2];
+    // The paddle this bot controls, as stamped on game states
+    private int side = 0;
+    // The sequence number of the last input sent
+    private int inputSequence = 0;
+
+    // The direction of the latest input: -1 up, 1 down, 0 stopped
+    private int direction = 0;
+    // The direction of the input waiting to be seen, or kNone
+    private int pendingDirection = kNone;
+    private long pendingSentNanos;
+
+    /**
+     * Creates a bot that has not connected yet
+     * @param timer schedules the bot's inputs
+     * @param tickPeriodNanos the server's tick period, used to measure jitter
+     */
+    public Bot(URI server, LoadStats stats, ScheduledExecutorService timer,
+               final long tickPeriodNanos) {
+        super(server);
+        this.stats = stats;
+        this.timer = timer;
+        this.tickPeriodNanos = tickPeriodNanos;
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshake) {
+        stats.connected.incrementAndGet();
+    }
+
+    @Override
+    public void onMessage(String message) { }
+
+    @Override
+    public void onMessage(ByteBuffer message) {
+        final long now = System.nanoTime();
+        final int dir = message.get();
+        if (dir == Directive.ID.ordinal()) {
+            playerId = message.getInt();
+            synchronized (this) { idNanos = now; }
+            scheduleInput();
+        } else if (dir == Directive.GAME_STATE.ordinal()) {
+            readStateHeader(message);
+            for (int i = 0; i < fields.length; i++) fields[i] = message.getInt();
+            onFrame(now);
+        } else if (dir == Directive.GAME_STATE_DELTA.ordinal()) {
+            readStateHeader(message);
+            final int mask = message.get();
+            for (int i = 0; i < fields.length; i++) {
+                if ((mask & (1 << i)) != 0) fields[i] = message.getShort();
+            }
+            onFrame(now);
+        }
+    }
+
+    /** Reads which paddle is the bot's and skips the tick and input ack */
+    private void readStateHeader(final ByteBuffer message) {
+        message.getInt();
+        side = message.get() & 1;
+        message.getShort();
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+        isClosed = true;
+        stats.closed.incrementAndGet();
+    }
+
+    @Override
+    public void onError(Exception e) {
+        if (!hasState) stats.failed.incrementAndGet();
+    }
+
+    /** Records the timing of a frame and checks it for the pending input */
+    private synchronized void onFrame(final long now) {
+        stats.frames.incrementAndGet();
+        if (!hasState) {
+            hasState = true;
+            stats.idToFirstState.record((now - idNanos) / 1000);
+        } else {
+            stats.frameJitter.record(Math.abs(now - lastFrameNanos - tickPeriodNanos) / 1000);
+        }
+        lastFrameNanos = now;
+
+        for (int s = 0; s < 2; s++) {
+            final int y = fields[2 * s + 1];
+            velocity[s] = Integer.signum(y - previousY[s]);
+            previousY[s] = y;
+        }
+
+        if (pendingDirection != kNone) {
+            if (velocity[side] == pendingDirection) {
+                stats.inputLatency.record((now - pendingSentNanos) / 1000);
+                pendingDirection = kNone;
+            } else if (now - pendingSentNanos > kInputTimeoutNanos) {
+                stats.lostInputs.incrementAndGet();
+                pendingDirection = kNone;
+            }
+        }
+    }
+
+    /** Sends the next input after a human-like pause */
+    private void scheduleInput() {
+        if (isClosed) return;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long delayMillis = direction == 0 ? random.nextLong(100, 1000)
+                                                : random.nextLong(100, 600);
+        timer.schedule(this::sendInput, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Starts moving if the bot is still, or stops if it is moving */
+    private void sendInput() {
+        if (isClosed || !isOpen()) return;
+
+        final Directive directive;
+        final int sequence;
+        synchronized (this) {
+            // Sequence numbers are 16-bit and skip 0, which means none.
+            inputSequence = inputSequence % 0xFFFF + 1;
+            sequence = inputSequence;
+            if (direction == 0) {
+                direction = ThreadLocalRandom.current().nextBoolean() ? -1 : 1;
+                directive = direction < 0 ? Directive.MOVE_PLAYER_UP
+                                          : Directive.MOVE_PLAYER_DOWN;
+            } else {
+                direction = 0;
+                directive = Directive.STOP_MOVING_PLAYER;
+            }
+            // Only measure inputs once the bot is in a match.
+            if (hasState && pendingDirection == kNone) {
+                pendingDirection = direction;
+                pendingSentNanos = System.nanoTime();
+            }
+        }
+
+        ByteBuffer message = ByteBuffer.allocate(7);
+        message.put((byte) directive.ordinal());
+        message.putInt(playerId);
+        message.putShort((short) sequence);
+        message.flip();
+        send(message);
+        stats.inputs.incrementAndGet();
+        scheduleInput();
+    }
+}
@@ -0,0 +1,112 @@
+package com.marcusposey;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens many bot clients against a game server and reports what they see
+ *
+ * Usage: LoadGenerator [--host localhost] [--port 8001] [--clients 1000]
+ *                      [--connect-rate 200] [--duration 60] [--tick-rate 80]
+ *
+ * Clients are opened at connect-rate per second and the test runs for
+ * duration seconds after the first connection. A report is printed every
+ * five seconds and once more at the end.
+ */
+public class LoadGenerator {
+    private static final long kReportIntervalSeconds = 5;
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = 8001;
+        int clients = 1000;
+        int connectRate = 200;
+        int durationSeconds = 60;
+        int tickRate = World.kDefaultTickRate;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--host": host = value; break;
+                case "--port": port = Integer.parseInt(value); break;
+                case "--clients": clients = Integer.parseInt(value); break;
+                case "--connect-rate": connectRate = Integer.parseInt(value); break;
+                case "--duration": durationSeconds = Integer.parseInt(value); break;
+                case "--tick-rate": tickRate = Integer.parseInt(value); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        final URI server = new URI("ws://" + host + ":" + port);
+        final LoadStats stats = new LoadStats();
+        final ScheduledExecutorService timer = Executors.newScheduledThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        final long tickPeriodNanos = 1_000_000_000L / tickRate;
+
+        final long start = System.nanoTime();
+        timer.scheduleAtFixedRate(new Reporter(stats, start), kReportIntervalSeconds,
+                                  kReportIntervalSeconds, TimeUnit.SECONDS);
+
+        List<Bot> bots = new ArrayList<>(clients);
+        final long connectPeriodNanos = 1_000_000_000L / connectRate;
+        for (int i = 0; i < clients; i++) {
+            final long due = start + i * connectPeriodNanos;
+            final long wait = due - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+
+            Bot bot = new Bot(server, stats, timer, tickPeriodNanos);
+            bot.connect();
+            bots.add(bot);
+        }
+
+        final long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final long remaining = end - System.nanoTime();
+        if (remaining > 0) TimeUnit.NANOSECONDS.sleep(remaining);
+
+        new Reporter(stats, start).run();
+        timer.shutdownNow();
+        for (Bot bot : bots) bot.close();
+    }
+
+    /** Prints the stats gathered so far */
+    private static class Reporter implements Runnable {
+        private final LoadStats stats;
+        private final long start;
+        private long lastConnected = 0;
+        private long lastNanos;
+
+        Reporter(LoadStats stats, final long start) {
+            this.stats = stats;
+            this.start = start;
+            lastNanos = start;
+        }
+
+        @Override
+        public void run() {
+            final long now = System.nanoTime();
+            final long connected = stats.connected.get();
+            final double rate = (connected - lastConnected) * 1e9 / (now - lastNanos);
+            lastConnected = connected;
+            lastNanos = now;
+
+            System.out.printf("[%ds] connected=%d (%.1f/s) failed=%d closed=%d "
+                              + "frames=%d inputs=%d lost=%d%n",
+                              TimeUnit.NANOSECONDS.toSeconds(now - start),
+                              connected, rate, stats.failed.get(),
+                              stats.closed.get(), stats.frames.get(),
+                              stats.inputs.get(), stats.lostInputs.get());
+            System.out.println("  id to first state: "
+                               + LoadStats.summarize(stats.idToFirstState));
+            System.out.println("  frame jitter:      "
+                               + LoadStats.summarize(stats.frameJitter));
+            System.out.println("  input to state:    "
+                               + LoadStats.summarize(stats.inputLatency));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.marcusposey;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Measurements shared by every bot in a load test; times are in microseconds */
+public class LoadStats {
+    final AtomicLong connected = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong closed = new AtomicLong();
+    final AtomicLong frames = new AtomicLong();
+    final AtomicLong inputs = new AtomicLong();
+    final AtomicLong lostInputs = new AtomicLong();
+
+    // Time from receiving an ID to receiving the first game state
+    final Histogram idToFirstState = new Histogram();
+    // Difference between the time between two frames and the tick period
+    final Histogram frameJitter = new Histogram();
+    // Time from sending an input to seeing it applied in a game state
+    final Histogram inputLatency = new Histogram();
+
+    /** Returns a one-line summary of a histogram in milliseconds */
+    static String summarize(final Histogram h) {
+        return String.format("p50=%.1f p90=%.1f p99=%.1f max=%.1f ms (n=%d)",
+                             h.getPercentile(50) / 1000.0,
+                             h.getPercentile(90) / 1000.0,
+                             h.getPercentile(99) / 1000.0,
+                             h.getMax() / 1000.0, h.getCount());
+    }
+}
@@ -1,26 +1,128 @@
 package com.marcusposey;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Application {
     public static void main(String[] args) throws Exception {
-        final int kPort = 8001;
+        final int kPort = Integer.getInteger("pong.port", 8001);
+        final int kMetricsPort = Integer.getInteger("pong.metrics.port", 9001);
+        // Metrics are only served to this host unless another address is given
+        final String metricsAddress = System.getProperty("pong.metrics.address");
+        // The most connections a broker sends to this server in a cluster
+        final int kCapacity = Integer.getInteger("pong.capacity", 10000);
 
         World world = new World();
+        world.getMetrics().registerMBean();
+
+        // With -Dpong.snapshot=<file>, the matches and lobby are saved to the
+        // file on shutdown and players resume them after the next start.
+        final String snapshotFile = System.getProperty("pong.snapshot");
+        final Path snapshotPath = snapshotFile == null ? null : Paths.get(snapshotFile);
+        final WorldSnapshot snapshot = snapshotPath == null ? null
+                                       : WorldSnapshot.take(snapshotPath);
+        if (snapshot != null) {
+            world.restore(snapshot);
+            System.out.println("Restored the world from " + snapshotPath);
+        }
+
+        // Matches are recorded if -Dpong.recordings=<directory> is given.
+        MatchRecorder recorder = null;
+        final String recordings = System.getProperty("pong.recordings");
+        if (recordings != null) {
+            recorder = new MatchRecorder(
+                    Paths.get(recordings, String.valueOf(System.currentTimeMillis())),
+                    world.getMetrics());
+            recorder.start();
+            world.setRecorder(recorder);
+        }
         world.beginLoop();
 
-        GameServer s = new GameServer(kPort, world);
-        s.start();
+        MetricsServer metricsServer = metricsAddress == null
+                ? new MetricsServer(kMetricsPort, world.getMetrics())
+                : new MetricsServer(InetAddress.getByName(metricsAddress), kMetricsPort,
+                                    world.getMetrics());
+        metricsServer.start();
+
+        // -Dpong.transport=library serves connections with Java-WebSocket.
+        GameServer server = new GameServer(world);
+        final InetSocketAddress address = new InetSocketAddress(kPort);
+        Transport transport = "library".equals(System.getProperty("pong.transport"))
+                ? new LibraryTransport(address, server)
+                : new NioTransport(address, server);
+        transport.start();
+
+        // -Dpong.broker.port=<port> runs a broker in this process, and
+        // -Dpong.broker=<url> joins the cluster of the broker at that URL.
+        // Nodes on other hosts need -Dpong.broker.secret=<secret>, which
+        // must be the same for the broker and every node.
+        Broker broker = null;
+        final Integer brokerPort = Integer.getInteger("pong.broker.port");
+        final String brokerSecret = System.getProperty("pong.broker.secret");
+        if (brokerPort != null) {
+            broker = new Broker(brokerPort, Broker.kDefaultNodeTimeoutMillis, brokerSecret);
+            broker.start();
+        }
+        final String brokerUrl = System.getProperty(
+                "pong.broker", broker == null ? null : "http://localhost:" + broker.getPort());
+        BrokerClient brokerClient = null;
+        if (brokerUrl != null) {
+            // Clients are sent to -Dpong.advertise, e.g. ws://game1.example.com:8001.
+            final String advertised = System.getProperty("pong.advertise",
+                                                         "ws://localhost:" + kPort);
+            brokerClient = new BrokerClient(brokerUrl, advertised, kCapacity, world.getMetrics(),
+                                            brokerSecret);
+            brokerClient.start();
+        }
+
+        final MatchRecorder finalRecorder = recorder;
+        final Broker finalBroker = broker;
+        final BrokerClient finalBrokerClient = brokerClient;
+        final AtomicBoolean isShutDown = new AtomicBoolean(false);
+        final Runnable shutdown = () -> {
+            if (isShutDown.getAndSet(true)) return;
+            try {
+                if (finalBrokerClient != null) finalBrokerClient.stop();
+                // Players are told to resume before the transport goes away.
+                world.nuke();
+                if (snapshotPath != null) save(world, snapshotPath);
+                transport.stop(1000);
+                if (finalRecorder != null) finalRecorder.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            metricsServer.stop();
+            if (finalBroker != null) finalBroker.stop();
+        };
+        // docker stop sends SIGTERM, which runs shutdown hooks.
+        Runtime.getRuntime().addShutdownHook(new Thread(shutdown, "shutdown"));
 
         BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             String command = input.readLine();
+            // Without a console, e.g. in a container, the server runs until
+            // it is signalled.
+            if (command == null) return;
             if(command.equals("exit")) {
-                s.stop(1000);
-                world.nuke();
+                shutdown.run();
                 break;
             }
         }
     }
+
+    /** Saves the matches and lobby of a nuked world for the next start */
+    private static void save(final World world, final Path file) {
+        try {
+            world.snapshot().write(file);
+            System.out.println("Saved the world to " + file);
+        } catch (IOException e) {
+            System.err.println("Could not save the world: " + e);
+        }
+    }
 }
@@ -10,10 +10,85 @@ import java.nio.ByteBuffer;
  * chunks are produced/consumed as the ArrayBuffer type. Here, they are handled
  * as a ByteBuffer.
  *
+ * Messages sent every tick can be written into a caller-supplied buffer so
+ * that the game loop does not allocate.
+ *
  * Each message must start with an 8-bit directive that indicates its purpose.
  * @see Directive for details.
+ *
+ * Clients ask for a protocol version when they connect, and the server
+ * answers with the version it chose in the ID message. Version 1 is the
+ * original layout. Version 2 only changes game states: they have a shorter
+ * header, bit-packed coordinates and the scores, which replace GAME_SCORE
+ * messages. Spectators always use version 1.
  */
 public class ArrayBufferProtocol {
+    /** The original protocol version, which every client speaks */
+    public static final int kVersion1 = 1;
+    /** The protocol version with compact, bit-packed game states */
+    public static final int kVersion2 = 2;
+    /** The newest protocol version the server speaks */
+    public static final int kLatestVersion = kVersion2;
+
+    /** The number of fields in a game state */
+    public static final int kStateFields = 6;
+
+    /**
+     * The size of the header that starts GAME_STATE and GAME_STATE_DELTA
+     * messages: a directive, the 32-bit match tick, the 8-bit index of the
+     * receiving player and the 16-bit sequence number of their last applied
+     * input
+     */
+    public static final int kStateHeaderSize = 8;
+
+    /** The receiver index of game states sent to spectators */
+    public static final int kSpectatorReceiver = 0xFF;
+
+    // Where the receiver's index and input ack sit in a game state message
+    private static final int kReceiverOffset = 5;
+
+    /** The size of a GAME_STATE message */
+    public static final int kGameStateSize = kStateHeaderSize + 4 * kStateFields;
+
+    /** The size of a GAME_SCORE message */
+    public static final int kGameScoreSize = 9;
+
+    /** The number of fields in a version 2 game state: the version 1 fields and both scores */
+    public static final int kCompactStateFields = kStateFields + 2;
+
+    /**
+     * The size of the header that starts version 2 GAME_STATE and
+     * GAME_STATE_DELTA messages: the directive in the low 6 bits of the
+     * first byte and the receiver in its top 2 bits, the low 24 bits of the
+     * match tick, and the 16-bit sequence number of the receiver's last
+     * applied input
+     */
+    public static final int kCompactHeaderSize = 6;
+
+    // Coordinates are sent as 10-bit numbers, offset so that a ball slightly
+    // past the top or left edge is still positive
+    private static final int kCoordinateBits = 10;
+    private static final int kCoordinateBias = 32;
+    // Coordinates that moved a little since the baseline are sent as a
+    // 5-bit difference instead
+    private static final int kDifferenceBits = 5;
+    private static final int kScoreBits = 16;
+    // The receiver of version 2 game states sent to spectators
+    private static final int kCompactSpectatorReceiver = 3;
+    private static final int kDirectiveMask = 0x3F;
+
+    /** The size of a version 2 GAME_STATE message */
+    public static final int kCompactGameStateSize = kCompactHeaderSize
+            + (kStateFields * kCoordinateBits + 2 * kScoreBits + 7) / 8;
+
+    // The size of the largest version 2 GAME_STATE_DELTA message
+    private static final int kMaxCompactDeltaSize = kCompactHeaderSize
+            + (8 + kStateFields * (1 + kCoordinateBits) + 2 * kScoreBits + 7) / 8;
+
+    /** The size of the largest message sent during a tick */
+    public static final int kMaxTickMessageSize = Math.max(
+            kGameStateSize, Math.max(kCompactGameStateSize, kMaxCompactDeltaSize));
+
     /**
      * Creates a message containing the player's id
      *
@@ -27,27 +102,212 @@ public class ArrayBufferProtocol {
         return message.array();
     }
 
+    /**
+     * Creates a message containing the player's id and the protocol version
+     * the server speaks with them
+     *
+     * The 7-byte message contains a directive, the player id and the 8-bit
+     * version. Version 1 clients only read the id.
+     */
+    public static byte[] encodeId(final int playerId, final int version) {
+        ByteBuffer message = ByteBuffer.allocate(7);
+        message.put((byte) Directive.ID.ordinal());
+        message.putInt(playerId);
+        message.put((byte) version);
+        return message.array();
+    }
+
+    /**
+     * Returns the protocol version to speak with a client that asked for one
+     * @param requested the version the client asked for, or null if it did
+     *                  not ask, which means version 1
+     */
+    public static int negotiateVersion(final String requested) {
+        if (requested == null) return kVersion1;
+        try {
+            return Math.max(kVersion1, Math.min(Integer.parseInt(requested), kLatestVersion));
+        } catch (NumberFormatException e) {
+            return kVersion1;
+        }
+    }
+
+    /**
+     * Returns true if a message is one a client may send and has the
+     * length its directive calls for
+     *
+     * Players send movement, which carries their 32-bit id and an optional
+     * 16-bit input sequence number, and CLIENT_FPS, which carries their id
+     * and an optional 8-bit frame rate. Spectators send WATCH_MATCH, which
+     * carries a 32-bit match id and an optional 8-bit rate divisor, and
+     * STOP_WATCHING, which carries nothing.
+     *
+     * @param message a message positioned at its directive
+     * @param spectator whether the sender is a spectator rather than a player
+     */
+    public static boolean isValidClientMessage(final ByteBuffer message,
+                                               final boolean spectator) {
+        final int length = message.remaining();
+        if (length == 0) return false;
+        final int dir = message.get(message.position());
+        if (spectator) {
+            if (dir == Directive.WATCH_MATCH.ordinal()) return length == 5 || length == 6;
+            return dir == Directive.STOP_WATCHING.ordinal() && length == 1;
+        }
+        if (dir == Directive.MOVE_PLAYER_UP.ordinal()
+            || dir == Directive.MOVE_PLAYER_DOWN.ordinal()
+            || dir == Directive.STOP_MOVING_PLAYER.ordinal()) {
+            return length == 5 || length == 7;
+        }
+        return dir == Directive.CLIENT_FPS.ordinal() && (length == 5 || length == 6);
+    }
+
+    /**
+     * Creates a message containing the token a player resumes with after
+     * the server restarts
+     *
+     * The 9-byte message contains a directive and a 64-bit token.
+     */
+    public static byte[] encodeResumeToken(final long token) {
+        ByteBuffer message = ByteBuffer.allocate(9);
+        message.put((byte) Directive.RESUME_TOKEN.ordinal());
+        message.putLong(token);
+        return message.array();
+    }
+
     /**
      * Creates a message containing the entire game state
      *
-     * The 25-byte message contains a directive, (x, y) coordinate of the first
-     * and then second player, and the (x, y) coordinate of the ball.
+     * The 32-byte message contains the state header, the (x, y) coordinate of
+     * the first and then second player, and the (x, y) coordinate of the
+     * ball. It is addressed to spectators until stampReceiver() is called.
      */
     public static byte[] encodeGameState(final GameState state) {
-        // directive = 1 byte, locations = 24 bytes
-        ByteBuffer message = ByteBuffer.allocate(49);
-        message.put((byte)Directive.GAME_STATE.ordinal());
+        ByteBuffer message = ByteBuffer.allocate(kGameStateSize);
+        writeGameState(state, message);
+        return message.array();
+    }
+
+    /** Writes a GAME_STATE message to out */
+    public static void writeGameState(final GameState state, final ByteBuffer out) {
+        // header = 8 bytes, locations = 24 bytes
+        writeStateHeader(Directive.GAME_STATE, state, out);
+        for (int i = 0; i < kStateFields; i++) {
+            out.putInt(stateField(state, i));
+        }
+    }
+
+    /**
+     * Addresses a GAME_STATE or GAME_STATE_DELTA message to one player
+     *
+     * Clients predict their own paddle from their inputs, and use the ack to
+     * drop the inputs the state already includes.
+     *
+     * @param message a state message that starts at index 0; its position
+     *                and limit are not changed
+     * @param playerIndex 0 or 1 for the match's players, or kSpectatorReceiver
+     * @param inputAck the sequence number of the player's last applied input,
+     *                 or 0 if none had one
+     */
+    public static void stampReceiver(final ByteBuffer message, final int playerIndex,
+                                     final int inputAck) {
+        message.put(kReceiverOffset, (byte) playerIndex);
+        message.putShort(kReceiverOffset + 1, (short) inputAck);
+    }
+
+    /** Writes the header of a state message, addressed to spectators */
+    private static void writeStateHeader(final Directive directive, final GameState state,
+                                         final ByteBuffer out) {
+        out.put((byte) directive.ordinal());
+        // Clients read the tick as an unsigned 32-bit number.
+        out.putInt((int) state.getTick());
+        out.put((byte) kSpectatorReceiver);
+        out.putShort((short) 0);
+    }
+
+    /**
+     * Copies the fields of a game state into out
+     *
+     * The fields are ordered as they appear in a GAME_STATE message.
+     */
+    public static void captureGameState(final GameState state, final int[] out) {
+        for (int i = 0; i < kStateFields; i++) {
+            out[i] = stateField(state, i);
+        }
+    }
 
-        final Entity[] players = state.getPlayers();
-        message.putInt(players[0].getX());
-        message.putInt(players[0].getY());
-        message.putInt(players[1].getX());
-        message.putInt(players[1].getY());
+    /**
+     * Creates a message containing the game state fields that changed
+     *
+     * @see #writeGameStateDelta(GameState, int[], ByteBuffer)
+     * @return the message, or null if nothing changed
+     */
+    public static byte[] encodeGameStateDelta(final GameState state,
+                                              final int[] baseline) {
+        ByteBuffer message = ByteBuffer.allocate(kGameStateSize);
+        if (!writeGameStateDelta(state, baseline, message)) return null;
 
-        final Ball ball = state.getBall();
-        message.putInt(ball.getX());
-        message.putInt(ball.getY());
+        byte[] bytes = new byte[message.position()];
+        message.flip();
+        message.get(bytes);
+        return bytes;
+    }
 
+    /**
+     * Writes a message containing the game state fields that changed to out
+     *
+     * @see #writeGameStateDelta(GameState, int[], ByteBuffer, boolean)
+     * @return false if nothing changed, in which case nothing is written
+     */
+    public static boolean writeGameStateDelta(final GameState state,
+                                              final int[] baseline,
+                                              final ByteBuffer out) {
+        return writeGameStateDelta(state, baseline, out, false);
+    }
+
+    /**
+     * Writes a message containing the game state fields that changed to out
+     *
+     * The message contains the state header, an 8-bit mask where bit i is
+     * set if field i of the GAME_STATE layout changed, and a 16-bit value for
+     * each changed field in order. The baseline must hold the fields last
+     * received by the client; it is updated to the current state.
+     *
+     * @param isForced write the message even if nothing changed, e.g. so
+     *                 that it carries new input acks
+     * @return false if nothing was written
+     */
+    public static boolean writeGameStateDelta(final GameState state,
+                                              final int[] baseline,
+                                              final ByteBuffer out,
+                                              final boolean isForced) {
+        int mask = 0;
+        for (int i = 0; i < kStateFields; i++) {
+            if (stateField(state, i) != baseline[i]) mask |= 1 << i;
+        }
+        if (mask == 0 && !isForced) return false;
+
+        // header = 8 bytes, mask = 1 byte, fields = 2 bytes each
+        writeStateHeader(Directive.GAME_STATE_DELTA, state, out);
+        out.put((byte)mask);
+        for (int i = 0; i < kStateFields; i++) {
+            if ((mask & (1 << i)) != 0) {
+                baseline[i] = stateField(state, i);
+                out.putShort((short)baseline[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a message telling a spectator that the match they watch or
+     * asked to watch is not live
+     *
+     * The 5-byte message contains a directive and the match id.
+     */
+    public static byte[] encodeMatchEnded(final int matchId) {
+        ByteBuffer message = ByteBuffer.allocate(5);
+        message.put((byte) Directive.MATCH_ENDED.ordinal());
+        message.putInt(matchId);
         return message.array();
     }
 
@@ -57,13 +317,202 @@ public class ArrayBufferProtocol {
      * The 9-byte message contains a directive and score for player 0 and 1.
      */
     public static byte[] encodeGameScore(final int[] scores) {
-        ByteBuffer message = ByteBuffer.allocate(9);
-        message.put((byte)Directive.GAME_SCORE.ordinal());
-        message.putInt(scores[0]);
-        message.putInt(scores[1]);
+        ByteBuffer message = ByteBuffer.allocate(kGameScoreSize);
+        writeGameScore(scores, message);
         return message.array();
     }
 
-    // Todo: Split game state into only the changed components.
-    // Sending the entire game state may not be optimal.
+    /** Writes a GAME_SCORE message to out */
+    public static void writeGameScore(final int[] scores, final ByteBuffer out) {
+        out.put((byte)Directive.GAME_SCORE.ordinal());
+        out.putInt(scores[0]);
+        out.putInt(scores[1]);
+    }
+
+    /**
+     * Creates a version 2 message containing the entire game state
+     *
+     * The 18-byte message contains the compact state header, the bit-packed
+     * coordinates in GAME_STATE order and the 16-bit scores of both players.
+     * It is addressed to spectators until stampCompactReceiver() is called.
+     */
+    public static byte[] encodeCompactGameState(final GameState state) {
+        ByteBuffer message = ByteBuffer.allocate(kCompactGameStateSize);
+        writeCompactGameState(state, message);
+        return message.array();
+    }
+
+    /** Writes a version 2 GAME_STATE message to out */
+    public static void writeCompactGameState(final GameState state, final ByteBuffer out) {
+        writeCompactGameState(state, out, new BitWriter(out));
+    }
+
+    /**
+     * Writes a version 2 GAME_STATE message to out without allocating
+     * @param bits a writer to reuse; it is reset onto out
+     */
+    public static void writeCompactGameState(final GameState state, final ByteBuffer out,
+                                             final BitWriter bits) {
+        writeCompactHeader(Directive.GAME_STATE, state, out);
+        bits.reset(out);
+        for (int i = 0; i < kStateFields; i++) {
+            bits.write(biased(stateField(state, i)), kCoordinateBits);
+        }
+        bits.write(compactField(state, kStateFields), kScoreBits);
+        bits.write(compactField(state, kStateFields + 1), kScoreBits);
+        bits.flush();
+    }
+
+    /**
+     * Copies the fields of a version 2 game state into out
+     *
+     * The fields are the coordinates in GAME_STATE order followed by the
+     * scores of the first and second player.
+     */
+    public static void captureCompactGameState(final GameState state, final int[] out) {
+        for (int i = 0; i < kCompactStateFields; i++) {
+            out[i] = compactField(state, i);
+        }
+    }
+
+    /**
+     * Writes a version 2 message containing the game state fields that
+     * changed to out
+     *
+     * The message contains the compact state header and an 8-bit mask where
+     * bit i is set if field i of captureCompactGameState() changed. Each
+     * changed coordinate follows as a 0 bit and its 5-bit signed difference
+     * from the baseline, or, if it moved further, a 1 bit and its 10-bit
+     * value. Each changed score follows as 16 bits. The baseline must hold
+     * the fields last received by the client; it is updated to the current
+     * state.
+     *
+     * @param isForced write the message even if nothing changed, e.g. so
+     *                 that it carries new input acks
+     * @return false if nothing was written
+     */
+    public static boolean writeCompactGameStateDelta(final GameState state,
+                                                     final int[] baseline,
+                                                     final ByteBuffer out,
+                                                     final boolean isForced) {
+        return writeCompactGameStateDelta(state, baseline, out, isForced, new BitWriter(out));
+    }
+
+    /**
+     * Writes a version 2 GAME_STATE_DELTA message to out without allocating,
+     * as writeCompactGameStateDelta(state, baseline, out, isForced) does
+     * @param bits a writer to reuse; it is reset onto out
+     */
+    public static boolean writeCompactGameStateDelta(final GameState state,
+                                                     final int[] baseline,
+                                                     final ByteBuffer out,
+                                                     final boolean isForced,
+                                                     final BitWriter bits) {
+        int mask = 0;
+        for (int i = 0; i < kCompactStateFields; i++) {
+            if (compactField(state, i) != baseline[i]) mask |= 1 << i;
+        }
+        if (mask == 0 && !isForced) return false;
+
+        writeCompactHeader(Directive.GAME_STATE_DELTA, state, out);
+        bits.reset(out);
+        bits.write(mask, 8);
+        final int kSmallest = -(1 << (kDifferenceBits - 1));
+        final int kLargest = (1 << (kDifferenceBits - 1)) - 1;
+        for (int i = 0; i < kCompactStateFields; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+            final int value = compactField(state, i);
+            final int difference = value - baseline[i];
+            baseline[i] = value;
+            if (i >= kStateFields) {
+                bits.write(value, kScoreBits);
+            } else if (difference >= kSmallest && difference <= kLargest) {
+                bits.write(0, 1);
+                bits.write(difference, kDifferenceBits);
+            } else {
+                bits.write(1, 1);
+                bits.write(biased(value), kCoordinateBits);
+            }
+        }
+        bits.flush();
+        return true;
+    }
+
+    /**
+     * Addresses a version 2 GAME_STATE or GAME_STATE_DELTA message to one
+     * player
+     *
+     * @param message a state message that starts at index 0; its position
+     *                and limit are not changed
+     * @param playerIndex 0 or 1 for the match's players, or kSpectatorReceiver
+     * @param inputAck the sequence number of the player's last applied input,
+     *                 or 0 if none had one
+     */
+    public static void stampCompactReceiver(final ByteBuffer message, final int playerIndex,
+                                            final int inputAck) {
+        final int receiver = playerIndex == kSpectatorReceiver
+                ? kCompactSpectatorReceiver : playerIndex;
+        message.put(0, (byte) (message.get(0) & kDirectiveMask | receiver << 6));
+        message.putShort(4, (short) inputAck);
+    }
+
+    /**
+     * Applies a version 2 GAME_STATE or GAME_STATE_DELTA message to the
+     * fields a client last received, the way clients decode it
+     *
+     * @param message a state message; it is read from its position on
+     * @param fields the client's fields in captureCompactGameState() order
+     */
+    public static void readCompactGameState(final ByteBuffer message, final int[] fields) {
+        final int directive = message.get() & kDirectiveMask;
+        message.position(message.position() + kCompactHeaderSize - 1);
+        final BitReader bits = new BitReader(message);
+        final boolean isDelta = directive == Directive.GAME_STATE_DELTA.ordinal();
+        final int mask = isDelta ? bits.read(8) : (1 << kCompactStateFields) - 1;
+        for (int i = 0; i < kCompactStateFields; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+            if (i >= kStateFields) {
+                fields[i] = bits.read(kScoreBits);
+            } else if (isDelta && bits.read(1) == 0) {
+                fields[i] += bits.readSigned(kDifferenceBits);
+            } else {
+                fields[i] = bits.read(kCoordinateBits) - kCoordinateBias;
+            }
+        }
+    }
+
+    /** Writes the header of a version 2 state message, addressed to spectators */
+    private static void writeCompactHeader(final Directive directive, final GameState state,
+                                           final ByteBuffer out) {
+        out.put((byte) (directive.ordinal() | kCompactSpectatorReceiver << 6));
+        // Clients only need to tell recent ticks apart.
+        final int tick = (int) state.getTick();
+        out.put((byte) (tick >>> 16));
+        out.putShort((short) tick);
+        out.putShort((short) 0);
+    }
+
+    /** Returns a coordinate as the unsigned number version 2 messages hold */
+    private static int biased(final int coordinate) {
+        final int max = (1 << kCoordinateBits) - 1;
+        return Math.max(0, Math.min(coordinate + kCoordinateBias, max));
+    }
+
+    /** Returns field i of the state in captureCompactGameState() order */
+    private static int compactField(final GameState state, final int i) {
+        if (i < kStateFields) return stateField(state, i);
+        return state.getScore(state.getPlayers()[i - kStateFields]);
+    }
+
+    /** Returns field i of the state in GAME_STATE order */
+    private static int stateField(final GameState state, final int i) {
+        switch (i) {
+            case 0: return state.getPlayers()[0].getX();
+            case 1: return state.getPlayers()[0].getY();
+            case 2: return state.getPlayers()[1].getX();
+            case 3: return state.getPlayers()[1].getY();
+            case 4: return state.getBall().getX();
+            default: return state.getBall().getY();
+        }
+    }
 }
@@ -1,46 +1,67 @@
 package com.marcusposey;
 
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
 
 /** Handles a ball's location and physics */
 public class Ball extends Entity {
-    private final int kSpeed = 4;
-    private int xVelocity = 3;
-    private int yVelocity = 3;
+    // The speed along each axis at the start of a rally, in subpixels per
+    // physics step (240 pixels a second)
+    static final int kSpeed = 128;
+    // How much each paddle hit adds to the speed along each axis
+    static final int kSpeedUp = 8;
+    // The fastest the ball gets along each axis (480 pixels a second)
+    static final int kMaxSpeed = 2 * kSpeed;
+    // The number of physics steps in a tick at the default tick rate
+    static final int kDefaultStepsPerTick = PhysicsStore.stepsPerTick(World.kDefaultTickRate);
 
     // The last player to hit the ball
     // 0 = left player; 1 = right player
     private int lastToHit = 0;
 
+    // Picks where the ball respawns; seeded so that matches can be replayed
+    private final SplittableRandom random;
+
     /** Creates a new ball with a default size and location */
     public Ball() {
+        this(0);
+    }
+
+    /**
+     * Creates a new ball with a default size and location
+     * @param seed decides where the ball respawns; balls with the same seed
+     *             respawn in the same places
+     */
+    public Ball(final long seed) {
         super((GameState.kCanvasWidth - 20) / 2,
                 (GameState.kCanvasHeight - 20) / 2, 20, 20);
+        random = new SplittableRandom(seed);
+        getStore().xVelocity[getSlot()] = kSpeed;
+        getStore().yVelocity[getSlot()] = kSpeed;
     }
 
     /**
-     * Moves the ball according to its physics
+     * Moves the ball and both paddles by one tick at the default tick rate
      * @param players either player that the ball may hit and bounce away from
-     * @return true if the move resulted in the ball going out of the y bounds
+     * @return true if the move resulted in the ball going out of the x bounds
      */
     public boolean move(final Entity[] players) {
-        setX(getX() + xVelocity);
-        setY(getY() + yVelocity);
-        if (getY() < 0 || getY() + getWidth() > GameState.kCanvasHeight) {
-            yVelocity *= -1;
-        }
-        lastToHit = xVelocity < 0 ? 1 : 0;
-
-        final int handle = xVelocity < 0 ? 0 : 1;
-        if (intersects(players[handle])) {
-            // Bounce the ball in the other direction.
-            xVelocity = -xVelocity;
-        } else if (getX() + getWidth() < 0 || getX() > GameState.kCanvasWidth) {
-            // They missed the ball.
-            spawnBall();
-            return true;
-        }
-        return false;
+        return move(players, kDefaultStepsPerTick);
+    }
+
+    /**
+     * Moves the ball and both paddles by a number of physics steps
+     * @param players either player that the ball may hit and bounce away from
+     * @return true if the move resulted in the ball going out of the x bounds
+     */
+    public boolean move(final Entity[] players, final int steps) {
+        final int stepsLeft = PhysicsStore.stepMatch(
+                getStore(), getSlot(),
+                players[0].getStore(), players[0].getSlot(),
+                players[1].getStore(), players[1].getSlot(), steps);
+        if (stepsLeft == -1) return false;
+
+        finishPoint(stepsLeft);
+        return true;
     }
 
     /**
@@ -50,24 +71,50 @@ public class Ball extends Entity {
         return lastToHit;
     }
 
+    /** Records that a player scored and puts the ball back in play */
+    void scored(final int winner) {
+        lastToHit = winner;
+        spawnBall();
+    }
+
+    /**
+     * Serves the ball after it left the canvas, and moves it for the rest
+     * of the tick so that the serve does not wait for the next tick
+     * @param stepsLeft the steps left in the tick when the point was scored
+     * @return the index of the player who scored
+     */
+    int finishPoint(final int stepsLeft) {
+        final int winner = PhysicsStore.scorer(getStore(), getSlot());
+        scored(winner);
+        PhysicsStore.moveServedBall(getStore(), getSlot(), stepsLeft);
+        return winner;
+    }
+
+    /**
+     * Puts the ball back into a state saved by a MatchSnapshot
+     * @param respawns the number of times the ball had respawned, i.e. the
+     *                 points scored in the match
+     */
+    void restore(final int lastToHit, final int respawns) {
+        this.lastToHit = lastToHit;
+        // Make the same draws spawnBall() made, so respawns continue as if
+        // the match had never stopped.
+        for (int i = 0; i < respawns; i++) {
+            random.nextInt(0, GameState.kCanvasHeight - getWidth());
+            random.nextBoolean();
+        }
+    }
+
     /** Spawns the ball in the horizontal center of the map */
     private void spawnBall() {
         setX((GameState.kCanvasWidth - getWidth()) / 2);
-        setY(ThreadLocalRandom.current().nextInt(0, GameState.kCanvasHeight - getWidth()));
+        setY(random.nextInt(0, GameState.kCanvasHeight - getWidth()));
 
-        // Go somewhere up or down.
-        yVelocity = (ThreadLocalRandom.current().nextBoolean() ? 1 : -1) * 3;
+        // Go somewhere up or down, at the starting speed.
+        getStore().yVelocity[getSlot()] = (random.nextBoolean() ? 1 : -1) * kSpeed;
 
         // Send it towards the player who lost the last match.
         final int newDirection = getX() > GameState.kCanvasWidth ? 1 : -1;
-        xVelocity = newDirection * 3;
-    }
-
-    /** Returns true if the ball is intersecting with entity */
-    private boolean intersects(final Entity entity) {
-        return  entity.getX() < getX() + getWidth()        &&
-                entity.getY() < getY() + getHeight()       &&
-                getX() < entity.getX() + entity.getWidth() &&
-                getY() < entity.getY() + entity.getHeight();
+        getStore().xVelocity[getSlot()] = newDirection * kSpeed;
     }
 }
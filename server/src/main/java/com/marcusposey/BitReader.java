@@ -0,0 +1,32 @@
+package com.marcusposey;
+
+import java.nio.ByteBuffer;
+
+/** Reads values written by a BitWriter */
+public class BitReader {
+    private final ByteBuffer in;
+    // Bits taken from in but not read yet; only the lowest count matter
+    private long bits = 0;
+    private int count = 0;
+
+    /** Creates a reader that starts at the position of in */
+    public BitReader(final ByteBuffer in) {
+        this.in = in;
+    }
+
+    /** Reads an unsigned value of width bits */
+    public int read(final int width) {
+        while (count < width) {
+            bits = bits << 8 | (in.get() & 0xFF);
+            count += 8;
+        }
+        count -= width;
+        return (int) ((bits >>> count) & ((1L << width) - 1));
+    }
+
+    /** Reads a two's complement value of width bits */
+    public int readSigned(final int width) {
+        final int value = read(width);
+        return value << (32 - width) >> (32 - width);
+    }
+}
@@ -0,0 +1,48 @@
+package com.marcusposey;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs values of up to 32 bits into a ByteBuffer, most significant bit
+ * first and without padding between them
+ *
+ * Whole bytes are written as soon as they are complete; flush() writes the
+ * last partial byte, padded with zero bits. A writer can be reset onto
+ * another buffer, so code that packs messages every tick keeps one writer
+ * instead of allocating one per message.
+ */
+public class BitWriter {
+    private ByteBuffer out;
+    // Bits written but not yet put into out; only the lowest count matter
+    private long bits = 0;
+    private int count = 0;
+
+    /** Creates a writer that appends to out at its position */
+    public BitWriter(final ByteBuffer out) {
+        this.out = out;
+    }
+
+    /** Drops any unflushed bits and appends to out at its position from now on */
+    public void reset(final ByteBuffer out) {
+        this.out = out;
+        bits = 0;
+        count = 0;
+    }
+
+    /** Writes the lowest width bits of value */
+    public void write(final int value, final int width) {
+        bits = bits << width | (value & ((1L << width) - 1));
+        count += width;
+        while (count >= 8) {
+            count -= 8;
+            out.put((byte) (bits >>> count));
+        }
+    }
+
+    /** Writes the bits of a partial byte, if any */
+    public void flush() {
+        if (count == 0) return;
+        out.put((byte) (bits << (8 - count)));
+        count = 0;
+    }
+}
@@ -0,0 +1,114 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.BinaryFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable binary frame that is encoded once and sent to many sockets
+ *
+ * A Broadcast is owned by a single thread, typically a shard, and reused for
+ * every message that thread sends. Writing a message with begin() and
+ * finish() replaces the previous one, so a message must be sent to all of its
+ * recipients before the next one is written.
+ */
+public class Broadcast {
+    private final ByteBuffer payload;
+    private final BinaryFrame frame = new BinaryFrame();
+    private final Metrics metrics;
+    // Holds the version 2 form of the current message, or null until needed
+    private Broadcast compact;
+    // Packs version 2 messages into the payload
+    private final BitWriter bits;
+
+    /** Creates a broadcast that can hold messages of up to capacity bytes */
+    public Broadcast(final int capacity) {
+        this(capacity, new Metrics());
+    }
+
+    /**
+     * Creates a broadcast that can hold messages of up to capacity bytes
+     * @param metrics counts the messages that are sent
+     */
+    public Broadcast(final int capacity, Metrics metrics) {
+        payload = ByteBuffer.allocate(capacity);
+        bits = new BitWriter(payload);
+        this.metrics = metrics;
+        frame.setFin(true);
+    }
+
+    /** Returns the metrics that count the messages that are sent */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the current message, e.g. to change a field for each recipient
+     * before sending it to them
+     */
+    ByteBuffer getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns a broadcast of the same capacity and metrics for the form of
+     * the current message that version 2 clients are sent
+     */
+    Broadcast compact() {
+        if (compact == null) compact = new Broadcast(payload.capacity(), metrics);
+        return compact;
+    }
+
+    /** Returns the writer to reuse for packing bits into the message */
+    BitWriter getBits() {
+        return bits;
+    }
+
+    /** Clears the previous message and returns the buffer to write into */
+    public ByteBuffer begin() {
+        payload.clear();
+        return payload;
+    }
+
+    /** Completes the message written since begin() */
+    public void finish() {
+        payload.flip();
+        frame.setPayload(payload);
+    }
+
+    /**
+     * Queues the current message as a game state, replacing any game state
+     * the outbox has not sent yet
+     * @return false if the outbox's connection is closed or was evicted
+     */
+    public boolean sendStateTo(final Outbox outbox) {
+        return outbox.offerState(payload);
+    }
+
+    /**
+     * Queues the current message so that it is never dropped
+     * @return false if the outbox's connection is closed or was evicted
+     */
+    public boolean sendReliableTo(final Outbox outbox) {
+        return outbox.offerReliable(payload);
+    }
+
+    /**
+     * Sends the current message to the socket
+     * @return false if the socket was not connected
+     */
+    public boolean sendTo(final WebSocket socket) {
+        // Sending reads the payload, so rewind it for each recipient.
+        payload.position(0);
+        try {
+            socket.sendFrame(frame);
+            metrics.recordSend(payload.limit());
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            metrics.sendFailures.increment();
+            return false;
+        }
+    }
+}
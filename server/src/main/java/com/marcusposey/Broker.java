@@ -0,0 +1,300 @@
+package com.marcusposey;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads players over a cluster of game server nodes
+ *
+ * Nodes report their address and load with BrokerClient heartbeats. Before
+ * connecting, clients ask the broker for a node with GET /assign and then
+ * play there; a match is always owned by the node both players were sent
+ * to. The broker sends a player to a node where someone is waiting for an
+ * opponent if it can, and to the least loaded node otherwise, so lobbies
+ * pair up quickly and load stays even.
+ *
+ * Endpoints:
+ * - POST /heartbeat with form fields address, capacity, connections, lobby
+ *   and matches registers or refreshes a node
+ * - POST /leave with the field address removes a node
+ * - GET /assign answers with the WebSocket address of a node, or 503
+ * - GET /nodes lists the nodes and their load
+ *
+ * Only nodes may heartbeat or leave, or anyone could send players to a
+ * server of their own or remove real ones. Given a secret, the broker
+ * requires it in a bearer Authorization header; without one, it only
+ * accepts nodes on its own host. Node addresses must be ws:// or wss://
+ * URLs.
+ *
+ * A broker can run inside a game server process or on its own with main().
+ */
+public class Broker {
+    // Nodes that have not reported for this long get no more players
+    public static final int kDefaultNodeTimeoutMillis = 3000;
+
+    private final HttpServer server;
+    private final long nodeTimeoutNanos;
+    // The secret nodes present, or null if only local nodes are accepted
+    private final byte[] secret;
+    // Live nodes by address, in the order they joined
+    private final Map<String, NodeStatus> nodes = new LinkedHashMap<>();
+
+    /**
+     * Creates a broker that has not started yet
+     * @param port the local port on which to listen, or 0 for any
+     */
+    public Broker(final int port) throws IOException {
+        this(port, kDefaultNodeTimeoutMillis);
+    }
+
+    /**
+     * Creates a broker that has not started yet
+     * @param port the local port on which to listen, or 0 for any
+     * @param nodeTimeoutMillis how long a node may go without reporting
+     */
+    public Broker(final int port, final int nodeTimeoutMillis) throws IOException {
+        this(port, nodeTimeoutMillis, null);
+    }
+
+    /**
+     * Creates a broker that has not started yet
+     * @param port the local port on which to listen, or 0 for any
+     * @param nodeTimeoutMillis how long a node may go without reporting
+     * @param secret the secret nodes must present, or null to only accept
+     *               nodes on this host
+     */
+    public Broker(final int port, final int nodeTimeoutMillis, final String secret)
+            throws IOException {
+        nodeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(nodeTimeoutMillis);
+        this.secret = secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/heartbeat", exchange -> {
+            if (!isNode(exchange)) {
+                respond(exchange, 403, "Only nodes of the cluster may report");
+                return;
+            }
+            final Map<String, String> form = readForm(exchange);
+            final String address = form.get("address");
+            if (!"POST".equals(exchange.getRequestMethod()) || !isNodeAddress(address)) {
+                respond(exchange, 400, "Expected a POST with a ws:// or wss:// address");
+                return;
+            }
+            heartbeat(address, intField(form, "capacity"), intField(form, "connections"),
+                      intField(form, "lobby"), intField(form, "matches"), System.nanoTime());
+            respond(exchange, 204, null);
+        });
+        server.createContext("/leave", exchange -> {
+            if (!isNode(exchange)) {
+                respond(exchange, 403, "Only nodes of the cluster may leave");
+                return;
+            }
+            final String address = readForm(exchange).get("address");
+            if (!"POST".equals(exchange.getRequestMethod()) || address == null) {
+                respond(exchange, 400, "Expected a POST with an address");
+                return;
+            }
+            leave(address);
+            respond(exchange, 204, null);
+        });
+        server.createContext("/assign", exchange -> {
+            final NodeStatus node = assign(System.nanoTime());
+            if (node == null) {
+                respond(exchange, 503, "No game server is available");
+            } else {
+                respond(exchange, 200, node.getAddress());
+            }
+        });
+        server.createContext("/nodes", exchange -> respond(exchange, 200, describe()));
+    }
+
+    /** Starts serving requests on a background thread */
+    public void start() {
+        server.start();
+    }
+
+    /** Stops serving requests */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /** Returns the port the broker listens on */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Registers a node or replaces its load with what it reported */
+    synchronized void heartbeat(final String address, final int capacity, final int connections,
+                                final int lobby, final int matches, final long now) {
+        NodeStatus node = nodes.get(address);
+        if (node == null) {
+            node = new NodeStatus(address);
+            nodes.put(address, node);
+        }
+        node.update(capacity, connections, lobby, matches, now);
+    }
+
+    /** Stops sending players to a node */
+    synchronized void leave(final String address) {
+        nodes.remove(address);
+    }
+
+    /**
+     * Picks the node a new player should connect to and counts the player
+     * @return the node, or null if every live node is full
+     */
+    synchronized NodeStatus assign(final long now) {
+        NodeStatus best = null;
+        final Iterator<NodeStatus> it = nodes.values().iterator();
+        while (it.hasNext()) {
+            final NodeStatus node = it.next();
+            if (now - node.getLastHeartbeatNanos() > nodeTimeoutNanos) {
+                it.remove();
+                continue;
+            }
+            if (node.getConnections() >= node.getCapacity()) continue;
+            if (best == null || isBetter(node, best)) best = node;
+        }
+        if (best != null) best.assign();
+        return best;
+    }
+
+    /** Returns true if a player should rather be sent to a than to b */
+    private static boolean isBetter(final NodeStatus a, final NodeStatus b) {
+        if (a.hasWaitingPlayer() != b.hasWaitingPlayer()) return a.hasWaitingPlayer();
+        return a.getLoad() < b.getLoad();
+    }
+
+    /** Returns one line per node with its address and load */
+    synchronized String describe() {
+        final StringBuilder out = new StringBuilder();
+        for (NodeStatus node : nodes.values()) {
+            out.append(node.getAddress())
+               .append(" connections=").append(node.getConnections())
+               .append(" capacity=").append(node.getCapacity())
+               .append(" lobby=").append(node.getLobby())
+               .append(" matches=").append(node.getMatches())
+               .append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Returns true if a request comes from a node: it carries the broker's
+     * secret, or, if the broker has none, it comes from this host
+     */
+    private boolean isNode(final HttpExchange exchange) {
+        if (secret == null) return exchange.getRemoteAddress().getAddress().isLoopbackAddress();
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) return false;
+        final byte[] presented = authorization.substring("Bearer ".length())
+                                              .getBytes(StandardCharsets.UTF_8);
+        // Compares in constant time so the secret cannot be guessed bytewise.
+        return MessageDigest.isEqual(presented, secret);
+    }
+
+    /** Returns true if an address is a WebSocket URL clients can be sent to */
+    static boolean isNodeAddress(final String address) {
+        if (address == null) return false;
+        try {
+            final URI uri = new URI(address);
+            return ("ws".equals(uri.getScheme()) || "wss".equals(uri.getScheme()))
+                   && uri.getHost() != null;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    /** Parses an application/x-www-form-urlencoded request body */
+    private static Map<String, String> readForm(final HttpExchange exchange) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            final byte[] chunk = new byte[512];
+            int count;
+            while ((count = in.read(chunk)) != -1) body.write(chunk, 0, count);
+        }
+        return parseForm(new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /** Parses form fields such as "a=1&b=2" */
+    static Map<String, String> parseForm(final String form) throws UnsupportedEncodingException {
+        final Map<String, String> fields = new HashMap<>();
+        for (String pair : form.split("&")) {
+            final int equals = pair.indexOf('=');
+            if (equals <= 0) continue;
+            fields.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                       URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        }
+        return fields;
+    }
+
+    /** Returns a form field as an integer, or 0 if it is missing or invalid */
+    private static int intField(final Map<String, String> form, final String name) {
+        try {
+            return Integer.parseInt(form.getOrDefault(name, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** Sends a plain text response that browsers on any origin may read */
+    private static void respond(final HttpExchange exchange, final int status,
+                                final String text) throws IOException {
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        if (text == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Runs a broker on its own
+     * Usage: Broker [--port n] [--node-timeout millis]
+     *
+     * Nodes on other hosts are accepted if they present the secret given
+     * with -Dpong.broker.secret.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = 8100;
+        int nodeTimeout = kDefaultNodeTimeoutMillis;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(value); break;
+                case "--node-timeout": nodeTimeout = Integer.parseInt(value); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        final Broker broker = new Broker(port, nodeTimeout,
+                                         System.getProperty("pong.broker.secret"));
+        broker.start();
+        System.out.println("Broker listening on port " + broker.getPort());
+    }
+}
@@ -0,0 +1,130 @@
+package com.marcusposey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers a game server node with a Broker
+ *
+ * The client reports the node's address and load every kHeartbeatMillis
+ * from a background thread. A broker that cannot be reached only means
+ * the node gets no players through it until the broker is back.
+ */
+public class BrokerClient {
+    private static final Logger log = LoggerFactory.getLogger(BrokerClient.class);
+    // How often the node reports; well within Broker.kDefaultNodeTimeoutMillis
+    static final int kHeartbeatMillis = 1000;
+    private static final int kRequestTimeoutMillis = 1000;
+
+    private final String broker;
+    private final String address;
+    private final int capacity;
+    private final Metrics metrics;
+    // The secret the broker expects from nodes, or null if it has none
+    private final String secret;
+    private ScheduledExecutorService executor;
+    // True if the last heartbeat failed, so that failures are logged once
+    private boolean isFailing = false;
+
+    /**
+     * Creates a client that has not started reporting
+     * @param broker the broker's base URL, e.g. "http://localhost:8100"
+     * @param address the WebSocket address clients connect to the node at
+     * @param capacity the most connections the node should be given
+     * @param metrics the node's metrics, from which its load is read
+     */
+    public BrokerClient(final String broker, final String address, final int capacity,
+                        final Metrics metrics) {
+        this(broker, address, capacity, metrics, null);
+    }
+
+    /**
+     * Creates a client that has not started reporting
+     * @param secret the secret the broker expects from nodes, or null if the
+     *               broker runs on this host without one
+     */
+    public BrokerClient(final String broker, final String address, final int capacity,
+                        final Metrics metrics, final String secret) {
+        this.broker = broker;
+        this.address = address;
+        this.capacity = capacity;
+        this.metrics = metrics;
+        this.secret = secret;
+    }
+
+    /** Starts reporting in the background */
+    public synchronized void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "broker-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::heartbeat, 0, kHeartbeatMillis,
+                                        TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops reporting and asks the broker to send no more players */
+    public synchronized void stop() throws InterruptedException {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor.awaitTermination(kRequestTimeoutMillis, TimeUnit.MILLISECONDS);
+        executor = null;
+        try {
+            post("/leave", "address=" + encode(address));
+        } catch (IOException e) {
+            log.warn("Could not leave broker " + broker, e);
+        }
+    }
+
+    /** Reports the node's load once */
+    void heartbeat() {
+        try {
+            post("/heartbeat", "address=" + encode(address)
+                    + "&capacity=" + capacity
+                    + "&connections=" + metrics.getActiveConnections()
+                    + "&lobby=" + metrics.getLobbySize()
+                    + "&matches=" + metrics.getActiveMatches());
+            if (isFailing) log.info("Reached broker " + broker + " again");
+            isFailing = false;
+        } catch (IOException e) {
+            if (!isFailing) log.warn("Could not reach broker " + broker, e);
+            isFailing = true;
+        }
+    }
+
+    /** Sends a form to the broker */
+    private void post(final String path, final String form) throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL(broker + path).openConnection();
+        try {
+            connection.setConnectTimeout(kRequestTimeoutMillis);
+            connection.setReadTimeout(kRequestTimeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            if (secret != null) connection.setRequestProperty("Authorization", "Bearer " + secret);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(form.getBytes(StandardCharsets.UTF_8));
+            }
+            final int status = connection.getResponseCode();
+            if (status >= 300) throw new IOException("Broker answered " + status);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String encode(final String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+}
@@ -0,0 +1,99 @@
+package com.marcusposey;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Pairs players whose keys, such as a rating or round-trip time, fall in
+ * the same bucket
+ *
+ * Within a bucket players are paired in the order they entered the lobby.
+ * A player left without a partner for longer than the maximum wait is
+ * paired with the unpaired player whose key is closest, so nobody waits
+ * forever for a close match.
+ */
+public class BucketedPairingPolicy implements PairingPolicy {
+    private final ToLongFunction<Player> key;
+    private final long bucketWidth;
+    private final long maxWaitNanos;
+
+    // Reused between ticks
+    private final List<Player> sorted = new ArrayList<>();
+    private final List<Player> unpaired = new ArrayList<>();
+    private final Comparator<Player> byKey;
+
+    /**
+     * Creates a policy that buckets players by key
+     * @param bucketWidth the range of keys that share a bucket
+     * @param maxWaitNanos how long a player waits for someone in their
+     *                     bucket before being paired with anyone
+     */
+    public BucketedPairingPolicy(final ToLongFunction<Player> key,
+                                 final long bucketWidth, final long maxWaitNanos) {
+        if (bucketWidth <= 0) {
+            throw new IllegalArgumentException("bucketWidth must be positive");
+        }
+        this.key = key;
+        this.bucketWidth = bucketWidth;
+        this.maxWaitNanos = maxWaitNanos;
+        byKey = Comparator.comparingLong(key);
+    }
+
+    /**
+     * Creates a policy that keeps players with high round-trip times away
+     * from players with low ones
+     *
+     * Players whose round-trip time is not known yet share a bucket.
+     */
+    public static BucketedPairingPolicy byLatency(final long bucketWidthNanos,
+                                                  final long maxWaitNanos) {
+        return new BucketedPairingPolicy(Player::getRttNanos, bucketWidthNanos, maxWaitNanos);
+    }
+
+    @Override
+    public void pair(final List<Player> waiting, final List<Player> pairs) {
+        // The sort is stable, so each bucket stays oldest first.
+        sorted.clear();
+        sorted.addAll(waiting);
+        sorted.sort(byKey);
+
+        unpaired.clear();
+        Player held = null;
+        long heldBucket = 0;
+        for (final Player player : sorted) {
+            final long bucket = Math.floorDiv(key.applyAsLong(player), bucketWidth);
+            if (held != null && bucket == heldBucket) {
+                pairs.add(held);
+                pairs.add(player);
+                held = null;
+            } else {
+                if (held != null) unpaired.add(held);
+                held = player;
+                heldBucket = bucket;
+            }
+        }
+        if (held != null) unpaired.add(held);
+
+        // Neighbours in key order are the closest remaining matches.
+        final long now = System.nanoTime();
+        held = null;
+        for (final Player player : unpaired) {
+            if (held != null && (isOverdue(held, now) || isOverdue(player, now))) {
+                pairs.add(held);
+                pairs.add(player);
+                held = null;
+            } else {
+                held = player;
+            }
+        }
+        sorted.clear();
+        unpaired.clear();
+    }
+
+    /** Returns true if the player has waited too long for a close match */
+    private boolean isOverdue(final Player player, final long now) {
+        return now - player.getLobbyEntryNanos() >= maxWaitNanos;
+    }
+}
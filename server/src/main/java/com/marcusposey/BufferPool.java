@@ -0,0 +1,56 @@
+package com.marcusposey;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A stack of reusable direct buffers of one size
+ *
+ * Direct buffers are written to sockets without being copied first, but are
+ * slow to allocate and are only freed by the garbage collector, so they are
+ * kept and reused. Requests for more than the pooled size get a heap buffer
+ * that is not pooled.
+ *
+ * A pool may be used from several threads; each call locks it briefly.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final ByteBuffer[] free;
+    private int freeCount = 0;
+
+    /**
+     * Creates an empty pool
+     * @param bufferSize the capacity of every pooled buffer
+     * @param maxPooled the most released buffers that are kept for reuse
+     */
+    public BufferPool(final int bufferSize, final int maxPooled) {
+        this.bufferSize = bufferSize;
+        free = new ByteBuffer[maxPooled];
+    }
+
+    /** Returns a cleared buffer that can hold at least size bytes */
+    public ByteBuffer acquire(final int size) {
+        if (size > bufferSize) return ByteBuffer.allocate(size);
+        synchronized (this) {
+            if (freeCount > 0) {
+                final ByteBuffer buffer = free[--freeCount];
+                free[freeCount] = null;
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /** Returns a buffer from acquire() so that it can be reused */
+    public void release(final ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != bufferSize) return;
+        synchronized (this) {
+            if (freeCount < free.length) free[freeCount++] = buffer;
+        }
+    }
+
+    /** Returns the number of buffers waiting to be reused */
+    public synchronized int size() {
+        return freeCount;
+    }
+}
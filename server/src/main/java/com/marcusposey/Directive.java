@@ -11,5 +11,11 @@ public enum Directive {
     MOVE_PLAYER_UP, // 2
     MOVE_PLAYER_DOWN, // 3
     STOP_MOVING_PLAYER, // 4
-    GAME_SCORE // 5
+    GAME_SCORE, // 5
+    GAME_STATE_DELTA, // 6
+    WATCH_MATCH, // 7
+    STOP_WATCHING, // 8
+    CLIENT_FPS, // 9
+    RESUME_TOKEN, // 10
+    MATCH_ENDED // 11
 }
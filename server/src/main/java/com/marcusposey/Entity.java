@@ -1,41 +1,67 @@
 package com.marcusposey;
 
-/** A game object which is visible on a 2d plane */
+/**
+ * A game object which is visible on a 2d plane
+ *
+ * An entity is a view over one slot of a PhysicsStore. New entities get a
+ * store of their own and can later be bound to a shared one. Its accessors
+ * work in whole pixels; the store keeps subpixels.
+ */
 public abstract class Entity {
-    private int xCoord;
-    private int yCoord;
-
-    private int width;
-    private int height;
+    private PhysicsStore store;
+    private int slot;
 
     public Entity(int xCoord, int yCoord, int width, int height) {
-        this.xCoord = xCoord;
-        this.yCoord = yCoord;
-        this.width = width;
-        this.height = height;
+        store = new PhysicsStore(1);
+        slot = 0;
+        setX(xCoord);
+        setY(yCoord);
+        setWidth(width);
+        setHeight(height);
     }
 
-    /** Returns the entity's x coordinate */
-    public int getX() { return xCoord; }
+    /** Returns the entity's x coordinate, rounded down to a pixel */
+    public int getX() { return store.x[slot] >> PhysicsStore.kSubpixelBits; }
 
-    /** Returns the entity's y coordinate */
-    public int getY() { return yCoord; }
+    /** Returns the entity's y coordinate, rounded down to a pixel */
+    public int getY() { return store.y[slot] >> PhysicsStore.kSubpixelBits; }
 
     /** Returns the entity's width */
-    public int getWidth() { return width; }
+    public int getWidth() { return store.width[slot] >> PhysicsStore.kSubpixelBits; }
 
     /** Returns the entity's height */
-    public int getHeight() { return height; }
+    public int getHeight() { return store.height[slot] >> PhysicsStore.kSubpixelBits; }
 
     /** Sets the entity's x coordinate */
-    public void setX(final int x) { xCoord = x; }
+    public void setX(final int x) { store.x[slot] = x << PhysicsStore.kSubpixelBits; }
 
-    /** Sets the entity's y coordinate */
-    public void setY(final int y) { yCoord = y; }
+    /** Sets the entity's y coordinate, dropping any rewound position */
+    public void setY(final int y) {
+        store.y[slot] = y << PhysicsStore.kSubpixelBits;
+        store.rewoundY[slot] = PhysicsStore.kNotRewound;
+    }
 
     /** Sets the entity's width */
-    public void setWidth(int width) { this.width = width; }
+    public void setWidth(int width) { store.width[slot] = width << PhysicsStore.kSubpixelBits; }
 
     /** Set's the entity's height */
-    public void setHeight(int height) { this.height = height; }
+    public void setHeight(int height) { store.height[slot] = height << PhysicsStore.kSubpixelBits; }
+
+    /** Returns the store that holds the entity's data */
+    PhysicsStore getStore() { return store; }
+
+    /** Returns the entity's slot in its store */
+    int getSlot() { return slot; }
+
+    /** Moves the entity's data into a slot of another store */
+    void bind(final PhysicsStore target, final int targetSlot) {
+        store.copy(slot, target, targetSlot);
+        store = target;
+        slot = targetSlot;
+    }
+
+    /** Moves the entity's data into a store of its own */
+    void detach() {
+        bind(new PhysicsStore(1), 0);
+    }
 }
@@ -0,0 +1,14 @@
+package com.marcusposey;
+
+import java.util.List;
+
+/** Pairs players in the order they entered the lobby */
+public class FifoPairingPolicy implements PairingPolicy {
+    @Override
+    public void pair(final List<Player> waiting, final List<Player> pairs) {
+        for (int i = 0; i + 1 < waiting.size(); i += 2) {
+            pairs.add(waiting.get(i));
+            pairs.add(waiting.get(i + 1));
+        }
+    }
+}
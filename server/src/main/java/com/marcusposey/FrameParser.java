@@ -0,0 +1,149 @@
+package com.marcusposey;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes WebSocket frames sent by clients, as defined in RFC 6455
+ *
+ * Frames are decoded where they lie: the payload is unmasked in place and
+ * described by an offset and a length, so decoding allocates nothing. A
+ * parser keeps only the last frame it decoded and belongs to one thread.
+ */
+public class FrameParser {
+    public static final int kContinuation = 0x0;
+    public static final int kText = 0x1;
+    public static final int kBinary = 0x2;
+    public static final int kClose = 0x8;
+    public static final int kPing = 0x9;
+    public static final int kPong = 0xA;
+
+    // The longest possible frame header
+    public static final int kMaxHeaderSize = 14;
+    // Returned by parse() when the buffer does not hold a whole frame
+    public static final int kIncomplete = 0;
+    // Returned by parse() for frames a client must not send
+    public static final int kInvalid = -1;
+    // Returned by parse() for frames with too large a payload
+    public static final int kTooLarge = -2;
+
+    private final int maxPayload;
+
+    private boolean isFin;
+    private int opcode;
+    private int payloadOffset;
+    private int payloadLength;
+
+    /** Creates a parser that rejects payloads longer than maxPayload bytes */
+    public FrameParser(final int maxPayload) {
+        this.maxPayload = maxPayload;
+    }
+
+    /**
+     * Decodes the frame that starts at the buffer's position
+     *
+     * The buffer's position and limit are not changed. The frame's payload
+     * is unmasked in place only if the whole frame is in the buffer.
+     *
+     * @return the length of the frame including its header, or kIncomplete,
+     *         kInvalid or kTooLarge
+     */
+    public int parse(final ByteBuffer buffer) {
+        final int start = buffer.position();
+        final int available = buffer.limit() - start;
+        if (available < 2) return kIncomplete;
+
+        final int first = buffer.get(start);
+        final int second = buffer.get(start + 1);
+        // Clients must mask every frame and may not use extension bits.
+        if ((first & 0x70) != 0 || (second & 0x80) == 0) return kInvalid;
+
+        final int code = first & 0x0F;
+        final boolean fin = (first & 0x80) != 0;
+        long length = second & 0x7F;
+        int header = 2;
+        if (length == 126) {
+            if (available < 4) return kIncomplete;
+            length = buffer.getShort(start + 2) & 0xFFFF;
+            header = 4;
+        } else if (length == 127) {
+            if (available < 10) return kIncomplete;
+            length = buffer.getLong(start + 2);
+            header = 10;
+            if (length < 0) return kInvalid;
+        }
+
+        // Control frames are short and never fragmented.
+        if (code >= kClose && (!fin || length > 125)) return kInvalid;
+        if (code > kBinary && code < kClose || code > kPong) return kInvalid;
+        if (length > maxPayload) return kTooLarge;
+
+        header += 4;
+        if (available < header + length) return kIncomplete;
+
+        final int mask = buffer.getInt(start + header - 4);
+        unmask(buffer, start + header, (int) length, mask);
+        isFin = fin;
+        opcode = code;
+        payloadOffset = start + header;
+        payloadLength = (int) length;
+        return header + payloadLength;
+    }
+
+    /** Returns true if the last frame completes its message */
+    public boolean isFin() {
+        return isFin;
+    }
+
+    /** Returns the opcode of the last frame */
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /** Returns the index in the buffer of the last frame's payload */
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    /** Returns the length of the last frame's payload */
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Writes the header of an unmasked server frame at the buffer's position
+     * @return the number of header bytes written
+     */
+    public static int writeHeader(final ByteBuffer buffer, final int opcode,
+                                  final boolean fin, final int length) {
+        final int start = buffer.position();
+        buffer.put((byte) ((fin ? 0x80 : 0) | opcode));
+        if (length < 126) {
+            buffer.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            buffer.put((byte) 126);
+            buffer.putShort((short) length);
+        } else {
+            buffer.put((byte) 127);
+            buffer.putLong(length);
+        }
+        return buffer.position() - start;
+    }
+
+    /** Returns the size of the header writeHeader() writes for a payload */
+    public static int headerSize(final int length) {
+        return length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+    }
+
+    /** XORs a payload with its masking key four bytes at a time */
+    private static void unmask(final ByteBuffer buffer, final int offset,
+                               final int length, final int mask) {
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            buffer.putInt(offset + i, buffer.getInt(offset + i) ^ mask);
+        }
+        for (; i < length; i++) {
+            final int shift = 24 - 8 * (i & 3);
+            buffer.put(offset + i, (byte) (buffer.get(offset + i) ^ (mask >>> shift)));
+        }
+    }
+}
@@ -1,74 +1,255 @@
 package com.marcusposey;
 
 import org.java_websocket.WebSocket;
-import org.java_websocket.handshake.ClientHandshake;
-import org.java_websocket.server.WebSocketServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 
 /**
  * A WebSocket server that assigns players unique id's and accepts requests from
  * them to move their character. Communication here, and throughout other portions
  * of code, is done through the spec defined in ArrayBufferProtocol.arra
+ *
+ * The server handles the events of a Transport, which carries the connections.
  */
-public class GameServer extends WebSocketServer {
-    private static final Logger log = LoggerFactory.getLogger(WebSocketServer.class);
+public class GameServer implements TransportListener {
+    private static final Logger log = LoggerFactory.getLogger(GameServer.class);
     private final Directive[] directives = Directive.values();
     private World world;
+    private final Metrics metrics;
 
     /**
      * Creates a new game server awaiting communication
-     * @param port the port on which to listen. This will be reused.
      * @param world an initialized world that has already started its game loop
      */
-    public GameServer(final int port, World world) {
-        super(new InetSocketAddress(port));
-        setReuseAddr(true);
+    public GameServer(World world) {
         this.world = world;
+        metrics = world.getMetrics();
     }
 
-    /** Creates a new player and responds to the client with their unique id */
-    public void onOpen(WebSocket webSocket, ClientHandshake clientHandshake) {
-        final int playerId = world.addPlayer(webSocket);
-        webSocket.send(ArrayBufferProtocol.encodeId(playerId));
+    // Connections opened on this path watch matches instead of playing
+    private static final String kSpectatorPath = "/watch";
+    // A query parameter holding, in hex, the token of a player who resumes
+    // their place after a restart
+    private static final String kResumeParameter = "resume";
+    // A query parameter holding the newest protocol version the client speaks
+    private static final String kVersionParameter = "v";
+
+    /**
+     * Creates a new player and responds to the client with their unique id,
+     * the protocol version chosen for them, and the token they can resume
+     * with after a restart
+     *
+     * Connections to the spectator path become spectators instead and wait
+     * for a WATCH_MATCH message.
+     */
+    @Override
+    public void onOpen(WebSocket webSocket, String resource) {
+        metrics.activeConnections.incrementAndGet();
+        if (resource != null && resource.startsWith(kSpectatorPath)) {
+            webSocket.setAttachment(new Spectator(webSocket));
+            return;
+        }
+
+        final Player player;
+        final int version = ArrayBufferProtocol.negotiateVersion(
+                queryParameter(resource, kVersionParameter));
+        try {
+            player = world.addPlayer(webSocket, parseResumeToken(resource), version);
+        } catch (IllegalStateException e) {
+            webSocket.close(1013, "Server is full");
+            return;
+        }
+        final byte[] idMessage = ArrayBufferProtocol.encodeId(player.getId(), version);
+        webSocket.send(idMessage);
+        metrics.recordSend(idMessage.length);
+        final byte[] tokenMessage = ArrayBufferProtocol.encodeResumeToken(player.getResumeToken());
+        webSocket.send(tokenMessage);
+        metrics.recordSend(tokenMessage.length);
+    }
+
+    /** Returns the resume token in a resource's query, or 0 if it has none */
+    private static long parseResumeToken(final String resource) {
+        final String token = queryParameter(resource, kResumeParameter);
+        if (token == null) return 0;
+        try {
+            return Long.parseUnsignedLong(token, 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the value of a parameter in the query of a resource such as
+     * "/?a=1&b=2", or null if the parameter is not there
+     */
+    static String queryParameter(final String resource, final String name) {
+        if (resource == null) return null;
+        final int query = resource.indexOf('?');
+        if (query < 0) return null;
+        for (String pair : resource.substring(query + 1).split("&")) {
+            final int equals = pair.indexOf('=');
+            if (equals == name.length() && pair.startsWith(name)) {
+                return pair.substring(equals + 1);
+            }
+        }
+        return null;
     }
 
-    public void onClose(WebSocket webSocket, int i, String s, boolean b) { }
+    /** Tells the world that a player or spectator left */
+    @Override
+    public void onClose(WebSocket webSocket) {
+        metrics.activeConnections.decrementAndGet();
+        final Object attachment = webSocket.getAttachment();
+        if (attachment instanceof Spectator) {
+            world.removeSpectator((Spectator) attachment);
+        } else if (attachment instanceof Player) {
+            world.playerDisconnected((Player) attachment);
+        }
+    }
 
-    public void onMessage(WebSocket webSocket, String s) { }
+    // Close codes for connections that flood the server or break the protocol
+    private static final int kPolicyViolation = 1008;
+    private static final int kProtocolError = 1002;
 
+    /**
+     * Validates a message on the socket thread and hands it to the world
+     *
+     * Messages are rate limited per connection and checked against the
+     * protocol before anything else is read, so a misbehaving client only
+     * costs its own I/O thread. Movement that repeats the input last queued
+     * in the player's match is dropped without touching the world; its
+     * sequence number is still acknowledged once that input is applied.
+     */
     @Override
     public void onMessage(WebSocket webSocket, ByteBuffer message) {
-        // Use a thread pool, as per:
-        // https://github.com/TooTallNate/Java-WebSocket/issues/517
+        // Movement is only queued here and applied by the match's shard, so
+        // this never blocks the socket thread.
+        metrics.recordReceive(message.remaining());
+        final Object attachment = webSocket.getAttachment();
+        final boolean spectator = attachment instanceof Spectator;
+        final InputLimiter limiter;
+        if (spectator) limiter = ((Spectator) attachment).getLimiter();
+        else if (attachment instanceof Player) limiter = ((Player) attachment).getLimiter();
+        else return;
+
+        final long now = System.nanoTime();
+        if (!limiter.tryAcquire(now)) {
+            metrics.messagesRateLimited.increment();
+            if (limiter.isAbusive(now)) {
+                metrics.abusiveClosures.increment();
+                webSocket.close(kPolicyViolation, "Too many messages");
+            }
+            return;
+        }
+        if (!ArrayBufferProtocol.isValidClientMessage(message, spectator)) {
+            metrics.messagesMalformed.increment();
+            metrics.abusiveClosures.increment();
+            webSocket.close(kProtocolError, "Malformed message");
+            return;
+        }
+
         final int dir = message.get();
+        if (spectator) {
+            onSpectatorMessage((Spectator) attachment, dir, message);
+            return;
+        }
+
+        final Player player = (Player) attachment;
+        player.markActive();
         final int playerId  = message.getInt();
         if (!world.isSenderAuthentic(webSocket, playerId)) {
-            // Todo: Use enum for error codes.
-            webSocket.close(1, "Connection closed; unauthentic request");
+            webSocket.close(kPolicyViolation, "Connection closed; unauthentic request");
+            return;
+        }
+        if (dir == Directive.CLIENT_FPS.ordinal()) {
+            // The frame rate is an unsigned byte after the id.
+            if (message.hasRemaining()) {
+                world.setClientFrameRate(playerId, message.get() & 0xFF);
+            }
             return;
         }
 
+        // Movement may carry a 16-bit sequence number after the id, which
+        // game states echo back so the client can reconcile its prediction.
+        final int sequence = inputSequence(message);
+        final GameState match = player.getMatch();
+        if (limiter.isRepeat(dir, match, now)) {
+            player.setRepeatAck(sequence);
+            metrics.inputsCollapsed.increment();
+            return;
+        }
+        player.setRepeatAck(0);
+        final boolean isQueued;
         switch (directives[dir]) {
             case MOVE_PLAYER_UP:
-                world.movePlayer(playerId, Player.Direction.UP);
+                isQueued = world.movePlayer(playerId, Player.Direction.UP, sequence);
                 break;
             case MOVE_PLAYER_DOWN:
-                world.movePlayer(playerId, Player.Direction.DOWN);
-                break;
-            case STOP_MOVING_PLAYER:
-                world.stopMovingPlayer(playerId);
+                isQueued = world.movePlayer(playerId, Player.Direction.DOWN, sequence);
                 break;
             default:
-                webSocket.send(String.valueOf(dir) + " is not a valid directive");
+                isQueued = world.stopMovingPlayer(playerId, sequence);
+                break;
+        }
+        if (isQueued) limiter.markQueued(dir, match, now);
+    }
+
+    /** Returns the sequence number that ends a movement message, or 0 */
+    private static int inputSequence(final ByteBuffer message) {
+        return message.remaining() >= 2 ? message.getShort() & 0xFFFF : 0;
+    }
+
+    /**
+     * Handles a message from a spectator
+     *
+     * The message has been validated, so it is either WATCH_MATCH, which
+     * carries a 32-bit match id and an optional 8-bit rate divisor, or
+     * STOP_WATCHING, which has no arguments.
+     */
+    private void onSpectatorMessage(final Spectator spectator, final int dir,
+                                    final ByteBuffer message) {
+        if (dir == Directive.WATCH_MATCH.ordinal()) {
+            final int matchId = message.getInt();
+            final int rateDivisor = message.hasRemaining() ? message.get() & 0xFF : 1;
+            if (!world.addSpectator(spectator, matchId, rateDivisor)) {
+                spectator.getSocket().send(ArrayBufferProtocol.encodeMatchEnded(matchId));
+            }
+        } else {
+            world.removeSpectator(spectator);
+        }
+    }
+
+    /** Treats a player whose connection failed as disconnected */
+    @Override
+    public void onError(WebSocket webSocket, Exception e) {
+        // The socket is null for errors that are not tied to a connection.
+        if (webSocket == null) {
+            log.warn("Transport error", e);
+            return;
+        }
+        final Object attachment = webSocket.getAttachment();
+        if (attachment instanceof Player && !webSocket.isOpen()) {
+            world.playerDisconnected((Player) attachment);
         }
     }
 
-    public void onError(WebSocket webSocket, Exception e) { }
+    /**
+     * Counts pongs from heartbeat pings as player activity and uses them to
+     * measure the player's round-trip time
+     */
+    @Override
+    public void onPong(WebSocket webSocket) {
+        final Object attachment = webSocket.getAttachment();
+        if (attachment instanceof Player) {
+            final Player player = (Player) attachment;
+            player.markActive();
+            player.markPongReceived();
+        }
+    }
 
+    @Override
     public void onStart() {
         log.info("Server has started.");
         System.out.println("Type exit for a graceful shutdown.");
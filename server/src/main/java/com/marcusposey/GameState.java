@@ -1,54 +1,495 @@
 package com.marcusposey;
 
-import org.java_websocket.exceptions.WebsocketNotConnectedException;
-
 public class GameState {
     public static final int kCanvasWidth = 600;
     public static final int kCanvasHeight = 400;
     private static final int kPlayerSpeed = 7;
+    // The default number of ticks between full game state messages
+    public static final int kDefaultKeyframeInterval = 40;
+    // The most inputs that can wait for the next tick
+    private static final int kInputCapacity = 64;
+    private static final Directive[] kDirectives = Directive.values();
+
+    // Identifies the match in its world
+    private final int id;
 
     // The two players which manipulate the game state
     private final Player[] players;
     private final int scores[];
 
     // The game ball
-    private Ball ball = new Ball();
+    private final Ball ball;
+    // Decides where the ball respawns, so that the match can be replayed
+    private final long seed;
+
+    // True once the match has ended and should no longer be updated
+    private volatile boolean isOver = false;
+
+    // The state last received by the clients, used to encode deltas, and
+    // the same for version 2 clients, whose states include the scores
+    private final int[] baseline = new int[ArrayBufferProtocol.kStateFields];
+    private final int[] compactBaseline = new int[ArrayBufferProtocol.kCompactStateFields];
+    // The number of ticks between full game state messages
+    private final int keyframeInterval;
+    // Ticks since the last full game state message
+    private int ticksSinceKeyframe;
+    // The number of ticks between states sent to players
+    private int snapshotInterval = 1;
+    // The number of physics steps in each tick, which depends on the rate
+    // the match is ticked at
+    private int stepsPerTick = Ball.kDefaultStepsPerTick;
+    // The steps each paddle was last rewound by, so that changes can be
+    // recorded
+    private final int[] rewindSteps = new int[2];
+    // Counts state messages that changed the baseline; players that missed
+    // one are sent a full state instead of a delta
+    private long stateSequence = 0;
+
+    // Inputs from socket threads, applied at the start of the next update
+    // Each value is the input's sequence number shifted left 9 bits, or'd
+    // with the player's index shifted left 8 bits, or'd with the ordinal of a
+    // movement directive.
+    private final InputRing inputs = new InputRing(kInputCapacity);
+    // Selects the player index and directive of an input, which is what
+    // recordings store
+    private static final int kRecordedInputMask = 0x1FF;
+    // True if inputs were applied since the last state sent to the players,
+    // who then need a state with the new acks even if nothing moved
+    private boolean hasNewAcks = false;
+
+    // Connections watching the match
+    private final SpectatorGroup spectators = new SpectatorGroup();
+    // The number of updates the match has had
+    private long tick = 0;
+    // Whether the match continues one saved before a restart
+    private boolean restored = false;
 
     /** Creates a new state that two players will share */
     public GameState(Player a, Player b) {
+        this(0, a, b, kDefaultKeyframeInterval, 0);
+    }
+
+    /**
+     * Creates a new state that two players will share
+     * @param id a number that identifies the match in its world
+     * @param keyframeInterval the number of ticks between full game state
+     *                         messages; deltas are sent in between
+     */
+    public GameState(final int id, Player a, Player b, final int keyframeInterval) {
+        this(id, a, b, keyframeInterval, 0);
+    }
+
+    /**
+     * Creates a new state that two players will share
+     * @param id a number that identifies the match in its world
+     * @param keyframeInterval the number of ticks between full game state
+     *                         messages; deltas are sent in between
+     * @param seed decides where the ball respawns; matches with the same seed
+     *             and inputs play out the same way
+     */
+    public GameState(final int id, Player a, Player b, final int keyframeInterval,
+                     final long seed) {
+        this.id = id;
+        this.seed = seed;
+        ball = new Ball(seed);
         players = new Player[]{a, b};
         scores = new int[players.length];
+        this.keyframeInterval = keyframeInterval;
+        // Start with a keyframe.
+        ticksSinceKeyframe = keyframeInterval;
         setDefaultLocations();
     }
 
-    /** Modifies state according to game rules, not user input */
-    public void update() {
-        players[0].move();
-        players[1].move();
-        final boolean didPlayerWin = ball.move(players);
+    /**
+     * Modifies state according to game rules, not user input
+     *
+     * The resulting message is written into broadcast and sent to both
+     * players. This does not allocate.
+     *
+     * Shards do not call this. They apply inputs to all of their matches,
+     * step the physics of every match at once with PhysicsStore.step(), and
+     * then hand each finished tick to their MatchSink.
+     */
+    public void update(final Broadcast broadcast) {
+        final int winner = step(null);
+        finishTick(winner);
+        publish(broadcast, winner);
+    }
+
+    /**
+     * Applies inputs and moves the match's entities by one tick, without
+     * sending anything
+     * @param recording receives the applied inputs, or null
+     * @return the index of the player who scored this tick, or -1
+     */
+    int step(final RecordingBuffer recording) {
+        applyInputs(recording);
+        // The ball moves the paddles too, so they move in step with it.
+        return ball.move(players, stepsPerTick) ? ball.getLastToHit() : -1;
+    }
+
+    /**
+     * Counts a finished tick and its score, if any
+     * @param winner the index of the player who scored this tick, or -1
+     */
+    void finishTick(final int winner) {
+        tick++;
+        if (winner != -1) scores[winner]++;
+    }
 
-        final byte[] message;
+    /**
+     * Sends the result of a finished tick to the players and spectators
+     *
+     * Scores are sent to both players right away: version 1 clients get a
+     * GAME_SCORE and version 2 clients a full state, which holds the scores.
+     * Game states are only sent every snapshot interval, and each player's
+     * SnapshotThrottle may skip more of them.
+     *
+     * @param winner the index of the player who scored this tick, or -1
+     */
+    void publish(final Broadcast broadcast, final int winner) {
+        final boolean didPlayerWin = winner != -1;
+        boolean isFullState = false;
+        // Send whatever the sockets could not take last tick.
+        players[0].getOutbox().flush();
+        players[1].getOutbox().flush();
 
         if (didPlayerWin) {
-            final int winner = ball.getLastToHit();
-            scores[winner]++;
-            message = ArrayBufferProtocol.encodeGameScore(scores);
-            // Todo: The ball was already reset, so they should also get the state.
+            if (hasCompactPlayer()) {
+                final Broadcast compact = broadcast.compact();
+                ArrayBufferProtocol.writeCompactGameState(this, compact.begin(), compact.getBits());
+                compact.finish();
+            }
+            ArrayBufferProtocol.writeGameScore(scores, broadcast.begin());
+            broadcast.finish();
+            // Disconnected players are removed by the world loop.
+            for (int i = 0; i < players.length; i++) {
+                if (isCompact(i)) sendState(broadcast, i);
+                else broadcast.sendReliableTo(players[i].getOutbox());
+            }
+            // The ball was reset, so follow up with a keyframe.
+            ticksSinceKeyframe = keyframeInterval;
+        } else if (tick % snapshotInterval == 0) {
+            isFullState = publishState(broadcast);
         } else {
-            message = ArrayBufferProtocol.encodeGameState(this);
+            ticksSinceKeyframe++;
         }
 
-        try {
-            players[0].getSocket().send(message);
-            players[1].getSocket().send(message);
-        } catch (WebsocketNotConnectedException e) {
-            // todo: ensure prune process removes the missing person.
+        if (spectators.size() > 0) {
+            if (isFullState) {
+                ArrayBufferProtocol.stampReceiver(broadcast.getPayload(),
+                                                  ArrayBufferProtocol.kSpectatorReceiver, 0);
+            }
+            spectators.publish(this, tick, broadcast, didPlayerWin, isFullState);
+        }
+    }
+
+    /**
+     * Sends the current state to the players whose throttle allows it
+     * @return true if broadcast was left holding a GAME_STATE message
+     */
+    private boolean publishState(final Broadcast broadcast) {
+        final long previous = stateSequence;
+        final boolean isKeyframe = ticksSinceKeyframe >= keyframeInterval;
+        boolean hasMessage = true;
+
+        if (isKeyframe) {
+            writeFullStates(broadcast);
+            ArrayBufferProtocol.captureGameState(this, baseline);
+            ArrayBufferProtocol.captureCompactGameState(this, compactBaseline);
+            ticksSinceKeyframe = 0;
+        } else {
+            ticksSinceKeyframe++;
+            hasMessage = writeDeltas(broadcast, hasNewAcks);
         }
+        if (hasMessage) {
+            stateSequence++;
+            hasNewAcks = false;
+        }
+
+        // Players who missed a message since their last one need a full state,
+        // as do players whose last state is still waiting in their outbox;
+        // the full state replaces it.
+        boolean isBehind0 = false;
+        boolean isBehind1 = false;
+        for (int i = 0; i < players.length; i++) {
+            final SnapshotThrottle throttle = players[i].getThrottle();
+            final Outbox outbox = players[i].getOutbox();
+            if (!throttle.shouldSend(tick, snapshotInterval, players[i].getSocket())) {
+                broadcast.getMetrics().snapshotsThrottled.increment();
+            } else if (isKeyframe || (throttle.hasSeen(previous) && !outbox.hasPendingState())) {
+                if (hasMessage) sendState(broadcast, i);
+                throttle.markSeen(stateSequence);
+            } else if (i == 0) {
+                isBehind0 = true;
+            } else {
+                isBehind1 = true;
+            }
+        }
+
+        if (!isBehind0 && !isBehind1) return isKeyframe;
+        writeFullStates(broadcast);
+        hasNewAcks = false;
+        if (isBehind0) {
+            sendState(broadcast, 0);
+            players[0].getThrottle().markSeen(stateSequence);
+        }
+        if (isBehind1) {
+            sendState(broadcast, 1);
+            players[1].getThrottle().markSeen(stateSequence);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a GAME_STATE message into broadcast, and its version 2 form
+     * into broadcast.compact() if a player speaks version 2
+     */
+    private void writeFullStates(final Broadcast broadcast) {
+        ArrayBufferProtocol.writeGameState(this, broadcast.begin());
+        broadcast.finish();
+        if (!hasCompactPlayer()) return;
+        final Broadcast compact = broadcast.compact();
+        ArrayBufferProtocol.writeCompactGameState(this, compact.begin(), compact.getBits());
+        compact.finish();
+    }
+
+    /**
+     * Writes a GAME_STATE_DELTA message into broadcast, and its version 2
+     * form into broadcast.compact() if a player speaks version 2
+     * @param isForced write the messages even if nothing changed
+     * @return false if nothing changed and nothing was written
+     */
+    private boolean writeDeltas(final Broadcast broadcast, final boolean isForced) {
+        boolean hasChanged = ArrayBufferProtocol.writeGameStateDelta(
+                this, baseline, broadcast.begin(), isForced);
+        if (hasCompactPlayer()) {
+            final Broadcast compact = broadcast.compact();
+            final boolean hasCompactChanged = ArrayBufferProtocol.writeCompactGameStateDelta(
+                    this, compactBaseline, compact.begin(), isForced || hasChanged,
+                    compact.getBits());
+            if (hasCompactChanged) compact.finish();
+            // Only the scores changed, which version 1 deltas do not hold.
+            if (hasCompactChanged && !hasChanged) {
+                hasChanged = ArrayBufferProtocol.writeGameStateDelta(
+                        this, baseline, broadcast.begin(), true);
+            }
+        }
+        if (hasChanged) broadcast.finish();
+        return hasChanged;
+    }
+
+    /** Returns true if either player speaks version 2 of the protocol */
+    private boolean hasCompactPlayer() {
+        return isCompact(0) || isCompact(1);
+    }
+
+    /** Returns true if the player at an index speaks version 2 of the protocol */
+    private boolean isCompact(final int index) {
+        return players[index].getProtocolVersion() >= ArrayBufferProtocol.kVersion2;
+    }
+
+    /**
+     * Sends the state message in broadcast, or in broadcast.compact() for
+     * version 2 players, to a player with their input ack
+     */
+    private void sendState(final Broadcast broadcast, final int index) {
+        if (isCompact(index)) {
+            final Broadcast compact = broadcast.compact();
+            ArrayBufferProtocol.stampCompactReceiver(compact.getPayload(), index,
+                                                     players[index].getInputAck());
+            compact.sendStateTo(players[index].getOutbox());
+            return;
+        }
+        ArrayBufferProtocol.stampReceiver(broadcast.getPayload(), index,
+                                          players[index].getInputAck());
+        broadcast.sendStateTo(players[index].getOutbox());
+    }
+
+    /**
+     * Sets how many ticks pass between game states sent to the players
+     *
+     * Scores are still sent on the tick they happen.
+     */
+    public void setSnapshotInterval(final int ticks) {
+        snapshotInterval = Math.max(1, ticks);
+    }
+
+    /**
+     * Sets how many physics steps each tick moves the match by
+     * @see PhysicsStore#stepsPerTick(int)
+     */
+    public void setStepsPerTick(final int steps) {
+        stepsPerTick = steps;
+    }
+
+    /** Returns how many physics steps each tick moves the match by */
+    public int getStepsPerTick() {
+        return stepsPerTick;
+    }
+
+    /**
+     * Queues a movement directive from a player; safe to call from any thread
+     *
+     * Inputs are applied in the order they arrive at the start of the next
+     * update. If too many inputs are waiting, the new one is dropped.
+     *
+     * @return false if the input was dropped
+     */
+    public boolean queueInput(final Player player, final Directive directive) {
+        return queueInput(player, directive, 0);
+    }
+
+    /**
+     * Queues a numbered movement directive from a player; safe to call from
+     * any thread
+     *
+     * @param sequence the client's 16-bit number for the input, echoed to the
+     *                 player in game states once the input is applied, or 0
+     * @return false if the input was dropped
+     */
+    public boolean queueInput(final Player player, final Directive directive,
+                              final int sequence) {
+        final int index = player == players[0] ? 0 : 1;
+        return inputs.offer((sequence & 0xFFFF) << 9 | index << 8 | directive.ordinal());
+    }
+
+    /**
+     * Applies every queued input to the players, then rewinds their paddles
+     * by their latency for this tick's hit detection
+     * @param recording receives the applied inputs and rewinds, or null
+     */
+    void applyInputs(final RecordingBuffer recording) {
+        // A repeat is noted after the input it repeats was queued, so reading
+        // the notes first guarantees that input is applied below.
+        final int firstRepeat = players[0].getRepeatAck();
+        final int secondRepeat = players[1].getRepeatAck();
+        int input;
+        while ((input = inputs.poll()) != -1) {
+            if (recording != null) recording.input(this, input & kRecordedInputMask);
+            final Player player = players[(input >> 8) & 1];
+            final int sequence = input >>> 9;
+            if (sequence != 0) {
+                player.setInputAck(sequence);
+                hasNewAcks = true;
+            }
+            switch (kDirectives[input & 0xFF]) {
+                case MOVE_PLAYER_UP:
+                    player.move(Player.Direction.UP);
+                    break;
+                case MOVE_PLAYER_DOWN:
+                    player.move(Player.Direction.DOWN);
+                    break;
+                case STOP_MOVING_PLAYER:
+                    player.stopMoving();
+                    break;
+                default:
+                    break;
+            }
+        }
+        acknowledgeRepeat(players[0], firstRepeat);
+        acknowledgeRepeat(players[1], secondRepeat);
+
+        for (int i = 0; i < 2; i++) {
+            final int steps = players[i].getRewindSteps();
+            if (steps != rewindSteps[i]) {
+                rewindSteps[i] = steps;
+                if (recording != null) recording.rewind(this, i, steps);
+            }
+            // Paddles are rewound by whole ticks, the nearest to their steps.
+            players[i].rewind(tick, (steps + stepsPerTick / 2) / stepsPerTick);
+        }
+    }
+
+    /**
+     * Acknowledges an input that was dropped as a repeat, unless a later
+     * input was already applied
+     * @param sequence the repeat's 16-bit sequence number, or 0 for none
+     */
+    private void acknowledgeRepeat(final Player player, final int sequence) {
+        final int ahead = (sequence - player.getInputAck()) & 0xFFFF;
+        if (sequence == 0 || ahead == 0 || ahead >= 0x8000) return;
+        player.setInputAck(sequence);
+        hasNewAcks = true;
+    }
+
+    /**
+     * Moves the match's entities into slots index * 3 to index * 3 + 2 of a
+     * shard store
+     */
+    void bind(final PhysicsStore store, final int index) {
+        final int first = index * PhysicsStore.kSlotsPerMatch;
+        players[0].bind(store, first);
+        players[1].bind(store, first + 1);
+        ball.bind(store, first + 2);
+    }
+
+    /**
+     * Moves the match's entities out of their shard store
+     *
+     * After this, the players can join another match.
+     */
+    void release() {
+        players[0].detach();
+        players[1].detach();
+        ball.detach();
+    }
+
+    /**
+     * Marks the match as over so that its shard stops updating it
+     *
+     * The shard releases the match and hands it back to the world on its
+     * next tick; until then the players still belong to the shard.
+     */
+    public void end() {
+        isOver = true;
+    }
+
+    /** Returns true if the match has ended */
+    public boolean isOver() {
+        return isOver;
+    }
+
+    /** Returns the number that identifies the match in its world */
+    public int getId() {
+        return id;
+    }
+
+    /** Returns the connections watching the match */
+    public SpectatorGroup getSpectators() {
+        return spectators;
+    }
+
+    /** Returns the number of ticks the match has been updated for */
+    public long getTick() {
+        return tick;
+    }
+
+    /** Returns the seed that decides where the ball respawns */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Returns a copy of both players' scores */
+    public int[] getScores() {
+        return scores.clone();
+    }
+
+    /** Sets the scores and tick count of a match restored from a snapshot */
+    void restore(final int[] scores, final long tick) {
+        System.arraycopy(scores, 0, this.scores, 0, this.scores.length);
+        this.tick = tick;
+        restored = true;
+    }
+
+    /** Returns true if the match continues one saved before a restart */
+    public boolean isRestored() {
+        return restored;
     }
 
     /** Returns the player which is not a */
     public Player getOther(final Player a) {
-        return a.getId() == players[0].getId() ? players[1] : players[0];
+        return a == players[0] ? players[1] : players[0];
     }
 
     /** Returns an array containing the two players in the match */
@@ -63,12 +504,17 @@ public class GameState {
 
     /** Returns the score of the player */
     public int getScore(final Player a) {
-        return scores[a.getId() == players[0].getId() ? 0 : 1];
+        return scores[a == players[0] ? 0 : 1];
     }
 
     /** Sets the default coordinates of the players */
     private void setDefaultLocations() {
         final int w = 20;
+        // Players may still be moving from their last match.
+        players[0].stopMoving();
+        players[1].stopMoving();
+        players[0].getHistory().clear();
+        players[1].getHistory().clear();
         players[0].setX(w);
         players[0].setY((kCanvasHeight - players[0].getHeight()) / 2);
         players[1].setX(kCanvasWidth - 2  * w);
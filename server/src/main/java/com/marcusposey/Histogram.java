@@ -0,0 +1,106 @@
+package com.marcusposey;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of non-negative longs with bounded relative error
+ *
+ * Values are counted in log-linear buckets: every power of two is split into
+ * 16 equal sub-buckets, so a reported percentile is within about 6% of the
+ * true value. Recording never allocates or locks, which makes it safe to use
+ * on hot paths.
+ */
+public class Histogram {
+    private static final int kSubBucketBits = 4;
+    private static final int kSubBuckets = 1 << kSubBucketBits;
+    private static final int kBucketCount = (63 - kSubBucketBits + 1) * kSubBuckets;
+
+    private final AtomicLongArray counts = new AtomicLongArray(kBucketCount);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Counts one occurrence of value; negative values are counted as 0 */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /** Returns the number of recorded values */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Returns the sum of recorded values */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /** Returns the largest recorded value */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Returns the mean of recorded values, or 0 if there are none */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the value below which percentile percent of values fall
+     * @param percentile a number in [0, 100]
+     */
+    public long getPercentile(final double percentile) {
+        final long n = count.get();
+        if (n == 0) return 0;
+
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < kBucketCount; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalent(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** Discards all recorded values */
+    public void reset() {
+        for (int i = 0; i < kBucketCount; i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /** Returns the bucket that holds value */
+    static int indexOf(final long value) {
+        if (value < kSubBuckets) return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - kSubBucketBits)) & (kSubBuckets - 1);
+        return (exponent - kSubBucketBits + 1) * kSubBuckets + sub;
+    }
+
+    /** Returns the smallest value that falls in a bucket */
+    static long lowestEquivalent(final int index) {
+        if (index < kSubBuckets) return index;
+        final int exponent = index / kSubBuckets + kSubBucketBits - 1;
+        final long sub = index % kSubBuckets;
+        return (1L << exponent) | (sub << (exponent - kSubBucketBits));
+    }
+
+    /** Returns the largest value that falls in a bucket */
+    static long highestEquivalent(final int index) {
+        if (index == kBucketCount - 1) return Long.MAX_VALUE;
+        return lowestEquivalent(index + 1) - 1;
+    }
+}
@@ -0,0 +1,101 @@
+package com.marcusposey;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many messages one connection may send, before they reach the
+ * world
+ *
+ * Each message costs a token from a bucket that refills at a steady rate and
+ * holds a burst's worth. Messages that find the bucket empty are dropped and
+ * fill a second bucket, which drains at the same rate. A connection that
+ * overflows it has sent more than twice the rate for a while, which no
+ * client does, and is considered abusive.
+ *
+ * The limiter also collapses repeats: a movement directive equal to the last
+ * one queued in the same match changes nothing there, such as those sent
+ * while a key is held down. Only inputs the match actually queued count, so
+ * an input dropped by a full queue or sent between matches is never
+ * collapsed away, and a repeat is still forwarded once the repeat interval
+ * passes.
+ *
+ * Only the I/O thread that reads the connection may use its limiter.
+ */
+public class InputLimiter {
+    /** The messages per second a connection may send over time */
+    public static final int kDefaultRate = 60;
+    /** The messages a connection may send at once after being quiet */
+    public static final int kDefaultBurst = 120;
+    /** How long a repeated directive is ignored for */
+    public static final long kRepeatNanos = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final long nanosPerToken;
+    private final long burstNanos;
+
+    // The time at which the bucket was or will be full; it is empty while
+    // that is a burst away
+    private long fullAtNanos;
+    // The time at which the dropped messages will have drained
+    private long drainedAtNanos;
+    // The last directive queued in a match, the match and when, or -1 if
+    // none was
+    private int lastDirective = -1;
+    private GameState lastMatch;
+    private long lastDirectiveNanos;
+
+    /** Creates a limiter with the default rate and burst */
+    public InputLimiter(final long nowNanos) {
+        this(kDefaultRate, kDefaultBurst, nowNanos);
+    }
+
+    /**
+     * Creates a limiter whose bucket starts full
+     * @param rate the messages per second allowed over time
+     * @param burst the messages allowed at once
+     */
+    public InputLimiter(final int rate, final int burst, final long nowNanos) {
+        nanosPerToken = TimeUnit.SECONDS.toNanos(1) / rate;
+        burstNanos = nanosPerToken * burst;
+        fullAtNanos = nowNanos;
+        drainedAtNanos = nowNanos;
+    }
+
+    /**
+     * Takes a token for a message
+     * @return true if the message may be handled, or false if it should be
+     *         dropped
+     */
+    public boolean tryAcquire(final long nowNanos) {
+        final long fullAt = Math.max(fullAtNanos, nowNanos) + nanosPerToken;
+        if (fullAt - nowNanos <= burstNanos) {
+            fullAtNanos = fullAt;
+            return true;
+        }
+        drainedAtNanos = Math.max(drainedAtNanos, nowNanos) + nanosPerToken;
+        return false;
+    }
+
+    /**
+     * Returns true if more than a burst of dropped messages is waiting to
+     * drain, so the connection should be closed
+     */
+    public boolean isAbusive(final long nowNanos) {
+        return drainedAtNanos - nowNanos > burstNanos;
+    }
+
+    /**
+     * Returns true if a directive repeats the last one queued in the same
+     * match within the repeat interval
+     */
+    public boolean isRepeat(final int directive, final GameState match, final long nowNanos) {
+        return directive == lastDirective && match == lastMatch
+               && nowNanos - lastDirectiveNanos < kRepeatNanos;
+    }
+
+    /** Remembers a directive that a match queued */
+    public void markQueued(final int directive, final GameState match, final long nowNanos) {
+        lastDirective = directive;
+        lastMatch = match;
+        lastDirectiveNanos = nowNanos;
+    }
+}
@@ -0,0 +1,76 @@
+package com.marcusposey;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of ints with many producers and one consumer
+ *
+ * Socket threads offer inputs and the thread that owns the match polls them.
+ * Each slot carries a sequence number that tells producers when the slot is
+ * free and tells the consumer when its value has been published, so neither
+ * side ever blocks.
+ */
+public class InputRing {
+    private final int mask;
+    private final int[] values;
+    private final AtomicLongArray sequences;
+
+    // The next position producers will claim
+    private final AtomicLong tail = new AtomicLong();
+    // The next position the consumer will read; only used by the consumer
+    private long head = 0;
+
+    /**
+     * Creates an empty ring
+     * @param capacity the most values the ring can hold; must be a power of two
+     */
+    public InputRing(final int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        mask = capacity - 1;
+        values = new int[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Adds a value to the ring; safe to call from any thread
+     * @param value a non-negative value
+     * @return false if the ring was full and the value was dropped
+     */
+    public boolean offer(final int value) {
+        long pos = tail.get();
+        while (true) {
+            final long diff = sequences.get((int) pos & mask) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            } else if (diff < 0) {
+                return false;
+            }
+            pos = tail.get();
+        }
+
+        final int slot = (int) pos & mask;
+        values[slot] = value;
+        // Publish the value to the consumer.
+        sequences.lazySet(slot, pos + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest value from the ring; only call from the consumer
+     * @return the value, or -1 if the ring is empty
+     */
+    public int poll() {
+        final int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1) return -1;
+
+        final int value = values[slot];
+        // Hand the slot back to producers for the next lap.
+        sequences.lazySet(slot, head + mask + 1);
+        head++;
+        return value;
+    }
+}
@@ -0,0 +1,60 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A transport backed by Java-WebSocket's server
+ *
+ * The library reads and writes every connection on one selector thread, so
+ * it is kept for comparison with NioTransport and as a fallback.
+ */
+public class LibraryTransport extends WebSocketServer implements Transport {
+    private final TransportListener listener;
+
+    /** Creates a transport that will listen on the address */
+    public LibraryTransport(final InetSocketAddress address, final TransportListener listener) {
+        super(address);
+        setReuseAddr(true);
+        this.listener = listener;
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket, ClientHandshake clientHandshake) {
+        listener.onOpen(webSocket, clientHandshake.getResourceDescriptor());
+    }
+
+    @Override
+    public void onClose(WebSocket webSocket, int code, String reason, boolean remote) {
+        listener.onClose(webSocket);
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, String message) { }
+
+    @Override
+    public void onMessage(WebSocket webSocket, ByteBuffer message) {
+        listener.onMessage(webSocket, message);
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Exception e) {
+        listener.onError(webSocket, e);
+    }
+
+    @Override
+    public void onWebsocketPong(WebSocket webSocket, Framedata frame) {
+        super.onWebsocketPong(webSocket, frame);
+        listener.onPong(webSocket);
+    }
+
+    @Override
+    public void onStart() {
+        listener.onStart();
+    }
+}
@@ -0,0 +1,215 @@
+package com.marcusposey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** The recorded seed, starting state, inputs and outcome of one match */
+public class MatchLog {
+    private final int matchId;
+    private long seed;
+    private final int[] playerIds = new int[2];
+    // The number of physics steps in each of the match's ticks
+    private int stepsPerTick;
+    // The state a match restored after a restart resumed from, or null if
+    // the match started fresh
+    private MatchSnapshot initialState;
+
+    // The tick each input was applied on, and the input itself
+    private int[] inputTicks = new int[64];
+    private int[] inputs = new int[64];
+    private int inputCount = 0;
+
+    // The tick each paddle's rewind changed on, and the player's index
+    // shifted left 16 bits, or'd with the new rewind in physics steps
+    private int[] rewindTicks = new int[8];
+    private int[] rewinds = new int[8];
+    private int rewindCount = 0;
+
+    // The tick and scores the match ended with; endTick is -1 if the
+    // recording stopped before the match ended
+    private int endTick = -1;
+    private final int[] scores = new int[2];
+
+    private MatchLog(final int matchId) {
+        this.matchId = matchId;
+    }
+
+    /**
+     * Reads the recording of a match from the segments in a directory
+     * @return the match's log, or null if the match was not recorded
+     */
+    public static MatchLog read(final Path directory, final int matchId) throws IOException {
+        MatchLog log = null;
+        for (final Path path : MatchRecorder.segments(directory)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                final ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                log = read(segment, matchId, log);
+            }
+        }
+        return log;
+    }
+
+    /** Reads the records of a match from a segment, adding to log */
+    static MatchLog read(final ByteBuffer segment, final int matchId, MatchLog log) {
+        while (segment.hasRemaining()) {
+            final byte type = segment.get();
+            if (type == MatchRecorder.kMatchStart) {
+                final int id = segment.getInt();
+                final long seed = segment.getLong();
+                final int first = segment.getInt();
+                final int second = segment.getInt();
+                final int stepsPerTick = segment.getInt();
+                if (id != matchId) continue;
+                // A later start belongs to a later run of the server.
+                log = new MatchLog(matchId);
+                log.seed = seed;
+                log.playerIds[0] = first;
+                log.playerIds[1] = second;
+                log.stepsPerTick = stepsPerTick;
+            } else if (type == MatchRecorder.kMatchRestore) {
+                final int id = segment.getInt();
+                if (id != matchId || log == null) {
+                    segment.position(segment.position() + MatchSnapshot.kStateBytes);
+                    continue;
+                }
+                log.initialState = MatchSnapshot.readState(segment, matchId, log.seed);
+            } else if (type == MatchRecorder.kInput) {
+                final int id = segment.getInt();
+                final int tick = segment.getInt();
+                final int input = segment.getShort();
+                if (id == matchId && log != null) log.addInput(tick, input);
+            } else if (type == MatchRecorder.kRewind) {
+                final int id = segment.getInt();
+                final int tick = segment.getInt();
+                final int index = segment.get();
+                final int steps = segment.getShort();
+                if (id == matchId && log != null) log.addRewind(tick, index << 16 | steps);
+            } else if (type == MatchRecorder.kMatchEnd) {
+                final int id = segment.getInt();
+                final int tick = segment.getInt();
+                final int first = segment.getInt();
+                final int second = segment.getInt();
+                if (id != matchId || log == null) continue;
+                log.endTick = tick;
+                log.scores[0] = first;
+                log.scores[1] = second;
+            } else {
+                // The rest of the segment is unused.
+                break;
+            }
+        }
+        return log;
+    }
+
+    private void addInput(final int tick, final int input) {
+        if (inputCount == inputs.length) {
+            inputTicks = Arrays.copyOf(inputTicks, inputCount * 2);
+            inputs = Arrays.copyOf(inputs, inputCount * 2);
+        }
+        inputTicks[inputCount] = tick;
+        inputs[inputCount] = input;
+        inputCount++;
+    }
+
+    private void addRewind(final int tick, final int rewind) {
+        if (rewindCount == rewinds.length) {
+            rewindTicks = Arrays.copyOf(rewindTicks, rewindCount * 2);
+            rewinds = Arrays.copyOf(rewinds, rewindCount * 2);
+        }
+        rewindTicks[rewindCount] = tick;
+        rewinds[rewindCount] = rewind;
+        rewindCount++;
+    }
+
+    /** Returns the id of the match in its world */
+    public int getMatchId() {
+        return matchId;
+    }
+
+    /** Returns the seed that decided where the ball respawned */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Returns the number of physics steps in each of the match's ticks */
+    public int getStepsPerTick() {
+        return stepsPerTick;
+    }
+
+    /**
+     * Returns the state the match resumed from if it was restored after a
+     * restart, or null if it started fresh
+     */
+    public MatchSnapshot getInitialState() {
+        return initialState;
+    }
+
+    /** Returns the tick the recording starts from */
+    public int getStartTick() {
+        return initialState == null ? 0 : (int) initialState.getTick();
+    }
+
+    /** Returns the id of the first or second player */
+    public int getPlayerId(final int index) {
+        return playerIds[index];
+    }
+
+    /** Returns the number of recorded inputs */
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    /** Returns the tick on which the ith input was applied */
+    public int getInputTick(final int i) {
+        return inputTicks[i];
+    }
+
+    /**
+     * Returns the ith input: the player's index shifted left 8 bits, or'd
+     * with the ordinal of a movement directive
+     */
+    public int getInput(final int i) {
+        return inputs[i];
+    }
+
+    /** Returns the number of recorded changes to how far paddles were rewound */
+    public int getRewindCount() {
+        return rewindCount;
+    }
+
+    /** Returns the tick from which the ith rewind applied */
+    public int getRewindTick(final int i) {
+        return rewindTicks[i];
+    }
+
+    /**
+     * Returns the ith rewind: the player's index shifted left 16 bits, or'd
+     * with the physics steps their paddle was rewound by
+     */
+    public int getRewind(final int i) {
+        return rewinds[i];
+    }
+
+    /** Returns true if the recording includes the end of the match */
+    public boolean isComplete() {
+        return endTick != -1;
+    }
+
+    /**
+     * Returns the number of ticks the match lasted, or if it is incomplete,
+     * the number of ticks up to its last input
+     */
+    public int getEndTick() {
+        if (isComplete()) return endTick;
+        return inputCount == 0 ? getStartTick() : inputTicks[inputCount - 1] + 1;
+    }
+
+    /** Returns a copy of the recorded final scores; zero if incomplete */
+    public int[] getScores() {
+        return scores.clone();
+    }
+}
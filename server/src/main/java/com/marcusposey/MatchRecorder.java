@@ -0,0 +1,221 @@
+package com.marcusposey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes a compact binary log of matches to memory-mapped segment files
+ *
+ * The log holds what is needed to replay a match exactly: its seed, the
+ * length of its ticks, the state it resumed from if it was restored after a
+ * restart, the inputs applied on each tick, how far each paddle was rewound,
+ * and the tick and scores it ended with (see MatchLog and MatchReplay).
+ * Shards write records into RecordingBuffers, which are handed to a
+ * background thread once per tick, so recording never blocks a game loop on
+ * disk.
+ *
+ * Segments are files of kSegmentBytes named 00000000.seg, 00000001.seg and
+ * so on. A record never spans two segments, and the unused end of a segment
+ * is zero, which marks the end of its records. Match ids restart with every
+ * world, so each server run should record into its own directory.
+ *
+ * Once the recorder stops, or fails to write, records submitted to it are
+ * dropped and counted as pong_records_dropped_total, and shards keep reusing
+ * the buffers they have.
+ */
+public class MatchRecorder {
+    // The size of each segment file
+    public static final int kSegmentBytes = 64 * 1024 * 1024;
+    // The size of the buffers shards write into
+    static final int kBufferBytes = 64 * 1024;
+    static final String kSegmentSuffix = ".seg";
+
+    // Record types and sizes
+    // START: type, match id, seed, first player id, second player id,
+    // physics steps per tick
+    static final byte kMatchStart = 1;
+    static final int kMatchStartSize = 1 + 4 + 8 + 4 + 4 + 4;
+    // INPUT: type, match id, tick, input
+    static final byte kInput = 2;
+    static final int kInputSize = 1 + 4 + 4 + 2;
+    // END: type, match id, tick, first player's score, second player's score
+    static final byte kMatchEnd = 3;
+    static final int kMatchEndSize = 1 + 4 + 4 + 4 + 4;
+    // RESTORE: type, match id, the state of a match restored after a
+    // restart (see MatchSnapshot.writeState); follows the match's START
+    static final byte kMatchRestore = 4;
+    static final int kMatchRestoreSize = 1 + 4 + MatchSnapshot.kStateBytes;
+    // REWIND: type, match id, tick, player index, physics steps
+    static final byte kRewind = 5;
+    static final int kRewindSize = 1 + 4 + 4 + 1 + 2;
+
+    private final Path directory;
+    private final Metrics metrics;
+    // Buffers waiting to be written, in the order they were submitted
+    private final Queue<ByteBuffer> filled = new ConcurrentLinkedQueue<>();
+    // Written buffers that shards can reuse
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int nextSegment;
+
+    private volatile boolean isRunning = false;
+    private Thread thread;
+
+    /**
+     * Creates a recorder that writes segments into a directory
+     *
+     * Segments already in the directory are kept, and new ones are numbered
+     * after them.
+     */
+    public MatchRecorder(final Path directory) throws IOException {
+        this(directory, new Metrics());
+    }
+
+    /**
+     * Creates a recorder that writes segments into a directory
+     * @param metrics counts the records that are dropped
+     */
+    public MatchRecorder(final Path directory, final Metrics metrics) throws IOException {
+        this.directory = directory;
+        this.metrics = metrics;
+        Files.createDirectories(directory);
+        for (final Path path : segments(directory)) {
+            final String name = path.getFileName().toString();
+            final int index = Integer.parseInt(name.substring(0, name.length() - kSegmentSuffix.length()));
+            nextSegment = Math.max(nextSegment, index + 1);
+        }
+    }
+
+    /** Starts the thread that writes records to disk */
+    public synchronized void start() {
+        if (isRunning) return;
+        isRunning = true;
+        thread = new Thread(this::run, "match-recorder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Writes every submitted record and stops the writer thread */
+    public synchronized void stop() throws InterruptedException {
+        if (!isRunning) return;
+        isRunning = false;
+        thread.join();
+    }
+
+    /** Creates a buffer for one shard to write records into */
+    public RecordingBuffer newBuffer() {
+        return new RecordingBuffer(this);
+    }
+
+    /** Returns an empty buffer for a shard to write into */
+    ByteBuffer takeBuffer() {
+        final ByteBuffer buffer = free.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(kBufferBytes);
+    }
+
+    /**
+     * Queues a buffer of records to be written
+     * @return false if the recorder has stopped or failed, in which case the
+     *         records are dropped and the buffer is cleared for reuse
+     */
+    boolean submit(final ByteBuffer buffer) {
+        if (!isRunning) {
+            drop(buffer);
+            return false;
+        }
+        filled.add(buffer);
+        return true;
+    }
+
+    /** Counts the records in a buffer as dropped and clears it */
+    private void drop(final ByteBuffer buffer) {
+        int records = 0;
+        for (int i = 0; i < buffer.position(); i += recordSize(buffer.get(i))) records++;
+        metrics.recordsDropped.add(records);
+        buffer.clear();
+    }
+
+    /** Returns the size of a record of the given type */
+    private static int recordSize(final byte type) {
+        switch (type) {
+            case kMatchStart: return kMatchStartSize;
+            case kInput: return kInputSize;
+            case kMatchEnd: return kMatchEndSize;
+            case kMatchRestore: return kMatchRestoreSize;
+            case kRewind: return kRewindSize;
+            default: throw new IllegalArgumentException("Unknown record type " + type);
+        }
+    }
+
+    /** Writes submitted buffers until stopped and nothing is left */
+    private void run() {
+        try {
+            while (isRunning || !filled.isEmpty()) {
+                final ByteBuffer buffer = filled.poll();
+                if (buffer == null) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    continue;
+                }
+                write(buffer);
+                buffer.clear();
+                free.add(buffer);
+            }
+            closeSegment();
+        } catch (IOException e) {
+            System.out.println("Match recording stopped: " + e.getMessage());
+            isRunning = false;
+            // Nothing will write these, and shards now keep their buffers.
+            ByteBuffer buffer;
+            while ((buffer = filled.poll()) != null) drop(buffer);
+            free.clear();
+        }
+    }
+
+    /** Copies a buffer of records into the current segment */
+    private void write(final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        if (segment == null || segment.remaining() < buffer.remaining()) {
+            closeSegment();
+            final Path path = directory.resolve(String.format("%08d", nextSegment++) + kSegmentSuffix);
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                       StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, kSegmentBytes);
+        }
+        segment.put(buffer);
+    }
+
+    /** Flushes the current segment to disk and closes it */
+    private void closeSegment() throws IOException {
+        if (segment == null) return;
+        segment.force();
+        channel.close();
+        segment = null;
+        channel = null;
+    }
+
+    /** Returns the segment files in a directory, oldest first */
+    static Path[] segments(final Path directory) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + kSegmentSuffix)) {
+            for (final Path path : stream) paths.add(path);
+        }
+        final Path[] sorted = paths.toArray(new Path[0]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,87 @@
+package com.marcusposey;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Rebuilds matches from their recordings
+ *
+ * A match is replayed by creating it with its recorded seed and tick length,
+ * or from the recorded state it resumed from if it was restored after a
+ * restart, and then, for each tick, applying the inputs and paddle rewinds
+ * recorded for that tick and stepping the physics, exactly as its shard did.
+ */
+public final class MatchReplay {
+    private static final Directive[] kDirectives = Directive.values();
+
+    private MatchReplay() {}
+
+    /** Returns the state of a match after its last recorded tick */
+    public static GameState replay(final MatchLog log) {
+        final Player first = new Player(null, log.getPlayerId(0));
+        final Player second = new Player(null, log.getPlayerId(1));
+        final MatchSnapshot initialState = log.getInitialState();
+        final GameState match = initialState == null
+                ? new GameState(log.getMatchId(), first, second,
+                                GameState.kDefaultKeyframeInterval, log.getSeed())
+                : initialState.restore(first, second, GameState.kDefaultKeyframeInterval);
+        match.setStepsPerTick(log.getStepsPerTick());
+        final Player[] players = match.getPlayers();
+
+        int next = 0;
+        int nextRewind = 0;
+        for (int tick = log.getStartTick(); tick < log.getEndTick(); tick++) {
+            while (next < log.getInputCount() && log.getInputTick(next) == tick) {
+                final int input = log.getInput(next++);
+                match.queueInput(players[input >> 8], kDirectives[input & 0xFF]);
+            }
+            while (nextRewind < log.getRewindCount() && log.getRewindTick(nextRewind) == tick) {
+                final int rewind = log.getRewind(nextRewind++);
+                players[rewind >> 16].setRewindSteps(rewind & 0xFFFF);
+            }
+            match.finishTick(match.step(null));
+        }
+        return match;
+    }
+
+    /**
+     * Returns true if replaying a complete recording gives the scores that
+     * were recorded
+     */
+    public static boolean verify(final MatchLog log) {
+        return log.isComplete()
+               && Arrays.equals(replay(log).getScores(), log.getScores());
+    }
+
+    /**
+     * Replays a recorded match and prints how it ended
+     * Usage: MatchReplay <recording directory> <match id>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: MatchReplay <recording directory> <match id>");
+            return;
+        }
+        final MatchLog log = MatchLog.read(Paths.get(args[0]), Integer.parseInt(args[1]));
+        if (log == null) {
+            System.out.println("Match " + args[1] + " was not recorded");
+            return;
+        }
+
+        final GameState match = replay(log);
+        System.out.println("Match " + log.getMatchId() + " between "
+                           + log.getPlayerId(0) + " and " + log.getPlayerId(1));
+        System.out.println("Seed " + log.getSeed() + ", " + log.getInputCount()
+                           + " inputs, " + log.getEndTick() + " ticks");
+        if (log.getInitialState() != null) {
+            System.out.println("Restored after a restart at tick " + log.getStartTick());
+        }
+        System.out.println("Replayed score " + Arrays.toString(match.getScores()));
+        if (log.isComplete()) {
+            System.out.println("Recorded score " + Arrays.toString(log.getScores()));
+        } else {
+            System.out.println("The recording ends before the match did");
+        }
+    }
+}
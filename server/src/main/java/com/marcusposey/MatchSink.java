@@ -0,0 +1,15 @@
+package com.marcusposey;
+
+/**
+ * Receives the outcome of every tick of the matches in a shard
+ *
+ * The network sink sends states to players; headless simulations use sinks
+ * that collect statistics or drive bot paddles instead.
+ */
+public interface MatchSink {
+    /**
+     * Called on the shard thread after each tick of a match
+     * @param winner the index of the player who scored this tick, or -1
+     */
+    void onTick(GameState match, int winner);
+}
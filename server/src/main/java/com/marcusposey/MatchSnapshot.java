@@ -0,0 +1,158 @@
+package com.marcusposey;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The state of a live match, saved so that it can continue after a restart
+ *
+ * Players are saved by their resume tokens. A restored match is rebuilt
+ * around the new connections of the players who present those tokens.
+ */
+public class MatchSnapshot {
+    /** The size of the state written by writeState() */
+    static final int kStateBytes = 8 + 4 + 2 * 4 + 4 * 4 + 4 * 4;
+
+    private final int id;
+    private final long seed;
+    private final long tick;
+    private final int[] scores;
+    private final long[] tokens;
+    private final int lastToHit;
+    // The ball's x, y, x velocity and y velocity, in subpixels
+    private final int[] ball;
+    // Each paddle's y and y velocity, in subpixels
+    private final int[] paddles;
+
+    private MatchSnapshot(final int id, final long seed, final long tick, final int[] scores,
+                          final long[] tokens, final int lastToHit, final int[] ball,
+                          final int[] paddles) {
+        this.id = id;
+        this.seed = seed;
+        this.tick = tick;
+        this.scores = scores;
+        this.tokens = tokens;
+        this.lastToHit = lastToHit;
+        this.ball = ball;
+        this.paddles = paddles;
+    }
+
+    /** Saves a match that is not being updated */
+    public static MatchSnapshot capture(final GameState match) {
+        final Player[] players = match.getPlayers();
+        final Ball b = match.getBall();
+        final PhysicsStore bs = b.getStore();
+        final int[] ball = {bs.x[b.getSlot()], bs.y[b.getSlot()],
+                            bs.xVelocity[b.getSlot()], bs.yVelocity[b.getSlot()]};
+        final int[] paddles = new int[4];
+        for (int i = 0; i < 2; i++) {
+            paddles[2 * i] = players[i].getStore().y[players[i].getSlot()];
+            paddles[2 * i + 1] = players[i].getStore().yVelocity[players[i].getSlot()];
+        }
+        return new MatchSnapshot(match.getId(), match.getSeed(), match.getTick(),
+                                 match.getScores(),
+                                 new long[]{players[0].getResumeToken(),
+                                            players[1].getResumeToken()},
+                                 b.getLastToHit(), ball, paddles);
+    }
+
+    /**
+     * Rebuilds the match for the players' new connections
+     * @param a the player who resumed with the first token
+     * @param b the player who resumed with the second token
+     */
+    public GameState restore(final Player a, final Player b, final int keyframeInterval) {
+        final GameState match = new GameState(id, a, b, keyframeInterval, seed);
+        match.restore(scores, tick);
+
+        final Ball restored = match.getBall();
+        restored.restore(lastToHit, scores[0] + scores[1]);
+        final PhysicsStore bs = restored.getStore();
+        bs.x[restored.getSlot()] = ball[0];
+        bs.y[restored.getSlot()] = ball[1];
+        bs.xVelocity[restored.getSlot()] = ball[2];
+        bs.yVelocity[restored.getSlot()] = ball[3];
+
+        final Player[] players = match.getPlayers();
+        for (int i = 0; i < 2; i++) {
+            players[i].getStore().y[players[i].getSlot()] = paddles[2 * i];
+            players[i].getStore().yVelocity[players[i].getSlot()] = paddles[2 * i + 1];
+        }
+        return match;
+    }
+
+    /** Returns the id the match had and keeps */
+    public int getId() {
+        return id;
+    }
+
+    /** Returns the tick the match was saved at */
+    public long getTick() {
+        return tick;
+    }
+
+    /** Returns the resume tokens of the first and second player */
+    public long[] getTokens() {
+        return tokens.clone();
+    }
+
+    /** Writes the snapshot in a form read() understands */
+    void write(final DataOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeLong(seed);
+        out.writeLong(tick);
+        out.writeInt(lastToHit);
+        for (int i = 0; i < 2; i++) {
+            out.writeInt(scores[i]);
+            out.writeLong(tokens[i]);
+        }
+        for (int value : ball) out.writeInt(value);
+        for (int value : paddles) out.writeInt(value);
+    }
+
+    /**
+     * Writes what a recording needs to continue the match: the state
+     * without the id and seed, which the recording already has, and without
+     * the resume tokens, which must not leave the server
+     */
+    void writeState(final ByteBuffer out) {
+        out.putLong(tick);
+        out.putInt(lastToHit);
+        for (int score : scores) out.putInt(score);
+        for (int value : ball) out.putInt(value);
+        for (int value : paddles) out.putInt(value);
+    }
+
+    /** Reads a state written by writeState(); its resume tokens are 0 */
+    static MatchSnapshot readState(final ByteBuffer in, final int id, final long seed) {
+        final long tick = in.getLong();
+        final int lastToHit = in.getInt();
+        final int[] scores = {in.getInt(), in.getInt()};
+        final int[] ball = new int[4];
+        for (int i = 0; i < ball.length; i++) ball[i] = in.getInt();
+        final int[] paddles = new int[4];
+        for (int i = 0; i < paddles.length; i++) paddles[i] = in.getInt();
+        return new MatchSnapshot(id, seed, tick, scores, new long[2], lastToHit, ball, paddles);
+    }
+
+    /** Reads a snapshot written by write() */
+    static MatchSnapshot read(final DataInput in) throws IOException {
+        final int id = in.readInt();
+        final long seed = in.readLong();
+        final long tick = in.readLong();
+        final int lastToHit = in.readInt();
+        final int[] scores = new int[2];
+        final long[] tokens = new long[2];
+        for (int i = 0; i < 2; i++) {
+            scores[i] = in.readInt();
+            tokens[i] = in.readLong();
+        }
+        final int[] ball = new int[4];
+        for (int i = 0; i < ball.length; i++) ball[i] = in.readInt();
+        final int[] paddles = new int[4];
+        for (int i = 0; i < paddles.length; i++) paddles[i] = in.readInt();
+        return new MatchSnapshot(id, seed, tick, scores, tokens, lastToHit, ball, paddles);
+    }
+}
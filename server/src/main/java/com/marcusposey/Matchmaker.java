@@ -0,0 +1,99 @@
+package com.marcusposey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+
+/**
+ * The lobby: players waiting for a match
+ *
+ * Any thread can add players through a lock-free intake queue. Once per
+ * tick the world loop moves new arrivals into the lobby and hands the whole
+ * lobby to a PairingPolicy, which chooses who plays whom. Everything except
+ * enqueue() must be called from the world loop.
+ */
+public class Matchmaker {
+    // Players added since the last call to pair()
+    private final Queue<Player> intake = new ConcurrentLinkedQueue<>();
+    // Players waiting for a match, roughly oldest first
+    private final List<Player> waiting = new ArrayList<>();
+    // The pairs chosen by the last call to pair()
+    private final List<Player> pairs = new ArrayList<>();
+    private final Set<Player> paired =
+            Collections.newSetFromMap(new IdentityHashMap<Player, Boolean>());
+
+    private volatile PairingPolicy policy;
+
+    /** Creates a lobby that pairs players in the order they arrive */
+    public Matchmaker() {
+        this(new FifoPairingPolicy());
+    }
+
+    /** Creates a lobby that pairs players according to a policy */
+    public Matchmaker(final PairingPolicy policy) {
+        this.policy = policy;
+    }
+
+    /** Changes how players are paired, starting with the next tick */
+    public void setPolicy(final PairingPolicy policy) {
+        this.policy = policy;
+    }
+
+    /** Adds a player to the lobby; safe to call from any thread */
+    public void enqueue(final Player player) {
+        intake.add(player);
+    }
+
+    /**
+     * Removes pairs of players from the lobby
+     * @param isEligible players that fail this test leave the lobby
+     * @return the chosen players two at a time; the list is reused by the
+     *         next call
+     */
+    public List<Player> pair(final Predicate<Player> isEligible) {
+        Player player;
+        while ((player = intake.poll()) != null) waiting.add(player);
+        retain(isEligible, null);
+
+        pairs.clear();
+        if (waiting.size() > 1) policy.pair(waiting, pairs);
+        if (!pairs.isEmpty()) {
+            paired.addAll(pairs);
+            retain(null, paired);
+            paired.clear();
+        }
+        return pairs;
+    }
+
+    /** Returns every player in the lobby, roughly oldest first */
+    public List<Player> getWaiting() {
+        Player player;
+        while ((player = intake.poll()) != null) waiting.add(player);
+        return Collections.unmodifiableList(waiting);
+    }
+
+    /** Returns the number of players in the lobby as of the last pair() */
+    public int size() {
+        return waiting.size();
+    }
+
+    /**
+     * Removes players who fail isEligible or are in excluded, keeping the
+     * rest in order
+     */
+    private void retain(final Predicate<Player> isEligible, final Set<Player> excluded) {
+        int kept = 0;
+        for (int i = 0; i < waiting.size(); i++) {
+            final Player player = waiting.get(i);
+            if (isEligible != null && !isEligible.test(player)) continue;
+            if (excluded != null && excluded.contains(player)) continue;
+            waiting.set(kept++, player);
+        }
+        waiting.subList(kept, waiting.size()).clear();
+    }
+}
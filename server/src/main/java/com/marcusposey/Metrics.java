@@ -0,0 +1,153 @@
+package com.marcusposey;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms that describe the running server
+ *
+ * Recording is lock-free and does not allocate once warmed up, so metrics
+ * stay on in production. Durations are recorded in nanoseconds. The values
+ * can be read through JMX (see MetricsMXBean) or scraped over HTTP (see
+ * MetricsServer).
+ */
+public class Metrics implements MetricsMXBean {
+    // The duration of a whole world loop tick and of each of its phases
+    final Histogram tickNanos = new Histogram();
+    final Histogram pruneNanos = new Histogram();
+    final Histogram matchmakingNanos = new Histogram();
+    // The duration of a shard tick, which updates its matches
+    final Histogram updateNanos = new Histogram();
+    // The time players spend in the lobby before their match starts
+    final Histogram lobbyWaitNanos = new Histogram();
+
+    final AtomicLong activeConnections = new AtomicLong();
+    final AtomicLong activeMatches = new AtomicLong();
+    final AtomicLong lobbySize = new AtomicLong();
+    // Matches handed to a shard that it has not adopted yet
+    final AtomicLong matchesPending = new AtomicLong();
+
+    final LongAdder messagesIn = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder messagesOut = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder sendFailures = new LongAdder();
+    final LongAdder inputsDropped = new LongAdder();
+    // Game states that were not sent to a player because of their throttle
+    final LongAdder snapshotsThrottled = new LongAdder();
+    // Unsent game states replaced by newer ones in an outbox
+    final LongAdder statesCoalesced = new LongAdder();
+    // Connections closed because they could not keep up
+    final LongAdder evictions = new LongAdder();
+    // Messages dropped because their connection sent too many
+    final LongAdder messagesRateLimited = new LongAdder();
+    // Movement that repeated the player's last input and was not forwarded
+    final LongAdder inputsCollapsed = new LongAdder();
+    // Messages with an unknown directive or the wrong length
+    final LongAdder messagesMalformed = new LongAdder();
+    // Connections closed for flooding the server or sending malformed messages
+    final LongAdder abusiveClosures = new LongAdder();
+    // Match recording records dropped because the recorder stopped or failed
+    final LongAdder recordsDropped = new LongAdder();
+
+    // The scheduler of the world loop, for overrun counts
+    private volatile TickScheduler scheduler;
+
+    /** Sets the scheduler whose overruns are reported */
+    public void setScheduler(final TickScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /** Counts one message that was sent */
+    public void recordSend(final int bytes) {
+        messagesOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    /** Counts one message that was received */
+    public void recordReceive(final int bytes) {
+        messagesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server
+     * @throws IllegalStateException if registration fails
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    this, new ObjectName("com.marcusposey:type=Metrics"));
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics", e);
+        }
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public long getTickCount() { return tickNanos.getCount(); }
+
+    public double getTickMeanMicros() { return tickNanos.getMean() / 1000; }
+
+    public long getTickP99Micros() { return micros(tickNanos.getPercentile(99)); }
+
+    public long getTickMaxMicros() { return micros(tickNanos.getMax()); }
+
+    public long getPruneP99Micros() { return micros(pruneNanos.getPercentile(99)); }
+
+    public long getMatchmakingP99Micros() { return micros(matchmakingNanos.getPercentile(99)); }
+
+    public long getUpdateP99Micros() { return micros(updateNanos.getPercentile(99)); }
+
+    public long getTickOverruns() {
+        return scheduler == null ? 0 : scheduler.getOverrunCount();
+    }
+
+    public long getTicksSkipped() {
+        return scheduler == null ? 0 : scheduler.getSkippedCount();
+    }
+
+    public long getActiveConnections() { return activeConnections.get(); }
+
+    public long getActiveMatches() { return activeMatches.get(); }
+
+    public long getLobbySize() { return lobbySize.get(); }
+
+    public long getLobbyWaitP99Micros() { return micros(lobbyWaitNanos.getPercentile(99)); }
+
+    public long getMessagesIn() { return messagesIn.sum(); }
+
+    public long getBytesIn() { return bytesIn.sum(); }
+
+    public long getMessagesOut() { return messagesOut.sum(); }
+
+    public long getBytesOut() { return bytesOut.sum(); }
+
+    public long getSendFailures() { return sendFailures.sum(); }
+
+    public long getInputsDropped() { return inputsDropped.sum(); }
+
+    public long getSnapshotsThrottled() { return snapshotsThrottled.sum(); }
+
+    public long getStatesCoalesced() { return statesCoalesced.sum(); }
+
+    public long getEvictions() { return evictions.sum(); }
+
+    public long getMessagesRateLimited() { return messagesRateLimited.sum(); }
+
+    public long getInputsCollapsed() { return inputsCollapsed.sum(); }
+
+    public long getMessagesMalformed() { return messagesMalformed.sum(); }
+
+    public long getAbusiveClosures() { return abusiveClosures.sum(); }
+
+    public long getRecordsDropped() { return recordsDropped.sum(); }
+
+    public long getMatchesPending() { return matchesPending.get(); }
+}
@@ -0,0 +1,40 @@
+package com.marcusposey;
+
+/**
+ * The server metrics exposed through JMX
+ *
+ * Durations are in microseconds. Counters only ever increase, so rates are
+ * found by sampling them over time.
+ */
+public interface MetricsMXBean {
+    long getTickCount();
+    double getTickMeanMicros();
+    long getTickP99Micros();
+    long getTickMaxMicros();
+    long getPruneP99Micros();
+    long getMatchmakingP99Micros();
+    long getUpdateP99Micros();
+    long getTickOverruns();
+    long getTicksSkipped();
+
+    long getActiveConnections();
+    long getActiveMatches();
+    long getLobbySize();
+    long getLobbyWaitP99Micros();
+
+    long getMessagesIn();
+    long getBytesIn();
+    long getMessagesOut();
+    long getBytesOut();
+    long getSendFailures();
+    long getInputsDropped();
+    long getSnapshotsThrottled();
+    long getStatesCoalesced();
+    long getEvictions();
+    long getMessagesRateLimited();
+    long getInputsCollapsed();
+    long getMessagesMalformed();
+    long getAbusiveClosures();
+    long getRecordsDropped();
+    long getMatchesPending();
+}
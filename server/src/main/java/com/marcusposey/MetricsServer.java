@@ -0,0 +1,147 @@
+package com.marcusposey;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves metrics over HTTP in the Prometheus text format
+ *
+ * The single endpoint is GET /metrics. Durations are reported in seconds.
+ * The server listens on the loopback interface unless it is given another
+ * address, so metrics are not exposed to the network by accident.
+ */
+public class MetricsServer {
+    private final HttpServer server;
+    private final Metrics metrics;
+
+    /**
+     * Creates a server on the loopback interface that has not started yet
+     * @param port the local port on which to listen, or 0 for any free one
+     */
+    public MetricsServer(final int port, Metrics metrics) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, metrics);
+    }
+
+    /**
+     * Creates a server that has not started yet
+     * @param address the local address on which to listen
+     * @param port the local port on which to listen, or 0 for any free one
+     */
+    public MetricsServer(final InetAddress address, final int port, Metrics metrics)
+            throws IOException {
+        this.metrics = metrics;
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", exchange -> {
+            final byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                                              "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    /** Starts serving requests on a background thread */
+    public void start() {
+        server.start();
+    }
+
+    /** Stops serving requests */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /** Returns the address and port the server listens on */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /** Returns every metric in the Prometheus text format */
+    String render() {
+        StringBuilder out = new StringBuilder();
+        summary(out, "pong_tick_seconds", "World loop tick duration", metrics.tickNanos);
+        summary(out, "pong_tick_prune_seconds", "Disconnect pruning phase duration",
+                metrics.pruneNanos);
+        summary(out, "pong_tick_matchmaking_seconds", "Matchmaking phase duration",
+                metrics.matchmakingNanos);
+        summary(out, "pong_tick_update_seconds", "Shard match update duration",
+                metrics.updateNanos);
+        summary(out, "pong_lobby_wait_seconds", "Time spent in the lobby",
+                metrics.lobbyWaitNanos);
+
+        metric(out, "pong_tick_overruns_total", "counter",
+               "Ticks that took longer than one period", metrics.getTickOverruns());
+        metric(out, "pong_ticks_skipped_total", "counter",
+               "Ticks dropped to catch up", metrics.getTicksSkipped());
+        metric(out, "pong_connections", "gauge", "Open connections",
+               metrics.getActiveConnections());
+        metric(out, "pong_matches", "gauge", "Live matches", metrics.getActiveMatches());
+        metric(out, "pong_lobby_size", "gauge", "Players waiting for a match",
+               metrics.getLobbySize());
+        metric(out, "pong_matches_pending", "gauge",
+               "Matches waiting to be adopted by a shard", metrics.getMatchesPending());
+        metric(out, "pong_messages_in_total", "counter", "Messages received",
+               metrics.getMessagesIn());
+        metric(out, "pong_bytes_in_total", "counter", "Payload bytes received",
+               metrics.getBytesIn());
+        metric(out, "pong_messages_out_total", "counter", "Messages sent",
+               metrics.getMessagesOut());
+        metric(out, "pong_bytes_out_total", "counter", "Payload bytes sent",
+               metrics.getBytesOut());
+        metric(out, "pong_send_failures_total", "counter",
+               "Sends to disconnected sockets", metrics.getSendFailures());
+        metric(out, "pong_inputs_dropped_total", "counter",
+               "Inputs dropped because a match's queue was full",
+               metrics.getInputsDropped());
+        metric(out, "pong_snapshots_throttled_total", "counter",
+               "Game states not sent to slow or throttled players",
+               metrics.getSnapshotsThrottled());
+        metric(out, "pong_states_coalesced_total", "counter",
+               "Unsent game states replaced by newer ones",
+               metrics.getStatesCoalesced());
+        metric(out, "pong_evictions_total", "counter",
+               "Connections closed because they could not keep up",
+               metrics.getEvictions());
+        metric(out, "pong_messages_rate_limited_total", "counter",
+               "Messages dropped because their connection sent too many",
+               metrics.getMessagesRateLimited());
+        metric(out, "pong_inputs_collapsed_total", "counter",
+               "Movement inputs that repeated the last one and were not forwarded",
+               metrics.getInputsCollapsed());
+        metric(out, "pong_messages_malformed_total", "counter",
+               "Messages with an unknown directive or the wrong length",
+               metrics.getMessagesMalformed());
+        metric(out, "pong_abusive_closures_total", "counter",
+               "Connections closed for flooding or sending malformed messages",
+               metrics.getAbusiveClosures());
+        metric(out, "pong_records_dropped_total", "counter",
+               "Match recording records dropped because the recorder stopped",
+               metrics.getRecordsDropped());
+        return out.toString();
+    }
+
+    private static void metric(StringBuilder out, String name, String type,
+                               String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help,
+                                Histogram nanos) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (final double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            out.append(name).append("{quantile=\"").append(q).append("\"} ")
+               .append(nanos.getPercentile(q * 100) / 1e9).append('\n');
+        }
+        out.append(name).append("_sum ").append(nanos.getSum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(nanos.getCount()).append('\n');
+    }
+}
@@ -0,0 +1,17 @@
+package com.marcusposey;
+
+/** Sends each tick of a match to its players and spectators */
+public class NetworkSink implements MatchSink {
+    // Holds the message each match sends; owned by the shard thread
+    private final Broadcast broadcast;
+
+    /** Creates a sink whose messages are counted by metrics */
+    public NetworkSink(final Metrics metrics) {
+        broadcast = new Broadcast(ArrayBufferProtocol.kMaxTickMessageSize, metrics);
+    }
+
+    @Override
+    public void onTick(final GameState match, final int winner) {
+        match.publish(broadcast, winner);
+    }
+}
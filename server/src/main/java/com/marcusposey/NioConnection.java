@@ -0,0 +1,621 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * A WebSocket connection carried by an NioTransport
+ *
+ * Messages may be sent from any thread. Each one is framed into a pooled
+ * direct buffer and queued; the connection's SelectorLoop later writes
+ * everything that is queued with one gathering write. The queue is what
+ * Sockets.backlog() reports, so Outboxes hold back game states while a
+ * client is slow.
+ *
+ * Everything else, i.e. reading, the handshake and closing, happens on the
+ * selector loop thread, which is also the thread that calls the listener.
+ */
+public class NioConnection implements WebSocket {
+    // The longest message a client may send
+    static final int kMaxMessageSize = 4096;
+    // The longest handshake request a client may send
+    static final int kMaxHandshakeSize = 8192;
+    // The most frames that may wait to be written before the connection is
+    // dropped; outboxes keep this far lower for game traffic
+    static final int kMaxQueuedFrames = 1024;
+    private static final String kAcceptGuid = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final byte[] kBadRequest =
+            "HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1);
+
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private SelectionKey key;
+
+    private volatile READYSTATE state = READYSTATE.CONNECTING;
+    // True once the listener was told the connection opened
+    private boolean isAnnounced = false;
+    // False once the client broke the protocol and nothing more is read
+    private boolean isReading = true;
+    private String resource;
+    private volatile Object attachment;
+
+    // Framed messages waiting to be written, oldest first, guarded by this
+    private ByteBuffer[] queue = new ByteBuffer[8];
+    private int queueHead = 0;
+    private int queueSize = 0;
+    // True while the connection waits in its loop's list of connections to flush
+    private boolean isDirty = false;
+    // True if the connection must be closed without flushing
+    private boolean isAborting = false;
+    // The time by which a closing connection must have flushed, or 0
+    private long closeDeadlineNanos = 0;
+
+    // Bytes of an incomplete frame or handshake, or null if there are none
+    private ByteBuffer partial;
+    // The fragments of an incomplete binary message, or null
+    private ByteBuffer fragments;
+    // The opcode of the message the fragments belong to
+    private int fragmentOpcode;
+
+    /** Creates a connection for an accepted channel owned by a selector loop */
+    NioConnection(final SocketChannel channel, final SelectorLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    /** Sets the key that registers the channel with the loop's selector */
+    void setKey(final SelectionKey key) {
+        this.key = key;
+    }
+
+    /** Returns the number of frames waiting to be written */
+    public synchronized int backlog() {
+        return queueSize;
+    }
+
+    @Override
+    public void send(final String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        sendFrame(FrameParser.kText, true, ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public void send(final ByteBuffer bytes) {
+        sendFrame(FrameParser.kBinary, true, bytes);
+    }
+
+    @Override
+    public void send(final byte[] bytes) {
+        sendFrame(FrameParser.kBinary, true, ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public void sendFrame(final Framedata frame) {
+        sendFrame(opcodeOf(frame.getOpcode()), frame.isFin(), frame.getPayloadData());
+    }
+
+    @Override
+    public void sendFrame(final Collection<Framedata> frames) {
+        for (Framedata frame : frames) sendFrame(frame);
+    }
+
+    @Override
+    public void sendPing() {
+        sendFrame(FrameParser.kPing, true, null);
+    }
+
+    @Override
+    public void sendFragmentedFrame(final Framedata.Opcode op, final ByteBuffer buffer,
+                                    final boolean fin) {
+        sendFrame(opcodeOf(op), fin, buffer);
+    }
+
+    /**
+     * Frames a payload from its position to its limit and queues it
+     * The payload's position is left unchanged.
+     * @throws WebsocketNotConnectedException if the connection is not open
+     */
+    private void sendFrame(final int opcode, final boolean fin, final ByteBuffer payload) {
+        final int length = payload == null ? 0 : payload.remaining();
+        final ByteBuffer frame = loop.getPool().acquire(FrameParser.headerSize(length) + length);
+        FrameParser.writeHeader(frame, opcode, fin, length);
+        if (payload != null) {
+            final int start = payload.position();
+            frame.put(payload);
+            payload.position(start);
+        }
+        frame.flip();
+
+        synchronized (this) {
+            if (state != READYSTATE.OPEN) {
+                loop.getPool().release(frame);
+                throw new WebsocketNotConnectedException();
+            }
+            enqueue(frame);
+        }
+    }
+
+    /** Queues bytes to be written and asks the loop to flush; holds this */
+    private void enqueue(final ByteBuffer bytes) {
+        if (queueSize == kMaxQueuedFrames) {
+            loop.getPool().release(bytes);
+            abort();
+            return;
+        }
+        if (queueSize == queue.length) {
+            final ByteBuffer[] grown = new ByteBuffer[queue.length * 2];
+            for (int i = 0; i < queueSize; i++) {
+                grown[i] = queue[(queueHead + i) % queue.length];
+            }
+            queue = grown;
+            queueHead = 0;
+        }
+        queue[(queueHead + queueSize) % queue.length] = bytes;
+        queueSize++;
+        markDirty();
+    }
+
+    /** Asks the loop to flush or close the connection; holds this */
+    private void markDirty() {
+        if (isDirty) return;
+        isDirty = true;
+        loop.flushLater(this);
+    }
+
+    /**
+     * Writes as much of the queue as the socket takes, then closes the
+     * connection if it is closing and nothing is left to write
+     *
+     * Called by the loop thread.
+     *
+     * @param gather scratch space for the gathering write
+     */
+    void flush(final ByteBuffer[] gather) {
+        synchronized (this) {
+            isDirty = false;
+            if (state == READYSTATE.CLOSED) return;
+            if (!isAborting) {
+                try {
+                    while (queueSize > 0) {
+                        final int count = Math.min(queueSize, gather.length);
+                        for (int i = 0; i < count; i++) {
+                            gather[i] = queue[(queueHead + i) % queue.length];
+                        }
+                        channel.write(gather, 0, count);
+                        Arrays.fill(gather, 0, count, null);
+                        if (!dequeueWritten()) break;
+                    }
+                } catch (IOException e) {
+                    isAborting = true;
+                }
+            }
+
+            if (!isAborting && !(state == READYSTATE.CLOSING && queueSize == 0)) {
+                if (key.isValid()) {
+                    key.interestOps(queueSize == 0
+                            ? SelectionKey.OP_READ
+                            : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                return;
+            }
+        }
+        closeChannel();
+    }
+
+    /**
+     * Releases the frames at the head of the queue that were written
+     * @return true if the whole queue was written
+     */
+    private boolean dequeueWritten() {
+        while (queueSize > 0) {
+            final ByteBuffer head = queue[queueHead];
+            if (head.hasRemaining()) return false;
+            queue[queueHead] = null;
+            queueHead = (queueHead + 1) % queue.length;
+            queueSize--;
+            loop.getPool().release(head);
+        }
+        return true;
+    }
+
+    /**
+     * Handles bytes read from the channel
+     * Called by the loop thread.
+     */
+    void onRead(final ByteBuffer in) {
+        while (in.hasRemaining() && isReading && state != READYSTATE.CLOSED) {
+            if (partial == null || partial.position() == 0) {
+                consume(in);
+                if (in.hasRemaining() && isReading && state != READYSTATE.CLOSED) {
+                    keepPartial(in);
+                }
+                return;
+            }
+
+            // Complete the partial frame with as much input as fits.
+            final int count = Math.min(in.remaining(), partial.remaining());
+            final int limit = in.limit();
+            in.limit(in.position() + count);
+            partial.put(in);
+            in.limit(limit);
+
+            partial.flip();
+            consume(partial);
+            partial.compact();
+            if (!partial.hasRemaining()) {
+                // The buffer holds the longest valid frame, so this cannot be one.
+                fail(1009);
+                return;
+            }
+        }
+    }
+
+    /** Copies the incomplete frame or handshake at the end of the input */
+    private void keepPartial(final ByteBuffer in) {
+        if (partial == null) {
+            partial = ByteBuffer.allocate(Math.max(kMaxHandshakeSize,
+                                                   kMaxMessageSize + FrameParser.kMaxHeaderSize));
+        }
+        if (in.remaining() > partial.remaining()) {
+            fail(1009);
+            return;
+        }
+        partial.put(in);
+    }
+
+    /** Handles every complete handshake and frame at the start of the data */
+    private void consume(final ByteBuffer data) {
+        if (state == READYSTATE.CONNECTING && !handshake(data)) return;
+
+        final FrameParser parser = loop.getParser();
+        while (isReading && (state == READYSTATE.OPEN || state == READYSTATE.CLOSING)) {
+            final int length = parser.parse(data);
+            if (length == FrameParser.kIncomplete) return;
+            if (length < 0) {
+                fail(length == FrameParser.kTooLarge ? 1009 : 1002);
+                return;
+            }
+
+            final int end = data.position() + length;
+            final int limit = data.limit();
+            data.limit(parser.getPayloadOffset() + parser.getPayloadLength());
+            data.position(parser.getPayloadOffset());
+            onFrame(parser, data);
+            data.limit(limit);
+            data.position(end);
+        }
+    }
+
+    /** Handles a frame whose payload lies between the data's position and limit */
+    private void onFrame(final FrameParser parser, final ByteBuffer payload) {
+        final TransportListener listener = loop.getListener();
+        switch (parser.getOpcode()) {
+            case FrameParser.kBinary:
+            case FrameParser.kText:
+                if (fragments != null) {
+                    fail(1002);
+                } else if (parser.isFin()) {
+                    if (parser.getOpcode() == FrameParser.kBinary) deliver(payload);
+                } else {
+                    fragments = ByteBuffer.allocate(kMaxMessageSize);
+                    fragmentOpcode = parser.getOpcode();
+                    fragments.put(payload);
+                }
+                break;
+            case FrameParser.kContinuation:
+                if (fragments == null) {
+                    fail(1002);
+                } else if (payload.remaining() > fragments.remaining()) {
+                    fail(1009);
+                } else {
+                    fragments.put(payload);
+                    if (!parser.isFin()) break;
+                    fragments.flip();
+                    if (fragmentOpcode == FrameParser.kBinary) deliver(fragments);
+                    fragments = null;
+                }
+                break;
+            case FrameParser.kPing:
+                synchronized (this) {
+                    if (state == READYSTATE.OPEN) enqueue(frame(FrameParser.kPong, payload));
+                }
+                break;
+            case FrameParser.kPong:
+                if (state == READYSTATE.OPEN) listener.onPong(this);
+                break;
+            case FrameParser.kClose:
+                onCloseFrame(payload);
+                break;
+            default:
+                fail(1002);
+        }
+    }
+
+    /** Passes a binary message to the listener */
+    private void deliver(final ByteBuffer message) {
+        if (state != READYSTATE.OPEN) return;
+        try {
+            loop.getListener().onMessage(this, message);
+        } catch (RuntimeException e) {
+            loop.getListener().onError(this, e);
+        }
+    }
+
+    /** Answers a close frame, or closes the channel if it answers ours */
+    private void onCloseFrame(final ByteBuffer payload) {
+        synchronized (this) {
+            if (state == READYSTATE.OPEN) {
+                // Echo the status code, if any, as RFC 6455 suggests.
+                final ByteBuffer echo = payload.remaining() >= 2 ? payload : null;
+                if (echo != null) echo.limit(echo.position() + 2);
+                enqueue(frame(FrameParser.kClose, echo));
+                beginClosing();
+                return;
+            }
+        }
+        closeChannel();
+    }
+
+    /**
+     * Reads the client's handshake and answers it
+     * @return true if the connection is now open
+     */
+    private boolean handshake(final ByteBuffer data) {
+        final int end = findHeaderEnd(data);
+        if (end == -1) {
+            if (data.remaining() >= kMaxHandshakeSize) fail(1002);
+            return false;
+        }
+
+        final byte[] bytes = new byte[end - data.position()];
+        data.get(bytes);
+        final String[] lines = new String(bytes, StandardCharsets.ISO_8859_1).split("\r\n");
+        final String[] request = lines[0].split(" ");
+        String key = null;
+        boolean isUpgrade = false;
+        for (int i = 1; i < lines.length; i++) {
+            final int colon = lines[i].indexOf(':');
+            if (colon == -1) continue;
+            final String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            final String value = lines[i].substring(colon + 1).trim();
+            if (name.equals("sec-websocket-key")) key = value;
+            if (name.equals("upgrade")) isUpgrade = value.equalsIgnoreCase("websocket");
+        }
+        if (request.length != 3 || !request[0].equals("GET") || key == null || !isUpgrade) {
+            fail(1002);
+            return false;
+        }
+
+        final String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept(loop.getSha1(), key) + "\r\n\r\n";
+        synchronized (this) {
+            enqueue(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+            resource = request[1];
+            state = READYSTATE.OPEN;
+        }
+        isAnnounced = true;
+        loop.getListener().onOpen(this, resource);
+        return state == READYSTATE.OPEN;
+    }
+
+    /** Returns the index just past the blank line ending an HTTP header, or -1 */
+    private static int findHeaderEnd(final ByteBuffer data) {
+        for (int i = data.position() + 3; i < data.limit(); i++) {
+            if (data.get(i) == '\n' && data.get(i - 1) == '\r'
+                && data.get(i - 2) == '\n' && data.get(i - 3) == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the Sec-WebSocket-Accept value that answers a client's key */
+    static String accept(final MessageDigest sha1, final String key) {
+        sha1.reset();
+        final byte[] digest = sha1.digest((key + kAcceptGuid).getBytes(StandardCharsets.ISO_8859_1));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    /** Frames a payload into a pooled buffer */
+    private ByteBuffer frame(final int opcode, final ByteBuffer payload) {
+        final int length = payload == null ? 0 : payload.remaining();
+        final ByteBuffer frame = loop.getPool().acquire(FrameParser.headerSize(length) + length);
+        FrameParser.writeHeader(frame, opcode, true, length);
+        if (payload != null) frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    @Override
+    public void close(final int code, final String message) {
+        synchronized (this) {
+            if (state == READYSTATE.CONNECTING) {
+                abort();
+                return;
+            }
+            if (state != READYSTATE.OPEN) return;
+
+            final byte[] reason = message == null
+                    ? new byte[0] : message.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer payload = ByteBuffer.allocate(2 + Math.min(reason.length, 123));
+            payload.putShort((short) code);
+            payload.put(reason, 0, payload.remaining());
+            payload.flip();
+            enqueue(frame(FrameParser.kClose, payload));
+            beginClosing();
+        }
+    }
+
+    @Override
+    public void close(final int code) {
+        close(code, "");
+    }
+
+    @Override
+    public void close() {
+        close(1000);
+    }
+
+    @Override
+    public void closeConnection(final int code, final String message) {
+        synchronized (this) {
+            abort();
+        }
+    }
+
+    /**
+     * Stops accepting messages; the channel closes once the queue is written
+     * or the close timeout passes. Holds this.
+     */
+    private void beginClosing() {
+        state = READYSTATE.CLOSING;
+        closeDeadlineNanos = System.nanoTime() + SelectorLoop.kCloseTimeoutNanos;
+        markDirty();
+    }
+
+    /** Closes the channel without writing what is queued; holds this */
+    private void abort() {
+        if (state == READYSTATE.CLOSED) return;
+        state = READYSTATE.CLOSING;
+        isAborting = true;
+        markDirty();
+    }
+
+    /** Stops reading from a client that broke the protocol and closes it */
+    private void fail(final int code) {
+        isReading = false;
+        synchronized (this) {
+            if (state == READYSTATE.CONNECTING) {
+                // A failed handshake is answered with an HTTP error instead.
+                enqueue(ByteBuffer.wrap(kBadRequest));
+                beginClosing();
+                return;
+            }
+        }
+        close(code, "");
+    }
+
+    /** Returns true if a closing connection ran out of time to flush */
+    synchronized boolean isPastCloseDeadline(final long now) {
+        return state == READYSTATE.CLOSING && now - closeDeadlineNanos > 0;
+    }
+
+    /**
+     * Closes the channel, releases the queue and tells the listener once
+     * Called by the loop thread.
+     */
+    void closeChannel() {
+        synchronized (this) {
+            if (state == READYSTATE.CLOSED) return;
+            state = READYSTATE.CLOSED;
+            while (queueSize > 0) {
+                loop.getPool().release(queue[queueHead]);
+                queue[queueHead] = null;
+                queueHead = (queueHead + 1) % queue.length;
+                queueSize--;
+            }
+        }
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // The channel is unusable either way.
+        }
+        if (isAnnounced) loop.getListener().onClose(this);
+    }
+
+    /** Converts a library opcode to the one written on the wire */
+    private static int opcodeOf(final Framedata.Opcode opcode) {
+        switch (opcode) {
+            case CONTINUOUS: return FrameParser.kContinuation;
+            case TEXT: return FrameParser.kText;
+            case PING: return FrameParser.kPing;
+            case PONG: return FrameParser.kPong;
+            case CLOSING: return FrameParser.kClose;
+            default: return FrameParser.kBinary;
+        }
+    }
+
+    @Override
+    public synchronized boolean hasBufferedData() {
+        return queueSize > 0;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress() {
+        return (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        return (InetSocketAddress) channel.socket().getLocalSocketAddress();
+    }
+
+    @Override
+    public boolean isConnecting() {
+        return state == READYSTATE.CONNECTING;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return state == READYSTATE.OPEN;
+    }
+
+    @Override
+    public boolean isClosing() {
+        return state == READYSTATE.CLOSING;
+    }
+
+    @Override
+    public boolean isFlushAndClose() {
+        return state == READYSTATE.CLOSING;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return state == READYSTATE.CLOSED;
+    }
+
+    @Override
+    public Draft getDraft() {
+        return null;
+    }
+
+    @Override
+    public READYSTATE getReadyState() {
+        return state;
+    }
+
+    @Override
+    public String getResourceDescriptor() {
+        return resource;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+
+    @Override
+    public <T> void setAttachment(final T attachment) {
+        this.attachment = attachment;
+    }
+}
@@ -0,0 +1,118 @@
+package com.marcusposey;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A WebSocket transport built directly on java.nio
+ *
+ * Acceptor threads take new connections and deal them out to several
+ * SelectorLoops, which each read and write their own connections. Game
+ * messages are framed once into pooled direct buffers and written in
+ * batches, and client messages are decoded in place, so the steady state
+ * allocates nothing per message.
+ */
+public class NioTransport implements Transport {
+    // How many connections may wait to be accepted
+    private static final int kAcceptBacklog = 4096;
+    // How long acceptors wait after a failed accept, e.g. when out of files
+    private static final long kAcceptRetryNanos = 100_000_000L;
+
+    private final InetSocketAddress address;
+    private final TransportListener listener;
+    private final int acceptorCount;
+    private final SelectorLoop[] loops;
+    private final Thread[] threads;
+    // Picks the loop that receives the next connection
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private ServerSocketChannel server;
+    private volatile boolean isRunning = false;
+
+    /**
+     * Creates a transport with two acceptors and a selector loop for each
+     * processor
+     */
+    public NioTransport(final InetSocketAddress address, final TransportListener listener)
+            throws IOException {
+        this(address, listener, 2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a transport that will listen on the address
+     * @param acceptors the number of threads that accept connections
+     * @param selectors the number of threads that read and write connections
+     */
+    public NioTransport(final InetSocketAddress address, final TransportListener listener,
+                        final int acceptors, final int selectors) throws IOException {
+        if (acceptors <= 0 || selectors <= 0) {
+            throw new IllegalArgumentException("thread counts must be positive");
+        }
+        this.address = address;
+        this.listener = listener;
+        acceptorCount = acceptors;
+        loops = new SelectorLoop[selectors];
+        for (int i = 0; i < selectors; i++) loops[i] = new SelectorLoop(listener);
+        threads = new Thread[acceptors + selectors];
+    }
+
+    @Override
+    public void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.bind(address, kAcceptBacklog);
+        isRunning = true;
+
+        for (int i = 0; i < loops.length; i++) {
+            threads[i] = new Thread(loops[i], "nio-selector-" + i);
+            threads[i].start();
+        }
+        // Acceptors share the blocking server channel, so one can hand a
+        // connection over while the next waits in accept().
+        for (int i = 0; i < acceptorCount; i++) {
+            final Thread acceptor = new Thread(this::accept, "nio-acceptor-" + i);
+            threads[loops.length + i] = acceptor;
+            acceptor.start();
+        }
+        listener.onStart();
+    }
+
+    /** Returns the port the transport listens on, e.g. after binding port 0 */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /** Accepts connections until the transport stops */
+    private void accept() {
+        while (isRunning) {
+            try {
+                final SocketChannel channel = server.accept();
+                final int loop = Math.floorMod(nextLoop.getAndIncrement(), loops.length);
+                loops[loop].register(channel);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                listener.onError(null, e);
+                LockSupport.parkNanos(kAcceptRetryNanos);
+            }
+        }
+    }
+
+    @Override
+    public void stop(final int timeoutMillis) throws InterruptedException {
+        if (!isRunning) return;
+        isRunning = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            listener.onError(null, e);
+        }
+        for (SelectorLoop loop : loops) loop.stop(timeoutMillis);
+        for (Thread thread : threads) thread.join();
+    }
+}
@@ -0,0 +1,75 @@
+package com.marcusposey;
+
+/**
+ * What a Broker knows about one game server node
+ *
+ * Nodes report their load in heartbeats. Between heartbeats the broker
+ * counts the players it sends to a node itself, so that players assigned
+ * in quick succession are spread correctly.
+ */
+public class NodeStatus {
+    // The WebSocket address clients connect to; also identifies the node
+    private final String address;
+    private int capacity;
+    private int connections;
+    private int lobby;
+    private int matches;
+    // The time, from System.nanoTime(), of the last heartbeat
+    private long lastHeartbeatNanos;
+
+    /** Creates the status of a node that has just reported */
+    public NodeStatus(final String address) {
+        this.address = address;
+    }
+
+    /** Replaces the node's load with the numbers from a heartbeat */
+    void update(final int capacity, final int connections, final int lobby,
+                final int matches, final long now) {
+        this.capacity = capacity;
+        this.connections = connections;
+        this.lobby = lobby;
+        this.matches = matches;
+        lastHeartbeatNanos = now;
+    }
+
+    /** Counts a player the broker sent to the node */
+    void assign() {
+        connections++;
+        // The player pairs with whoever waits, or waits themselves.
+        lobby = lobby % 2 == 1 ? lobby - 1 : lobby + 1;
+    }
+
+    /** Returns true if a player is waiting for an opponent on the node */
+    public boolean hasWaitingPlayer() {
+        return lobby % 2 == 1;
+    }
+
+    /** Returns the fraction of the node's capacity that is in use */
+    public double getLoad() {
+        return capacity <= 0 ? 1 : (double) connections / capacity;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getLobby() {
+        return lobby;
+    }
+
+    public int getMatches() {
+        return matches;
+    }
+
+    public long getLastHeartbeatNanos() {
+        return lastHeartbeatNanos;
+    }
+}
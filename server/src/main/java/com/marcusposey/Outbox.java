@@ -0,0 +1,181 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.BinaryFrame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded queue of messages waiting to be sent to one connection
+ *
+ * Java-WebSocket queues every frame it is given without limit, so messages
+ * are only handed to the socket while it has fewer than kMaxInFlight frames
+ * waiting to be written. The rest wait here:
+ *
+ * - Game states coalesce. A newer state replaces one that was not sent yet,
+ *   so a slow client only ever receives the newest state.
+ * - Reliable messages, such as scores, are never dropped or reordered.
+ *
+ * A connection that keeps more than kMaxReliable reliable messages waiting,
+ * or that has messages waiting but has not accepted a frame for
+ * kMaxStallNanos, is evicted: it is closed and everything sent to it
+ * afterwards is discarded.
+ *
+ * An outbox may be used from several threads; each call locks it briefly.
+ */
+public class Outbox {
+    // The most frames that may wait in the socket's own queue
+    static final int kMaxInFlight = 2;
+    // The most reliable messages that may wait here before eviction
+    static final int kMaxReliable = 16;
+    // How long a connection may refuse frames before eviction
+    static final long kMaxStallNanos = 5_000_000_000L;
+
+    private final WebSocket socket;
+    private final Metrics metrics;
+    private final BinaryFrame frame = new BinaryFrame();
+
+    // The newest unsent game state, if hasState is true
+    private final ByteBuffer state = ByteBuffer.allocate(ArrayBufferProtocol.kMaxTickMessageSize);
+    private boolean hasState = false;
+    // Unsent reliable messages, oldest first
+    private final ArrayDeque<ByteBuffer> reliable = new ArrayDeque<>();
+
+    // The time since which messages have waited without any being sent, or 0
+    private long stalledSinceNanos = 0;
+    private boolean isEvicted = false;
+
+    /** Creates an outbox for a connection */
+    public Outbox(final WebSocket socket) {
+        this(socket, new Metrics());
+    }
+
+    /**
+     * Creates an outbox for a connection
+     * @param metrics counts the messages that are sent, coalesced and evicted
+     */
+    public Outbox(final WebSocket socket, final Metrics metrics) {
+        this.socket = socket;
+        this.metrics = metrics;
+        frame.setFin(true);
+    }
+
+    /**
+     * Queues a game state, replacing any state that was not sent yet
+     * @param payload the message; its bytes are copied and it is not modified
+     * @return false if the connection is closed or was evicted
+     */
+    public synchronized boolean offerState(final ByteBuffer payload) {
+        if (isEvicted) return false;
+        if (hasState) metrics.statesCoalesced.increment();
+        state.clear();
+        copy(payload, state);
+        state.flip();
+        hasState = true;
+        return flush();
+    }
+
+    /**
+     * Queues a message that must not be dropped
+     * @param payload the message; its bytes are copied and it is not modified
+     * @return false if the connection is closed or was evicted
+     */
+    public synchronized boolean offerReliable(final ByteBuffer payload) {
+        if (isEvicted) return false;
+        final ByteBuffer message = ByteBuffer.allocate(payload.limit());
+        copy(payload, message);
+        message.flip();
+        reliable.add(message);
+        if (reliable.size() > kMaxReliable) {
+            evict();
+            return false;
+        }
+        return flush();
+    }
+
+    /** Returns true if a game state is waiting to be sent */
+    public synchronized boolean hasPendingState() {
+        return hasState;
+    }
+
+    /** Drops the unsent game state, e.g. because its match ended */
+    public synchronized void discardState() {
+        hasState = false;
+    }
+
+    /** Returns true if the connection was closed for falling behind */
+    public synchronized boolean isEvicted() {
+        return isEvicted;
+    }
+
+    /**
+     * Sends as many waiting messages as the socket will take, evicting the
+     * connection if it has not taken any for too long
+     * @return false if the connection is closed or was evicted
+     */
+    public synchronized boolean flush() {
+        if (isEvicted) return false;
+        boolean didSend = false;
+        try {
+            while (!reliable.isEmpty() && backlog() < kMaxInFlight) {
+                send(reliable.poll());
+                didSend = true;
+            }
+            // States follow older reliable messages so they are not reordered.
+            if (hasState && reliable.isEmpty() && backlog() < kMaxInFlight) {
+                send(state);
+                hasState = false;
+                didSend = true;
+            }
+        } catch (WebsocketNotConnectedException e) {
+            metrics.sendFailures.increment();
+            reliable.clear();
+            hasState = false;
+            return false;
+        }
+
+        if (didSend || (!hasState && reliable.isEmpty())) {
+            stalledSinceNanos = 0;
+        } else if (stalledSinceNanos == 0) {
+            stalledSinceNanos = System.nanoTime();
+        } else if (System.nanoTime() - stalledSinceNanos > kMaxStallNanos) {
+            evict();
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns the number of frames waiting in the socket's own queue */
+    int backlog() {
+        return Sockets.backlog(socket);
+    }
+
+    /** Hands a message to the socket */
+    void write(final ByteBuffer payload) {
+        frame.setPayload(payload);
+        socket.sendFrame(frame);
+    }
+
+    /** Sends a message and counts it */
+    private void send(final ByteBuffer payload) {
+        final int length = payload.remaining();
+        write(payload);
+        metrics.recordSend(length);
+    }
+
+    /** Closes a connection that cannot keep up */
+    private void evict() {
+        isEvicted = true;
+        reliable.clear();
+        hasState = false;
+        metrics.evictions.increment();
+        if (socket != null) socket.close(1008, "Connection fell too far behind");
+    }
+
+    /** Copies the bytes of a message from its start to its limit */
+    private static void copy(final ByteBuffer from, final ByteBuffer to) {
+        for (int i = 0; i < from.limit(); i++) to.put(from.get(i));
+    }
+}
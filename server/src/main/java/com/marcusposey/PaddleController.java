@@ -0,0 +1,17 @@
+package com.marcusposey;
+
+/**
+ * Moves a paddle without a human, e.g. a bot in a headless simulation
+ *
+ * Controllers are shared by every match in a simulation and called from
+ * several threads, so they should keep no state of their own.
+ */
+public interface PaddleController {
+    /**
+     * Decides how a player should move after a tick
+     * @param playerIndex 0 for the first player, 1 for the second
+     * @return a movement directive to apply next tick, or null to keep the
+     *         player's current movement
+     */
+    Directive decide(GameState match, int playerIndex);
+}
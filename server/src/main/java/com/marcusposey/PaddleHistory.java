@@ -0,0 +1,55 @@
+package com.marcusposey;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size ring of a paddle's recent positions, each stamped with the
+ * match tick it was recorded at
+ *
+ * A paddle's entry for a tick is its y and y velocity once that tick's
+ * inputs were applied, which is enough to replay how it moved during the
+ * tick. Recording does not allocate.
+ */
+public class PaddleHistory {
+    /** The number of ticks kept; a power of two */
+    public static final int kCapacity = 128;
+    private static final int kMask = kCapacity - 1;
+
+    // The tick each entry was recorded at, or -1 if the entry is unused
+    private final long[] ticks = new long[kCapacity];
+    private final int[] ys = new int[kCapacity];
+    private final int[] velocities = new int[kCapacity];
+
+    /** Creates an empty history */
+    public PaddleHistory() {
+        clear();
+    }
+
+    /** Forgets every entry, e.g. when the paddle starts a new match */
+    public void clear() {
+        Arrays.fill(ticks, -1);
+    }
+
+    /** Records the paddle's y and y velocity, in subpixels, at a tick */
+    public void record(final long tick, final int y, final int velocity) {
+        final int i = (int) tick & kMask;
+        ticks[i] = tick;
+        ys[i] = y;
+        velocities[i] = velocity;
+    }
+
+    /** Returns true if the history still holds the entry for a tick */
+    public boolean contains(final long tick) {
+        return tick >= 0 && ticks[(int) tick & kMask] == tick;
+    }
+
+    /** Returns the y recorded at a tick the history contains */
+    public int getY(final long tick) {
+        return ys[(int) tick & kMask];
+    }
+
+    /** Returns the y velocity recorded at a tick the history contains */
+    public int getVelocity(final long tick) {
+        return velocities[(int) tick & kMask];
+    }
+}
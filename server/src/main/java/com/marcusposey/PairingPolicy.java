@@ -0,0 +1,18 @@
+package com.marcusposey;
+
+import java.util.List;
+
+/** Decides which waiting players should play each other */
+public interface PairingPolicy {
+    /**
+     * Chooses pairs of players to start matches
+     *
+     * Players who are not chosen keep waiting and are offered again on the
+     * next tick.
+     *
+     * @param waiting players in the lobby, roughly oldest first
+     * @param pairs receives the chosen players two at a time; a player may
+     *              appear at most once
+     */
+    void pair(List<Player> waiting, List<Player> pairs);
+}
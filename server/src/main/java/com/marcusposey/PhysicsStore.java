@@ -0,0 +1,330 @@
+package com.marcusposey;
+
+import java.util.Arrays;
+
+/**
+ * Positions, sizes and velocities of many entities in contiguous arrays
+ *
+ * Entities are views over a slot in a store. A standalone entity owns a
+ * store with a single slot, while a shard keeps every entity of its matches
+ * in one store so the whole shard can be stepped in one tight loop without
+ * chasing object pointers.
+ *
+ * Shard stores are laid out by match: match m uses slot 3m for the first
+ * paddle, 3m + 1 for the second, and 3m + 2 for the ball.
+ *
+ * The physics rules live in the static kernels below, which both the object
+ * API (Ball.move, Player.move) and the bulk step() use.
+ *
+ * Positions and sizes are fixed-point numbers with kSubpixelBits fractional
+ * bits, and velocities are in those subpixels per physics step. The rules
+ * are defined one step of 1/kStepsPerSecond seconds at a time, and a tick
+ * runs a whole number of steps. Between contacts the ball moves in a
+ * straight line, so a tick jumps across those steps at once and only walks
+ * single steps where the ball meets a wall, a paddle or the edge. The result
+ * is exactly that of walking every step, so the ball cannot pass through a
+ * paddle and matches play out the same at any tick rate that divides
+ * kStepsPerSecond.
+ *
+ * A paddle may also have a rewound position: where it was a few ticks ago,
+ * moving as it moved then. The ball bounces off that position instead of
+ * the current one, so a player with a high round-trip time is not punished
+ * for reacting to a late view of the match, and is not given two paddles
+ * either. See Player.rewind().
+ */
+public class PhysicsStore {
+    /** The number of slots used by one match */
+    public static final int kSlotsPerMatch = 3;
+    /** The number of fractional bits in positions, sizes and velocities */
+    public static final int kSubpixelBits = 8;
+    /** The number of physics steps in a second */
+    public static final int kStepsPerSecond = 480;
+
+    /** Marks a paddle without a rewound position */
+    static final int kNotRewound = Integer.MIN_VALUE;
+
+    private static final int kCanvasWidth = GameState.kCanvasWidth << kSubpixelBits;
+    private static final int kCanvasHeight = GameState.kCanvasHeight << kSubpixelBits;
+
+    int[] x;
+    int[] y;
+    int[] width;
+    int[] height;
+    int[] xVelocity;
+    int[] yVelocity;
+    // A paddle's rewound y, or kNotRewound, and the y velocity it had then
+    int[] rewoundY;
+    int[] rewoundVelocity;
+
+    /** Creates a store with room for capacity entities */
+    public PhysicsStore(final int capacity) {
+        x = new int[capacity];
+        y = new int[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        xVelocity = new int[capacity];
+        yVelocity = new int[capacity];
+        rewoundY = new int[capacity];
+        rewoundVelocity = new int[capacity];
+        Arrays.fill(rewoundY, kNotRewound);
+    }
+
+    /** Returns the number of entities the store can hold */
+    public int capacity() {
+        return x.length;
+    }
+
+    /** Grows the store so it can hold at least capacity entities */
+    public void ensureCapacity(final int capacity) {
+        if (capacity <= x.length) return;
+        final int grown = Math.max(capacity, x.length * 2);
+        x = Arrays.copyOf(x, grown);
+        y = Arrays.copyOf(y, grown);
+        width = Arrays.copyOf(width, grown);
+        height = Arrays.copyOf(height, grown);
+        xVelocity = Arrays.copyOf(xVelocity, grown);
+        yVelocity = Arrays.copyOf(yVelocity, grown);
+        final int used = rewoundY.length;
+        rewoundY = Arrays.copyOf(rewoundY, grown);
+        rewoundVelocity = Arrays.copyOf(rewoundVelocity, grown);
+        Arrays.fill(rewoundY, used, grown, kNotRewound);
+    }
+
+    /** Copies every field of slot from into slot to of the target store */
+    void copy(final int from, final PhysicsStore target, final int to) {
+        target.x[to] = x[from];
+        target.y[to] = y[from];
+        target.width[to] = width[from];
+        target.height[to] = height[from];
+        target.xVelocity[to] = xVelocity[from];
+        target.yVelocity[to] = yVelocity[from];
+        target.rewoundY[to] = rewoundY[from];
+        target.rewoundVelocity[to] = rewoundVelocity[from];
+    }
+
+    /**
+     * Returns the number of physics steps in a tick
+     * @throws IllegalArgumentException if ticksPerSecond does not divide
+     *                                  kStepsPerSecond
+     */
+    public static int stepsPerTick(final int ticksPerSecond) {
+        if (ticksPerSecond <= 0 || kStepsPerSecond % ticksPerSecond != 0) {
+            throw new IllegalArgumentException(
+                    "The tick rate must divide " + kStepsPerSecond + ": " + ticksPerSecond);
+        }
+        return kStepsPerSecond / ticksPerSecond;
+    }
+
+    /**
+     * Steps the first matchCount matches of a shard store by one tick
+     * @param stepsLeft receives, for each match, the number of steps left
+     *                  in the tick after a point was scored, or -1 if the
+     *                  ball stayed in play; see Ball.finishPoint()
+     */
+    public void step(final int matchCount, final int stepsPerTick, final int[] stepsLeft) {
+        for (int m = 0; m < matchCount; m++) {
+            final int first = m * kSlotsPerMatch;
+            stepsLeft[m] = stepMatch(this, first + 2, this, first, this, first + 1,
+                                     stepsPerTick);
+        }
+    }
+
+    /**
+     * Moves a paddle, and its rewound position if it has one, by their y
+     * velocities for steps steps, keeping them inside the canvas
+     */
+    static void movePaddle(final PhysicsStore s, final int p, final int steps) {
+        s.y[p] = paddleY(s.y[p], s.yVelocity[p], s.height[p], steps);
+        if (s.rewoundY[p] != kNotRewound) {
+            s.rewoundY[p] = paddleY(s.rewoundY[p], s.rewoundVelocity[p], s.height[p], steps);
+        }
+    }
+
+    /** Returns where a paddle at y is after moving for steps steps */
+    private static int paddleY(final int y, final int velocity, final int height,
+                               final int steps) {
+        if (velocity == 0 || steps == 0) return y;
+        // Clamping once is the same as clamping after every step, because
+        // the paddle keeps going the same way.
+        return Math.max(Math.min(y + velocity * steps, kCanvasHeight - height), 0);
+    }
+
+    /**
+     * Moves a match's paddles and ball by a number of steps
+     *
+     * A point ends the ball's part of the tick: the ball stays where it left
+     * the canvas, while the paddles finish the tick.
+     *
+     * @return the number of steps left in the tick after a point was scored,
+     *         or -1 if the ball stayed in play
+     */
+    static int stepMatch(final PhysicsStore bs, final int b,
+                         final PhysicsStore firstStore, final int first,
+                         final PhysicsStore secondStore, final int second,
+                         final int steps) {
+        int remaining = steps;
+        while (remaining > 0) {
+            final int quiet = Math.min(remaining, quietSteps(bs, b, firstStore, first,
+                                                             secondStore, second));
+            if (quiet > 0) {
+                movePaddle(firstStore, first, quiet);
+                movePaddle(secondStore, second, quiet);
+                bs.x[b] += bs.xVelocity[b] * quiet;
+                bs.y[b] += bs.yVelocity[b] * quiet;
+                remaining -= quiet;
+                continue;
+            }
+
+            movePaddle(firstStore, first, 1);
+            movePaddle(secondStore, second, 1);
+            remaining--;
+            if (stepBall(bs, b, firstStore, first, secondStore, second)) {
+                movePaddle(firstStore, first, remaining);
+                movePaddle(secondStore, second, remaining);
+                return remaining;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the player who scored, given a ball that left
+     * the canvas
+     */
+    static int scorer(final PhysicsStore bs, final int b) {
+        // A ball that left on the left was missed by the first player.
+        return bs.x[b] < 0 ? 1 : 0;
+    }
+
+    /**
+     * Moves a ball that was just served by a number of steps, bouncing it
+     * off the walls
+     *
+     * A served ball starts in the middle of the canvas and needs far more
+     * steps than a tick has to reach a paddle, so paddles are not checked.
+     */
+    static void moveServedBall(final PhysicsStore bs, final int b, final int steps) {
+        int remaining = steps;
+        while (remaining > 0) {
+            final int quiet = Math.min(remaining, wallQuietSteps(bs, b));
+            if (quiet > 0) {
+                bs.x[b] += bs.xVelocity[b] * quiet;
+                bs.y[b] += bs.yVelocity[b] * quiet;
+                remaining -= quiet;
+            } else {
+                bs.x[b] += bs.xVelocity[b];
+                bs.y[b] += bs.yVelocity[b];
+                bounceOffWalls(bs, b);
+                remaining--;
+            }
+        }
+    }
+
+    /**
+     * Moves a ball by one step and bounces it off walls and paddles
+     *
+     * The ball can only hit the paddle it is travelling towards: the first
+     * one if it moves left and the second one if it moves right. It hits
+     * the paddle if it meets its rewound position, or the paddle itself if it
+     * has none. Each hit speeds the ball up by Ball.kSpeedUp, up to
+     * Ball.kMaxSpeed.
+     *
+     * @return true if the ball left the canvas
+     */
+    private static boolean stepBall(final PhysicsStore bs, final int b,
+                                    final PhysicsStore firstStore, final int first,
+                                    final PhysicsStore secondStore, final int second) {
+        final int bx = bs.x[b] + bs.xVelocity[b];
+        final int by = bs.y[b] + bs.yVelocity[b];
+        bs.x[b] = bx;
+        bs.y[b] = by;
+        bounceOffWalls(bs, b);
+
+        // The player the ball is moving away from hit it last.
+        final boolean movingLeft = bs.xVelocity[b] < 0;
+        final PhysicsStore ps = movingLeft ? firstStore : secondStore;
+        final int p = movingLeft ? first : second;
+
+        // A lagging player hits with where their paddle was on their screen.
+        final int py = ps.rewoundY[p] != kNotRewound ? ps.rewoundY[p] : ps.y[p];
+        if (ps.x[p] < bx + bs.width[b] && bx < ps.x[p] + ps.width[p]
+            && overlapsY(py, ps.height[p], by, bs.height[b])) {
+            // Bounce the ball in the other direction, a little faster.
+            final int speed = Math.min(Math.abs(bs.xVelocity[b]) + Ball.kSpeedUp,
+                                       Ball.kMaxSpeed);
+            bs.xVelocity[b] = movingLeft ? speed : -speed;
+            bs.yVelocity[b] = bs.yVelocity[b] < 0 ? -speed : speed;
+            return false;
+        }
+        // They missed the ball.
+        return bx + bs.width[b] < 0 || bx > kCanvasWidth;
+    }
+
+    /** Returns true if a paddle at y overlaps a ball at ballY vertically */
+    private static boolean overlapsY(final int y, final int height,
+                                     final int ballY, final int ballHeight) {
+        return y < ballY + ballHeight && ballY < y + height;
+    }
+
+    /** Turns a ball back if its last step took it past the top or bottom */
+    private static void bounceOffWalls(final PhysicsStore bs, final int b) {
+        if (bs.y[b] < 0 || bs.y[b] + bs.height[b] > kCanvasHeight) {
+            bs.yVelocity[b] = -bs.yVelocity[b];
+        }
+    }
+
+    /**
+     * Returns how many of the next steps a ball moves in a straight line,
+     * without meeting a wall, the paddle it moves towards, or the edge
+     * behind that paddle
+     */
+    private static int quietSteps(final PhysicsStore bs, final int b,
+                                  final PhysicsStore firstStore, final int first,
+                                  final PhysicsStore secondStore, final int second) {
+        final int x = bs.x[b];
+        final int w = bs.width[b];
+        final int vx = bs.xVelocity[b];
+        // A ball outside the canvas scores on its next step.
+        if (x + w < 0 || x > kCanvasWidth) return 0;
+        int quiet = wallQuietSteps(bs, b);
+        if (vx < 0) {
+            final int face = firstStore.x[first] + firstStore.width[first];
+            if (x >= face) {
+                // Steps until the ball reaches the paddle's column.
+                quiet = Math.min(quiet, stepsWhile(x - face, -vx));
+            } else if (x + w > firstStore.x[first]) {
+                // The ball is in the paddle's column.
+                return 0;
+            }
+            quiet = Math.min(quiet, stepsWhile(x + w, -vx));
+        } else if (vx > 0) {
+            final int face = secondStore.x[second];
+            if (x + w <= face) {
+                quiet = Math.min(quiet, stepsWhile(face - x - w, vx));
+            } else if (x < face + secondStore.width[second]) {
+                return 0;
+            }
+            quiet = Math.min(quiet, stepsWhile(kCanvasWidth - x, vx));
+        }
+        return quiet;
+    }
+
+    /** Returns how many of the next steps a ball moves without meeting a wall */
+    private static int wallQuietSteps(final PhysicsStore bs, final int b) {
+        final int y = bs.y[b];
+        final int vy = bs.yVelocity[b];
+        // A ball past a wall bounces on every step until it is back.
+        if (y < 0 || y + bs.height[b] > kCanvasHeight) return 0;
+        if (vy < 0) return stepsWhile(y, -vy);
+        if (vy > 0) return stepsWhile(kCanvasHeight - bs.height[b] - y, vy);
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns how many steps of speed fit in a distance without exceeding
+     * it, or 0 if the distance is negative
+     */
+    private static int stepsWhile(final int distance, final int speed) {
+        return distance < 0 ? 0 : distance / speed;
+    }
+}
@@ -2,39 +2,114 @@ package com.marcusposey;
 
 import org.java_websocket.WebSocket;
 
-import java.util.Random;
-
 /** A user-controllable entity that represents a paddle in a game */
 public class Player extends Entity {
     public enum Direction {UP, DOWN}
 
-    // How fast the player moves
-    private static final int kSpeed = 2;
+    // How fast the player moves, in subpixels per physics step (about 160
+    // pixels a second)
+    static final int kSpeed = 85;
+    // The most physics steps a paddle is rewound by, which is 200 ms
+    static final int kMaxRewindSteps = PhysicsStore.kStepsPerSecond / 5;
+    // The weight of a new round-trip time in the smoothed one, as a shift:
+    // each sample counts for 1/8
+    private static final int kRttSmoothingShift = 3;
+    // Shared by players that do not belong to a world, which are often
+    // created in bulk by tests and simulations
+    private static final Metrics kUncounted = new Metrics();
 
     private final int id;
+    // A secret that lets the player resume after a server restart, or 0
+    private final long resumeToken;
     // A connection to the client controller
     private WebSocket webSocket;
+    // The ArrayBufferProtocol version spoken with the client
+    private volatile int protocolVersion = ArrayBufferProtocol.kVersion1;
 
-    // True if the player is moving up or down; false if it is still
-    private boolean isMoving = false;
-    // The direction in which the player is moving
-    private Direction currentDirection;
+    // The match the player is in, or null if they are in the lobby
+    private volatile GameState match;
+    // Messages waiting to be sent to the player
+    private final Outbox outbox;
+    // Decides which game states are sent to the player
+    private final SnapshotThrottle throttle = new SnapshotThrottle();
+    // Limits the messages the player sends; only used by their I/O thread
+    private final InputLimiter limiter = new InputLimiter(System.nanoTime());
+    // The time at which the player last entered the lobby
+    private volatile long lobbyEntryNanos = System.nanoTime();
+    // The time at which the player last sent anything, including pongs
+    private volatile long lastActivityNanos = System.nanoTime();
+    // The time at which the last ping was sent, or 0 if it was answered
+    private volatile long pingSentNanos = 0;
+    // The round-trip time of the last answered ping, or -1 if none was
+    private volatile long rttNanos = -1;
+    // A moving average of the round-trip times, or -1 if none is known
+    private volatile long smoothedRttNanos = -1;
+    // The physics steps the paddle is rewound by for hit detection
+    private volatile int rewindSteps = 0;
+    // The paddle's recent positions; only used by the thread that updates
+    // their match
+    private final PaddleHistory history = new PaddleHistory();
+    // The sequence number of the last input applied to the player, or 0;
+    // only used by the thread that updates their match
+    private int inputAck = 0;
+    // The sequence number of the latest input dropped as a repeat of the one
+    // queued before it, or 0; cleared when a new input is queued
+    private volatile int repeatAck = 0;
 
-    /** Creates a new player bound to an open Websocket */
+    /**
+     * Creates a new player bound to an open Websocket
+     * The player has id 0 because it does not belong to a registry.
+     */
     public Player(WebSocket webSocket) {
+        this(webSocket, 0);
+    }
+
+    /**
+     * Creates a new player bound to an open Websocket
+     * @param id the id given to the player by a PlayerRegistry
+     */
+    public Player(WebSocket webSocket, final int id) {
+        this(webSocket, id, kUncounted);
+    }
+
+    /**
+     * Creates a new player bound to an open Websocket
+     * @param id the id given to the player by a PlayerRegistry
+     * @param metrics counts the messages sent to the player
+     */
+    public Player(WebSocket webSocket, final int id, final Metrics metrics) {
+        this(webSocket, id, metrics, 0);
+    }
+
+    /**
+     * Creates a new player bound to an open Websocket
+     * @param id the id given to the player by a PlayerRegistry
+     * @param metrics counts the messages sent to the player
+     * @param resumeToken a secret that lets the player resume after a
+     *                    restart, or 0 if they cannot
+     */
+    public Player(WebSocket webSocket, final int id, final Metrics metrics,
+                  final long resumeToken) {
         super(20, 100, 20, 100);
         this.webSocket = webSocket;
-        id = new Random().nextInt(Integer.MAX_VALUE);
+        this.id = id;
+        this.resumeToken = resumeToken;
+        outbox = new Outbox(webSocket, metrics);
     }
 
     /**
      * Returns the player's Id
-     * This is a random integer in [0, Integer.MAX_VALUE].
+     * This is a positive integer assigned by a PlayerRegistry, or 0.
      */
     public int getId() {
         return id;
     }
 
+    /** Returns the secret that lets the player resume after a restart, or 0 */
+    public long getResumeToken() {
+        return resumeToken;
+    }
+
     /**
      * Returns a (hopefully) active Websocket to the player
      * The player could disconnect after calling this, so ensure the exception
@@ -44,30 +119,194 @@ public class Player extends Entity {
         return webSocket;
     }
 
-    /** Moves a player one unit up or down in the y axis */
+    /** Returns the ArrayBufferProtocol version spoken with the player */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /** Sets the ArrayBufferProtocol version spoken with the player */
+    public void setProtocolVersion(final int version) {
+        protocolVersion = version;
+    }
+
+    /** Returns the match the player is in, or null if they are not in one */
+    public GameState getMatch() {
+        return match;
+    }
+
+    /** Sets the match the player is in */
+    public void setMatch(final GameState match) {
+        this.match = match;
+    }
+
+    /** Returns the queue of messages waiting to be sent to the player */
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    /** Returns the throttle that decides which game states the player is sent */
+    public SnapshotThrottle getThrottle() {
+        return throttle;
+    }
+
+    /** Returns the limiter for messages from the player */
+    public InputLimiter getLimiter() {
+        return limiter;
+    }
+
+    /** Returns the time, from System.nanoTime(), the player entered the lobby */
+    public long getLobbyEntryNanos() {
+        return lobbyEntryNanos;
+    }
+
+    /** Records that the player entered the lobby now */
+    public void markLobbyEntry() {
+        lobbyEntryNanos = System.nanoTime();
+    }
+
+    /** Records that the player entered the lobby waitedNanos ago */
+    public void markLobbyEntry(final long waitedNanos) {
+        lobbyEntryNanos = System.nanoTime() - waitedNanos;
+    }
+
+    /** Returns the sequence number of the last input applied to the player */
+    public int getInputAck() {
+        return inputAck;
+    }
+
+    /** Records that the input with a sequence number was applied to the player */
+    void setInputAck(final int sequence) {
+        inputAck = sequence;
+    }
+
+    /**
+     * Returns the sequence number of the latest input dropped as a repeat,
+     * or 0 if an input was queued since
+     */
+    int getRepeatAck() {
+        return repeatAck;
+    }
+
+    /**
+     * Notes the sequence number of an input that was dropped because it
+     * repeats the last one queued, so that it is acknowledged once that one
+     * is applied; 0 clears it when a new input is queued
+     */
+    void setRepeatAck(final int sequence) {
+        repeatAck = sequence;
+    }
+
+    /** Returns the time, from System.nanoTime(), the player was last heard from */
+    public long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    /** Records that the player was heard from now */
+    public void markActive() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    /** Returns the player's round-trip time in nanoseconds, or -1 if unknown */
+    public long getRttNanos() {
+        return rttNanos;
+    }
+
+    /** Records that the player was just pinged */
+    public void markPingSent() {
+        pingSentNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns an exponentially weighted moving average of the player's
+     * round-trip times in nanoseconds, or -1 if unknown
+     */
+    public long getSmoothedRttNanos() {
+        return smoothedRttNanos;
+    }
+
+    /**
+     * Measures the round-trip time from the last ping to its pong
+     *
+     * This also updates the smoothed round-trip time and, from it, how far
+     * the player's paddle is rewound.
+     */
+    public void markPongReceived() {
+        final long sent = pingSentNanos;
+        if (sent == 0) return;
+        pingSentNanos = 0;
+        final long rtt = System.nanoTime() - sent;
+        rttNanos = rtt;
+
+        final long smoothed = smoothedRttNanos;
+        final long updated = smoothed < 0
+                ? rtt : smoothed + ((rtt - smoothed) >> kRttSmoothingShift);
+        smoothedRttNanos = updated;
+        rewindSteps = (int) Math.min(kMaxRewindSteps,
+                                     updated * PhysicsStore.kStepsPerSecond / 1_000_000_000L);
+    }
+
+    /** Returns how many physics steps the paddle is rewound by for hit detection */
+    public int getRewindSteps() {
+        return rewindSteps;
+    }
+
+    /**
+     * Sets how many physics steps the paddle is rewound by, e.g. to replay a
+     * recording
+     */
+    void setRewindSteps(final int steps) {
+        rewindSteps = Math.max(0, Math.min(steps, kMaxRewindSteps));
+    }
+
+    /** Returns the paddle's recent positions */
+    PaddleHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Records the paddle's position at the start of a tick and sets its
+     * rewound position to where it was a number of ticks ago
+     *
+     * The paddle has no rewound position if ticks is 0 or the history does
+     * not reach back that far.
+     */
+    void rewind(final long tick, final int ticks) {
+        final PhysicsStore s = getStore();
+        final int p = getSlot();
+        history.record(tick, s.y[p], s.yVelocity[p]);
+
+        final long past = tick - ticks;
+        if (ticks > 0 && history.contains(past)) {
+            s.rewoundY[p] = history.getY(past);
+            s.rewoundVelocity[p] = history.getVelocity(past);
+        } else {
+            s.rewoundY[p] = PhysicsStore.kNotRewound;
+        }
+    }
+
+    /**
+     * Starts moving a player up or down in the y axis
+     *
+     * The player moves in that direction on every tick after this.
+     */
     public void move(final Direction direction) {
-        final int offset = direction == Direction.UP ? -kSpeed : kSpeed;
-        final int newY = getY() + offset;
-        // Ensure new location is within the bounds of the canvas.
-        setY(Math.max(Math.min(newY, GameState.kCanvasHeight - getHeight()), 0));
-        currentDirection = direction;
-        isMoving = true;
+        getStore().yVelocity[getSlot()] = direction == Direction.UP ? -kSpeed : kSpeed;
     }
 
     /** Signals to the player to stop moving */
     public void stopMoving() {
-        isMoving = false;
+        getStore().yVelocity[getSlot()] = 0;
     }
 
     /**
-     * Moves the player according to the last movement request
+     * Moves the player by one tick at the default tick rate, according to
+     * the last movement request
      *
      * If stopMoving() was last called, the player will not move. It will otherwise
      * move in the direction last supplied to move(Direction).
      */
     public void move() {
-        if (isMoving) {
-            move(currentDirection);
-        }
+        // The velocity is 0 when the player is still.
+        PhysicsStore.movePaddle(getStore(), getSlot(), Ball.kDefaultStepsPerTick);
     }
 }
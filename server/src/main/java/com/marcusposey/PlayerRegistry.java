@@ -0,0 +1,147 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Assigns ids to players and finds players by id
+ *
+ * Players live in a growable array of slots. An id packs the player's slot
+ * into its low kSlotBits bits and a random generation into the bits above,
+ * so finding a player is an array read and a comparison, while an id that
+ * belonged to a player who left never resolves to whoever reuses the slot.
+ *
+ * Lookups never lock. Adding and removing players lock the registry, which
+ * only happens when connections open and close.
+ */
+public class PlayerRegistry {
+    // The number of low id bits that hold the slot
+    static final int kSlotBits = 20;
+    // The most players that can be registered at once
+    public static final int kMaxPlayers = 1 << kSlotBits;
+    private static final int kSlotMask = kMaxPlayers - 1;
+    // Generations are in [1, kGenerations); ids stay positive
+    private static final int kGenerations = 1 << (31 - kSlotBits);
+    private static final int kInitialCapacity = 64;
+
+    private volatile AtomicReferenceArray<Player> slots =
+            new AtomicReferenceArray<>(kInitialCapacity);
+    // The generation last given out by each slot
+    private int[] generations = new int[kInitialCapacity];
+
+    // Slots that were released and can be reused, used as a stack
+    private int[] free = new int[kInitialCapacity];
+    private int freeCount = 0;
+    // The number of slots that have ever been used
+    private int used = 0;
+    private int size = 0;
+
+    private final SecureRandom random = new SecureRandom();
+    // Given to new players to count the messages sent to them
+    private final Metrics metrics;
+
+    /** Creates an empty registry */
+    public PlayerRegistry() {
+        this(new Metrics());
+    }
+
+    /**
+     * Creates an empty registry
+     * @param metrics counts the messages sent to registered players
+     */
+    public PlayerRegistry(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates a player with a fresh id and registers it
+     * @throws IllegalStateException if kMaxPlayers players are registered
+     */
+    public synchronized Player add(final WebSocket webSocket) {
+        final int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (used == kMaxPlayers) {
+                throw new IllegalStateException("The registry is full");
+            }
+            slot = used++;
+            ensureCapacity(used);
+        }
+
+        // Pick a random generation that differs from the slot's last one.
+        int generation = 1 + random.nextInt(kGenerations - 2);
+        if (generation >= generations[slot]) generation++;
+        generations[slot] = generation;
+
+        long token;
+        do {
+            token = random.nextLong();
+        } while (token == 0);
+
+        final Player player = new Player(webSocket, generation << kSlotBits | slot, metrics,
+                                         token);
+        slots.set(slot, player);
+        size++;
+        return player;
+    }
+
+    /** Returns the player with the id, or null if there is none */
+    public Player get(final int id) {
+        if (id <= 0) return null;
+        final AtomicReferenceArray<Player> current = slots;
+        final int slot = id & kSlotMask;
+        if (slot >= current.length()) return null;
+        final Player player = current.get(slot);
+        return player != null && player.getId() == id ? player : null;
+    }
+
+    /** Returns true if the player is registered */
+    public boolean contains(final Player player) {
+        return get(player.getId()) == player;
+    }
+
+    /**
+     * Unregisters a player so that its id no longer resolves
+     * @return false if the player was not registered
+     */
+    public synchronized boolean remove(final Player player) {
+        if (!contains(player)) return false;
+        final int slot = player.getId() & kSlotMask;
+        slots.set(slot, null);
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = slot;
+        size--;
+        return true;
+    }
+
+    /** Calls action for every registered player */
+    public void forEach(final Consumer<Player> action) {
+        final AtomicReferenceArray<Player> current = slots;
+        for (int i = 0; i < current.length(); i++) {
+            final Player player = current.get(i);
+            if (player != null) action.accept(player);
+        }
+    }
+
+    /** Returns the number of registered players */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Grows the slot arrays so they can hold at least capacity players */
+    private void ensureCapacity(final int capacity) {
+        final AtomicReferenceArray<Player> current = slots;
+        if (capacity <= current.length()) return;
+
+        final int grown = Math.min(kMaxPlayers, Math.max(capacity, current.length() * 2));
+        final AtomicReferenceArray<Player> next = new AtomicReferenceArray<>(grown);
+        for (int i = 0; i < current.length(); i++) next.set(i, current.get(i));
+        generations = Arrays.copyOf(generations, grown);
+        slots = next;
+    }
+}
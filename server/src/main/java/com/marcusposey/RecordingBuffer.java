@@ -0,0 +1,92 @@
+package com.marcusposey;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Collects the recording of one shard's matches during a tick
+ *
+ * Records are appended to a heap buffer, which costs a few stores per
+ * record, and the buffer is handed to the MatchRecorder at the end of the
+ * tick. Only the owning shard thread may use a RecordingBuffer.
+ */
+public class RecordingBuffer {
+    private final MatchRecorder recorder;
+    private ByteBuffer buffer;
+
+    /** Creates a buffer that hands its records to recorder */
+    RecordingBuffer(final MatchRecorder recorder) {
+        this.recorder = recorder;
+        buffer = recorder.takeBuffer();
+    }
+
+    /**
+     * Records that a match started, along with its seed and players, and
+     * for a match restored after a restart, the state it resumed from
+     */
+    public void start(final GameState match) {
+        reserve(MatchRecorder.kMatchStartSize);
+        buffer.put(MatchRecorder.kMatchStart);
+        buffer.putInt(match.getId());
+        buffer.putLong(match.getSeed());
+        buffer.putInt(match.getPlayers()[0].getId());
+        buffer.putInt(match.getPlayers()[1].getId());
+        buffer.putInt(match.getStepsPerTick());
+        if (!match.isRestored()) return;
+
+        reserve(MatchRecorder.kMatchRestoreSize);
+        buffer.put(MatchRecorder.kMatchRestore);
+        buffer.putInt(match.getId());
+        MatchSnapshot.capture(match).writeState(buffer);
+    }
+
+    /**
+     * Records an input applied at the start of the match's current tick
+     * @param input the player's index shifted left 8 bits, or'd with the
+     *              ordinal of a movement directive
+     */
+    public void input(final GameState match, final int input) {
+        reserve(MatchRecorder.kInputSize);
+        buffer.put(MatchRecorder.kInput);
+        buffer.putInt(match.getId());
+        buffer.putInt((int) match.getTick());
+        buffer.putShort((short) input);
+    }
+
+    /**
+     * Records that a paddle is rewound by a new number of physics steps from
+     * the match's current tick on
+     */
+    public void rewind(final GameState match, final int index, final int steps) {
+        reserve(MatchRecorder.kRewindSize);
+        buffer.put(MatchRecorder.kRewind);
+        buffer.putInt(match.getId());
+        buffer.putInt((int) match.getTick());
+        buffer.put((byte) index);
+        buffer.putShort((short) steps);
+    }
+
+    /** Records that a match ended, along with its final tick and scores */
+    public void end(final GameState match) {
+        final int[] scores = match.getScores();
+        reserve(MatchRecorder.kMatchEndSize);
+        buffer.put(MatchRecorder.kMatchEnd);
+        buffer.putInt(match.getId());
+        buffer.putInt((int) match.getTick());
+        buffer.putInt(scores[0]);
+        buffer.putInt(scores[1]);
+    }
+
+    /**
+     * Hands the records written so far to the recorder, or drops them if it
+     * has stopped
+     */
+    public void flush() {
+        if (buffer.position() == 0) return;
+        if (recorder.submit(buffer)) buffer = recorder.takeBuffer();
+    }
+
+    /** Makes room for a record of the given size */
+    private void reserve(final int size) {
+        if (buffer.remaining() < size) flush();
+    }
+}
@@ -0,0 +1,64 @@
+package com.marcusposey;
+
+/**
+ * A place a player held before a restart, kept until they resume it
+ *
+ * A seat is either in a restored match or in the lobby. Both seats of a
+ * match share an array of the players who resumed them, and the match
+ * continues once both are filled.
+ */
+public class ResumeSeat {
+    // The match the seat is in, or null for a lobby seat
+    private final MatchSnapshot match;
+    private final int playerIndex;
+    // The players who resumed each seat of the match, or null
+    private final Player[] arrivals;
+    // How long a lobby player had waited before the restart
+    private final long waitedNanos;
+    // The player who resumed the seat, or null
+    private volatile Player player;
+
+    /** Creates the seat of the first or second player of a restored match */
+    public ResumeSeat(final MatchSnapshot match, final int playerIndex, final Player[] arrivals) {
+        this.match = match;
+        this.playerIndex = playerIndex;
+        this.arrivals = arrivals;
+        waitedNanos = 0;
+    }
+
+    /** Creates a lobby seat for a player who had waited waitedNanos */
+    public ResumeSeat(final long waitedNanos) {
+        match = null;
+        playerIndex = 0;
+        arrivals = null;
+        this.waitedNanos = waitedNanos;
+    }
+
+    /** Returns the match the seat is in, or null for a lobby seat */
+    public MatchSnapshot getMatch() {
+        return match;
+    }
+
+    public int getPlayerIndex() {
+        return playerIndex;
+    }
+
+    /** Returns the players who resumed the seats of the match */
+    Player[] getArrivals() {
+        return arrivals;
+    }
+
+    public long getWaitedNanos() {
+        return waitedNanos;
+    }
+
+    /** Returns the player who resumed the seat, or null */
+    public Player getPlayer() {
+        return player;
+    }
+
+    /** Gives the seat to the player who presented its token */
+    void claim(final Player player) {
+        this.player = player;
+    }
+}
@@ -0,0 +1,206 @@
+package com.marcusposey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread that reads and writes a share of an NioTransport's connections
+ *
+ * Every connection belongs to one loop for its whole life. The loop owns
+ * the scratch state its connections need to read, so a loop's connections
+ * share one read buffer, frame parser and gather array instead of holding
+ * their own.
+ */
+public class SelectorLoop implements Runnable {
+    // How long a closing connection may take to write its close frame
+    static final long kCloseTimeoutNanos = 2_000_000_000L;
+    // How often closing connections are checked against their deadline
+    private static final long kSweepMillis = 500;
+    private static final int kReadBufferSize = 64 * 1024;
+    // The most frames written to a connection with one call
+    private static final int kMaxGather = 16;
+    private static final int kPooledBufferSize = 512;
+    private static final int kMaxPooledBuffers = 4096;
+
+    private final Selector selector;
+    private final TransportListener listener;
+    private final BufferPool pool = new BufferPool(kPooledBufferSize, kMaxPooledBuffers);
+
+    // Accepted channels waiting to be registered with the selector
+    private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+    // Connections with frames to write or that must close
+    private final Queue<NioConnection> dirty = new ConcurrentLinkedQueue<>();
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(kReadBufferSize);
+    private final ByteBuffer[] gather = new ByteBuffer[kMaxGather];
+    private final FrameParser parser = new FrameParser(NioConnection.kMaxMessageSize);
+    private final MessageDigest sha1;
+
+    private volatile boolean isRunning = true;
+    // The time after which open connections are closed because of stop()
+    private volatile long stopDeadlineNanos = 0;
+    private boolean isClosingAll = false;
+
+    /** Creates a loop that reports its connections' events to listener */
+    public SelectorLoop(final TransportListener listener) throws IOException {
+        this.listener = listener;
+        selector = Selector.open();
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required by the WebSocket handshake", e);
+        }
+    }
+
+    /** Hands an accepted channel to the loop; may be called from any thread */
+    public void register(final SocketChannel channel) {
+        accepted.add(channel);
+        selector.wakeup();
+    }
+
+    /** Asks the loop to flush a connection; may be called from any thread */
+    void flushLater(final NioConnection connection) {
+        dirty.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Closes every connection and makes run() return once they closed
+     * @param timeoutMillis how long connections may take to close cleanly
+     */
+    public void stop(final int timeoutMillis) {
+        stopDeadlineNanos = System.nanoTime() + timeoutMillis * 1_000_000L;
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastSweep = System.nanoTime();
+        while (true) {
+            try {
+                selector.select(kSweepMillis);
+            } catch (IOException e) {
+                listener.onError(null, e);
+                break;
+            }
+
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                final NioConnection connection = (NioConnection) key.attachment();
+                if (key.isValid() && key.isReadable()) read(key, connection);
+                if (key.isValid() && key.isWritable()) connection.flush(gather);
+            }
+
+            registerAccepted();
+            NioConnection connection;
+            while ((connection = dirty.poll()) != null) connection.flush(gather);
+
+            final long now = System.nanoTime();
+            if (!isRunning) {
+                if (!isClosingAll) closeAll();
+                if (selector.keys().isEmpty()) break;
+                if (now - stopDeadlineNanos > 0) {
+                    for (SelectionKey key : selector.keys()) {
+                        ((NioConnection) key.attachment()).closeChannel();
+                    }
+                    break;
+                }
+            }
+            if (now - lastSweep > kSweepMillis * 1_000_000L) {
+                lastSweep = now;
+                for (SelectionKey key : selector.keys()) {
+                    final NioConnection closing = (NioConnection) key.attachment();
+                    if (closing.isPastCloseDeadline(now)) closing.closeChannel();
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            listener.onError(null, e);
+        }
+    }
+
+    /** Reads what a connection sent and hands it to the connection */
+    private void read(final SelectionKey key, final NioConnection connection) {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        readBuffer.clear();
+        final int count;
+        try {
+            count = channel.read(readBuffer);
+        } catch (IOException e) {
+            connection.closeChannel();
+            return;
+        }
+        if (count < 0) {
+            connection.closeChannel();
+            return;
+        }
+        readBuffer.flip();
+        connection.onRead(readBuffer);
+    }
+
+    /** Registers the channels handed over by acceptors */
+    private void registerAccepted() {
+        SocketChannel channel;
+        while ((channel = accepted.poll()) != null) {
+            if (!isRunning) {
+                closeQuietly(channel);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                final NioConnection connection = new NioConnection(channel, this);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                listener.onError(null, e);
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /** Starts closing every connection because the transport is stopping */
+    private void closeAll() {
+        isClosingAll = true;
+        for (SelectionKey key : selector.keys()) {
+            ((NioConnection) key.attachment()).close(1001, "Server is shutting down");
+        }
+    }
+
+    private static void closeQuietly(final SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // The channel is unusable either way.
+        }
+    }
+
+    BufferPool getPool() {
+        return pool;
+    }
+
+    FrameParser getParser() {
+        return parser;
+    }
+
+    MessageDigest getSha1() {
+        return sha1;
+    }
+
+    TransportListener getListener() {
+        return listener;
+    }
+}
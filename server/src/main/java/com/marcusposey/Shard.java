@@ -0,0 +1,174 @@
+package com.marcusposey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Shard owns a subset of the world's matches and updates them on its own
+ * thread.
+ *
+ * Each match belongs to exactly one shard, and only the shard thread touches
+ * the match list. Other threads hand matches over through add(GameState), and
+ * matches leave the shard once they are marked as over.
+ */
+public class Shard {
+    private final int index;
+    private final TickScheduler scheduler;
+
+    // Runs the shard's ticks, or null if the shard was not started
+    private Thread thread;
+    // The matches updated by this shard; only accessed by the shard thread
+    private final List<GameState> matches = new ArrayList<>();
+    // Matches waiting to be adopted by the shard thread
+    private final Queue<GameState> incoming = new ConcurrentLinkedQueue<>();
+    // The number of matches assigned to this shard, including incoming ones
+    private final AtomicInteger load = new AtomicInteger();
+    // Ended matches that have been released back to the world
+    private final Queue<GameState> finished;
+
+    // The entities of every match, laid out by match index
+    private final PhysicsStore store = new PhysicsStore(64 * PhysicsStore.kSlotsPerMatch);
+    // The number of physics steps in each tick
+    private final int stepsPerTick;
+    // The steps left in each match's last tick after a point, or -1
+    private int[] stepsLeft = new int[64];
+
+    // Receives each match after its update
+    private final MatchSink sink;
+    private final Metrics metrics;
+    // Records the shard's matches, or null if they are not recorded
+    private volatile RecordingBuffer recording;
+
+    /**
+     * Creates a shard that ticks at a fixed rate
+     * @param index a number that identifies the shard in its world
+     * @param finished receives matches once they have ended and their
+     *                 players are free to join other matches
+     */
+    public Shard(final int index, final int ticksPerSecond,
+                 final int maxCatchUpTicks, Metrics metrics,
+                 Queue<GameState> finished) {
+        this(index, ticksPerSecond, maxCatchUpTicks, metrics, finished,
+             TickClock.kSystem, new NetworkSink(metrics));
+    }
+
+    /**
+     * Creates a shard that ticks at a fixed rate
+     * @param index a number that identifies the shard in its world
+     * @param finished receives matches once they have ended and their
+     *                 players are free to join other matches
+     * @param clock paces the shard thread
+     * @param sink receives every match after each of its ticks
+     */
+    public Shard(final int index, final int ticksPerSecond,
+                 final int maxCatchUpTicks, Metrics metrics,
+                 Queue<GameState> finished, TickClock clock, MatchSink sink) {
+        this.index = index;
+        this.metrics = metrics;
+        this.finished = finished;
+        this.sink = sink;
+        stepsPerTick = PhysicsStore.stepsPerTick(ticksPerSecond);
+        scheduler = new TickScheduler(ticksPerSecond, maxCatchUpTicks, clock);
+    }
+
+    /** Starts the shard thread */
+    public void start() {
+        thread = new Thread(() -> scheduler.run(this::tick), "shard-" + index);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Waits up to timeoutMillis for the shard thread to finish after stop() */
+    public void join(final long timeoutMillis) throws InterruptedException {
+        if (thread != null) thread.join(timeoutMillis);
+    }
+
+    /** Stops the shard thread after its current tick */
+    public void stop() {
+        scheduler.stop();
+    }
+
+    /** Assigns a match to this shard; it is updated starting next tick */
+    public void add(final GameState match) {
+        match.setStepsPerTick(stepsPerTick);
+        load.incrementAndGet();
+        metrics.matchesPending.incrementAndGet();
+        incoming.add(match);
+    }
+
+    /**
+     * Records matches the shard adopts from now on into a buffer
+     * @param recording a buffer owned by this shard, or null to stop recording
+     */
+    public void setRecording(final RecordingBuffer recording) {
+        this.recording = recording;
+    }
+
+    /** Returns the number of matches assigned to this shard */
+    public int getLoad() {
+        return load.get();
+    }
+
+    /** Returns the scheduler that drives the shard thread */
+    public TickScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Adopts new matches, releases finished ones, and updates the rest
+     *
+     * Inputs are applied to every match first, then the physics of all
+     * matches is stepped in one pass over the shard store, and finally each
+     * match is handed to the sink.
+     */
+    void tick() {
+        final long start = System.nanoTime();
+        final RecordingBuffer recording = this.recording;
+        GameState match;
+        while ((match = incoming.poll()) != null) {
+            store.ensureCapacity((matches.size() + 1) * PhysicsStore.kSlotsPerMatch);
+            match.bind(store, matches.size());
+            matches.add(match);
+            metrics.matchesPending.decrementAndGet();
+            if (recording != null) recording.start(match);
+        }
+
+        for (int i = 0; i < matches.size(); ) {
+            match = matches.get(i);
+            if (match.isOver()) {
+                if (recording != null) recording.end(match);
+                match.release();
+                finished.add(match);
+                // Swap-remove to keep removal O(1); order does not matter.
+                final int last = matches.size() - 1;
+                if (i != last) {
+                    final GameState moved = matches.get(last);
+                    moved.bind(store, i);
+                    matches.set(i, moved);
+                }
+                matches.remove(last);
+                load.decrementAndGet();
+                continue;
+            }
+            match.applyInputs(recording);
+            i++;
+        }
+
+        final int count = matches.size();
+        if (stepsLeft.length < count) stepsLeft = new int[Math.max(count, stepsLeft.length * 2)];
+        store.step(count, stepsPerTick, stepsLeft);
+
+        for (int i = 0; i < count; i++) {
+            match = matches.get(i);
+            final int left = stepsLeft[i];
+            final int winner = left == -1 ? -1 : match.getBall().finishPoint(left);
+            match.finishTick(winner);
+            sink.onTick(match, winner);
+        }
+        if (recording != null) recording.flush();
+        metrics.updateNanos.record(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,25 @@
+package com.marcusposey;
+
+/** Counts the ticks of simulated matches and lets bots move their paddles */
+public class SimulationSink implements MatchSink {
+    private final SimulationStats stats;
+    // The bot for each side, or null for a paddle that never moves
+    private final PaddleController[] controllers;
+
+    /** Creates a sink that counts into stats and drives paddles with bots */
+    public SimulationSink(final SimulationStats stats, final PaddleController first,
+                          final PaddleController second) {
+        this.stats = stats;
+        controllers = new PaddleController[]{first, second};
+    }
+
+    @Override
+    public void onTick(final GameState match, final int winner) {
+        stats.recordTick(winner);
+        for (int i = 0; i < controllers.length; i++) {
+            if (controllers[i] == null) continue;
+            final Directive directive = controllers[i].decide(match, i);
+            if (directive != null) match.queueInput(match.getPlayers()[i], directive);
+        }
+    }
+}
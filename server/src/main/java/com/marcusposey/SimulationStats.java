@@ -0,0 +1,85 @@
+package com.marcusposey;
+
+/**
+ * Totals from a headless simulation
+ *
+ * Each simulation thread counts into its own instance, and the instances
+ * are merged once the threads finish.
+ */
+public class SimulationStats {
+    private long matches = 0;
+    private long ticks = 0;
+    private final long[] points = new long[2];
+    private final long[] wins = new long[2];
+    private long draws = 0;
+    // Points scored in each match
+    private final Histogram pointsPerMatch;
+
+    /** Creates empty totals that record points per match into a histogram */
+    public SimulationStats(final Histogram pointsPerMatch) {
+        this.pointsPerMatch = pointsPerMatch;
+    }
+
+    /** Counts one tick of a match */
+    void recordTick(final int winner) {
+        ticks++;
+        if (winner != -1) points[winner]++;
+    }
+
+    /** Counts a finished match */
+    void recordMatch(final GameState match) {
+        final int[] scores = match.getScores();
+        matches++;
+        pointsPerMatch.record(scores[0] + scores[1]);
+        if (scores[0] > scores[1]) wins[0]++;
+        else if (scores[1] > scores[0]) wins[1]++;
+        else draws++;
+    }
+
+    /** Adds the totals of other to these */
+    void merge(final SimulationStats other) {
+        matches += other.matches;
+        ticks += other.ticks;
+        for (int i = 0; i < 2; i++) {
+            points[i] += other.points[i];
+            wins[i] += other.wins[i];
+        }
+        draws += other.draws;
+    }
+
+    /** Returns the number of matches simulated */
+    public long getMatches() {
+        return matches;
+    }
+
+    /** Returns the number of match ticks simulated */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /** Returns the points scored by the first or second player in all matches */
+    public long getPoints(final int playerIndex) {
+        return points[playerIndex];
+    }
+
+    /** Returns the matches won by the first or second player */
+    public long getWins(final int playerIndex) {
+        return wins[playerIndex];
+    }
+
+    /** Returns the matches that ended in a tie */
+    public long getDraws() {
+        return draws;
+    }
+
+    /** Returns the distribution of points scored per match */
+    public Histogram getPointsPerMatch() {
+        return pointsPerMatch;
+    }
+
+    /** Returns the mean number of ticks between points */
+    public double getMeanRallyTicks() {
+        final long total = points[0] + points[1];
+        return total == 0 ? ticks : (double) ticks / total;
+    }
+}
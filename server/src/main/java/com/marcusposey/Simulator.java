@@ -0,0 +1,151 @@
+package com.marcusposey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Plays many seeded matches headless and as fast as possible
+ *
+ * Each thread owns a Shard whose sink counts statistics and drives bot
+ * paddles instead of sending messages, and ticks it back to back instead of
+ * waiting on a clock. Matches go through exactly the code a live shard
+ * runs, so simulations can check physics changes against millions of
+ * matches. Match m is seeded from the simulation seed and m, so a run
+ * gives the same totals for any number of threads.
+ */
+public class Simulator {
+    // The most matches a thread plays at once
+    static final int kMatchesPerBatch = 1024;
+
+    private final int threads;
+    private final PaddleController first;
+    private final PaddleController second;
+
+    /**
+     * Creates a simulator
+     * @param threads the number of threads that play matches
+     * @param first moves the first player's paddle, or null to leave it
+     * @param second moves the second player's paddle, or null to leave it
+     */
+    public Simulator(final int threads, final PaddleController first,
+                     final PaddleController second) {
+        this.threads = Math.max(threads, 1);
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * Plays matchCount matches of ticksPerMatch ticks each
+     * @param seed decides where the balls respawn in every match
+     * @throws IllegalStateException if a simulation thread failed
+     */
+    public SimulationStats run(final long matchCount, final int ticksPerMatch,
+                               final long seed) throws InterruptedException {
+        final Histogram pointsPerMatch = new Histogram();
+        final List<SimulationStats> results = new ArrayList<>();
+        final List<Thread> workers = new ArrayList<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int w = 0; w < threads; w++) {
+            final SimulationStats stats = new SimulationStats(pointsPerMatch);
+            final int index = w;
+            final Thread worker = new Thread(
+                    () -> play(index, matchCount, ticksPerMatch, seed, stats),
+                    "simulator-" + w);
+            worker.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            results.add(stats);
+            workers.add(worker);
+            worker.start();
+        }
+
+        final SimulationStats total = new SimulationStats(pointsPerMatch);
+        for (int w = 0; w < threads; w++) {
+            workers.get(w).join();
+            total.merge(results.get(w));
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("A simulation thread failed", failure.get());
+        }
+        return total;
+    }
+
+    /** Plays every threads-th match, starting with match index */
+    private void play(final int index, final long matchCount, final int ticksPerMatch,
+                      final long seed, final SimulationStats stats) {
+        final Queue<GameState> finished = new ConcurrentLinkedQueue<>();
+        final Shard shard = new Shard(index, World.kDefaultTickRate, 1, new Metrics(),
+                                      finished, new VirtualClock(),
+                                      new SimulationSink(stats, first, second));
+        final List<GameState> batch = new ArrayList<>(kMatchesPerBatch);
+
+        long next = index;
+        while (next < matchCount) {
+            for (; next < matchCount && batch.size() < kMatchesPerBatch; next += threads) {
+                final GameState match = new GameState(
+                        (int) next, new Player(null, 1), new Player(null, 2),
+                        GameState.kDefaultKeyframeInterval, seedOf(seed, next));
+                batch.add(match);
+                shard.add(match);
+            }
+
+            for (int tick = 0; tick < ticksPerMatch; tick++) shard.tick();
+            // One more tick releases the ended matches without stepping them.
+            for (final GameState match : batch) match.end();
+            shard.tick();
+
+            for (final GameState match : batch) stats.recordMatch(match);
+            batch.clear();
+            finished.clear();
+        }
+    }
+
+    /** Returns the seed of a match in a simulation */
+    static long seedOf(final long seed, final long match) {
+        // Spread consecutive matches across the seed space.
+        return seed ^ (match * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Runs a simulation of two tracking bots and prints the totals
+     * Usage: Simulator [--matches n] [--ticks n] [--threads n] [--seed n]
+     */
+    public static void main(String[] args) throws Exception {
+        long matches = 100_000;
+        int ticks = 6000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--matches": matches = Long.parseLong(value); break;
+                case "--ticks": ticks = Integer.parseInt(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        final Simulator simulator = new Simulator(threads, new TrackingController(10),
+                                                  new TrackingController(10));
+        final long start = System.nanoTime();
+        final SimulationStats stats = simulator.run(matches, ticks, seed);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d matches, %d ticks in %.1f s (%.0f ticks/s)%n",
+                          stats.getMatches(), stats.getTicks(), seconds,
+                          stats.getTicks() / seconds);
+        System.out.printf("points %d / %d, wins %d / %d, draws %d%n",
+                          stats.getPoints(0), stats.getPoints(1),
+                          stats.getWins(0), stats.getWins(1), stats.getDraws());
+        System.out.printf("points per match p50 %d p99 %d max %d, %.1f ticks per point%n",
+                          stats.getPointsPerMatch().getPercentile(50),
+                          stats.getPointsPerMatch().getPercentile(99),
+                          stats.getPointsPerMatch().getMax(),
+                          stats.getMeanRallyTicks());
+    }
+}
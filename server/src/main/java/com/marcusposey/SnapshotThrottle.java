@@ -0,0 +1,85 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Decides which ticks' game states are sent to one player
+ *
+ * A player is sent a state at most once per snapshot interval of their
+ * match, and less often if they asked for fewer states or their connection
+ * is backing up. The interval backs off by doubling while frames queue up
+ * in the socket and recovers one tick at a time once the queue drains.
+ *
+ * The throttle also remembers which state message the player saw last. Delta
+ * messages only make sense to a player who saw every message before them, so
+ * a player who skipped one is sent a full state instead.
+ *
+ * Only the thread that owns the player's match may call shouldSend() and the
+ * sequence methods.
+ */
+public class SnapshotThrottle {
+    // The most ticks between states, however far behind the player is
+    public static final int kMaxInterval = 32;
+    // Frames waiting in the socket before the player is considered behind
+    static final int kMaxBacklog = 2;
+
+    // The fewest ticks between states that the client asked for
+    private volatile int clientInterval = 1;
+    // The interval after backing off for a slow connection
+    private int adaptiveInterval = 1;
+    // The match tick of the last state sent to the player
+    private long lastSentTick = Long.MIN_VALUE / 2;
+    // The sequence number of the last state message the player was sent
+    private long lastSequence = -1;
+
+    /**
+     * Sets the fewest ticks that should pass between states, as requested by
+     * the client; safe to call from any thread
+     */
+    public void setClientInterval(final int ticks) {
+        clientInterval = Math.max(1, Math.min(ticks, kMaxInterval));
+    }
+
+    /** Returns the number of ticks the player currently waits between states */
+    public int getInterval() {
+        return Math.max(clientInterval, adaptiveInterval);
+    }
+
+    /**
+     * Returns true if the player should be sent the state of a tick
+     * @param tick the match tick
+     * @param snapshotInterval the match's own number of ticks between states
+     */
+    boolean shouldSend(final long tick, final int snapshotInterval, final WebSocket socket) {
+        if (tick - lastSentTick < Math.max(snapshotInterval, getInterval())) {
+            return false;
+        }
+
+        final int backlog = Sockets.backlog(socket);
+        if (backlog > kMaxBacklog) {
+            // Wait for the queue to drain, then send only the newest state.
+            adaptiveInterval = Math.min(adaptiveInterval * 2, kMaxInterval);
+            lastSentTick = tick;
+            return false;
+        }
+        if (backlog == 0 && adaptiveInterval > 1) adaptiveInterval--;
+        lastSentTick = tick;
+        return true;
+    }
+
+    /** Forgets the states sent so far, e.g. because a new match started */
+    void reset() {
+        lastSentTick = Long.MIN_VALUE / 2;
+        lastSequence = -1;
+    }
+
+    /** Returns true if the player saw the state message with the sequence number */
+    boolean hasSeen(final long sequence) {
+        return lastSequence == sequence;
+    }
+
+    /** Records that the player was sent the state message with the sequence number */
+    void markSeen(final long sequence) {
+        lastSequence = sequence;
+    }
+}
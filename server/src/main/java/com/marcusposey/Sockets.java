@@ -0,0 +1,24 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+
+/** Helpers for inspecting WebSocket connections */
+public final class Sockets {
+    private Sockets() {}
+
+    /**
+     * Returns the number of frames waiting to be written to the socket
+     *
+     * A growing backlog means the client cannot keep up with what is sent.
+     */
+    public static int backlog(final WebSocket socket) {
+        if (socket instanceof NioConnection) {
+            return ((NioConnection) socket).backlog();
+        }
+        if (socket instanceof WebSocketImpl) {
+            return ((WebSocketImpl) socket).outQueue.size();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * A connection that watches a match without playing in it
+ *
+ * Spectators receive full game states rather than deltas, so they can join
+ * at any time and may receive them at a lower rate than players.
+ */
+public class Spectator {
+    private final WebSocket webSocket;
+
+    // The spectator receives a state every rateDivisor ticks
+    private volatile int rateDivisor = 1;
+    // The match being watched, or null
+    private volatile GameState match;
+    // Limits the messages the spectator sends; only used by their I/O thread
+    private final InputLimiter limiter = new InputLimiter(System.nanoTime());
+
+    /** Creates a spectator bound to an open WebSocket */
+    public Spectator(WebSocket webSocket) {
+        this.webSocket = webSocket;
+    }
+
+    /** Returns the connection to the spectator */
+    public WebSocket getSocket() {
+        return webSocket;
+    }
+
+    /** Returns how many ticks pass between states sent to the spectator */
+    public int getRateDivisor() {
+        return rateDivisor;
+    }
+
+    /** Sets how many ticks pass between states sent to the spectator */
+    public void setRateDivisor(final int rateDivisor) {
+        this.rateDivisor = Math.max(rateDivisor, 1);
+    }
+
+    /** Returns the limiter for messages from the spectator */
+    public InputLimiter getLimiter() {
+        return limiter;
+    }
+
+    /** Returns the match being watched, or null */
+    public GameState getMatch() {
+        return match;
+    }
+
+    /** Sets the match being watched */
+    public void setMatch(final GameState match) {
+        this.match = match;
+    }
+}
@@ -0,0 +1,104 @@
+package com.marcusposey;
+
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The spectators of a single match
+ *
+ * Spectators join and leave from socket threads, while the match's shard
+ * reads the group every tick. Membership changes copy the member array, so
+ * the shard can iterate it without locking. Joining is rare compared to
+ * ticking, which makes the copy cheap overall.
+ */
+public class SpectatorGroup {
+    // Spectators with more unsent frames than this are disconnected
+    public static final int kMaxBacklog = 64;
+
+    private volatile Spectator[] members = new Spectator[0];
+
+    /** Adds a spectator to the group */
+    public synchronized void add(final Spectator spectator) {
+        Spectator[] grown = Arrays.copyOf(members, members.length + 1);
+        grown[members.length] = spectator;
+        members = grown;
+    }
+
+    /** Removes a spectator from the group if it is a member */
+    public synchronized void remove(final Spectator spectator) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == spectator) {
+                Spectator[] shrunk = new Spectator[members.length - 1];
+                System.arraycopy(members, 0, shrunk, 0, i);
+                System.arraycopy(members, i + 1, shrunk, i, shrunk.length - i);
+                members = shrunk;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Detaches every spectator because the match ended, and tells each of
+     * them with a MATCH_ENDED message
+     */
+    public synchronized void endMatch(final int matchId) {
+        final byte[] message = ArrayBufferProtocol.encodeMatchEnded(matchId);
+        for (final Spectator spectator : members) {
+            spectator.setMatch(null);
+            try {
+                spectator.getSocket().send(message);
+            } catch (WebsocketNotConnectedException e) {
+                // The spectator is gone anyway.
+            }
+        }
+        members = new Spectator[0];
+    }
+
+    /** Returns the number of spectators in the group */
+    public int size() {
+        return members.length;
+    }
+
+    /**
+     * Sends the match's latest tick to its spectators
+     *
+     * A full game state is encoded into broadcast at most once, and only if
+     * a spectator is due for one. Scores are sent to every spectator.
+     * Spectators that fall too far behind are disconnected so that they
+     * cannot slow down the match.
+     *
+     * @param tick the match tick that just finished
+     * @param broadcast holds the message that was sent to the players
+     * @param isScore true if that message was a GAME_SCORE
+     * @param isFullState true if that message was a GAME_STATE
+     */
+    public void publish(final GameState match, final long tick,
+                        final Broadcast broadcast, final boolean isScore,
+                        boolean isFullState) {
+        final Spectator[] current = members;
+        for (final Spectator spectator : current) {
+            if (!isScore && tick % spectator.getRateDivisor() != 0) continue;
+
+            if (!isScore && !isFullState) {
+                final ByteBuffer message = broadcast.begin();
+                ArrayBufferProtocol.writeGameState(match, message);
+                broadcast.finish();
+                isFullState = true;
+            }
+
+            if (Sockets.backlog(spectator.getSocket()) > kMaxBacklog
+                || !broadcast.sendTo(spectator.getSocket())) {
+                shed(spectator);
+            }
+        }
+    }
+
+    /** Drops a spectator that cannot keep up */
+    private void shed(final Spectator spectator) {
+        remove(spectator);
+        spectator.setMatch(null);
+        spectator.getSocket().close(1008, "Spectator fell too far behind");
+    }
+}
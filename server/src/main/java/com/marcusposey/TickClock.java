@@ -0,0 +1,25 @@
+package com.marcusposey;
+
+import java.util.concurrent.locks.LockSupport;
+
+/** The source of time for a TickScheduler */
+public interface TickClock {
+    /** Returns the current time in nanoseconds from an arbitrary origin */
+    long nanoTime();
+
+    /** Waits for up to nanos nanoseconds; may return early */
+    void park(long nanos);
+
+    /** Wall-clock time, which ticks in real time */
+    TickClock kSystem = new TickClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void park(final long nanos) {
+            LockSupport.parkNanos(nanos);
+        }
+    };
+}
@@ -0,0 +1,131 @@
+package com.marcusposey;
+
+/**
+ * Runs a task at a fixed rate using fixed-timestep accumulation
+ *
+ * Each tick advances the simulation by exactly one period, regardless of how
+ * long the previous tick took. If the host falls behind, missed ticks are
+ * replayed back-to-back until the schedule is caught up. At most
+ * maxCatchUpTicks are replayed at once; anything beyond that budget is
+ * skipped so that a long stall cannot cause a spiral of catch-up work.
+ */
+public class TickScheduler {
+    private final long periodNanos;
+    private final int maxCatchUpTicks;
+    private final TickClock clock;
+
+    // The time at which the next tick is due
+    private long nextTickNanos;
+
+    // Ticks that ran, ticks that took longer than one period, and ticks that
+    // were dropped because they exceeded the catch-up budget
+    private volatile long tickCount = 0;
+    private volatile long overrunCount = 0;
+    private volatile long skippedCount = 0;
+
+    private volatile boolean isRunning = false;
+
+    /**
+     * Creates a scheduler for a fixed tick rate
+     * @param ticksPerSecond the target number of ticks in one second
+     * @param maxCatchUpTicks the most ticks that may run back-to-back when
+     *                        the scheduler is behind
+     */
+    public TickScheduler(final int ticksPerSecond, final int maxCatchUpTicks) {
+        this(ticksPerSecond, maxCatchUpTicks, TickClock.kSystem);
+    }
+
+    /**
+     * Creates a scheduler for a fixed tick rate
+     * @param ticksPerSecond the target number of ticks in one second
+     * @param maxCatchUpTicks the most ticks that may run back-to-back when
+     *                        the scheduler is behind
+     * @param clock tells the time and waits between ticks
+     */
+    public TickScheduler(final int ticksPerSecond, final int maxCatchUpTicks,
+                         final TickClock clock) {
+        if (ticksPerSecond <= 0 || maxCatchUpTicks <= 0) {
+            throw new IllegalArgumentException("rate and budget must be positive");
+        }
+        this.periodNanos = 1_000_000_000L / ticksPerSecond;
+        this.maxCatchUpTicks = maxCatchUpTicks;
+        this.clock = clock;
+    }
+
+    /**
+     * Runs tick on the calling thread until stop() is called
+     *
+     * The schedule begins immediately, so the first tick runs without delay.
+     */
+    public void run(final Runnable tick) {
+        isRunning = true;
+        nextTickNanos = clock.nanoTime();
+
+        while (isRunning) {
+            final long now = clock.nanoTime();
+            final int due = ticksDue(now);
+            if (due == 0) {
+                clock.park(nextTickNanos - now);
+                if (Thread.interrupted()) isRunning = false;
+                continue;
+            }
+
+            for (int i = 0; i < due && isRunning; i++) {
+                final long start = clock.nanoTime();
+                tick.run();
+                if (clock.nanoTime() - start > periodNanos) overrunCount++;
+                tickCount++;
+            }
+        }
+    }
+
+    /** Makes run() return after its current tick */
+    public void stop() {
+        isRunning = false;
+    }
+
+    /**
+     * Returns how many ticks should run at time now and advances the schedule
+     *
+     * Ticks beyond the catch-up budget are counted as skipped and removed
+     * from the schedule.
+     */
+    int ticksDue(final long now) {
+        final long behind = now - nextTickNanos;
+        if (behind < 0) return 0;
+
+        long due = behind / periodNanos + 1;
+        if (due > maxCatchUpTicks) {
+            skippedCount += due - maxCatchUpTicks;
+            nextTickNanos += (due - maxCatchUpTicks) * periodNanos;
+            due = maxCatchUpTicks;
+        }
+        nextTickNanos += due * periodNanos;
+        return (int) due;
+    }
+
+    /** Sets the time at which the next tick is due */
+    void setNextTickNanos(final long nanos) {
+        nextTickNanos = nanos;
+    }
+
+    /** Returns the length of one tick in nanoseconds */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /** Returns the number of ticks that have run */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /** Returns the number of ticks that took longer than one period */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /** Returns the number of ticks dropped to stay within the catch-up budget */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+}
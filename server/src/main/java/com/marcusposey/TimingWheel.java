@@ -0,0 +1,54 @@
+package com.marcusposey;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Schedules items to come due after a number of ticks
+ *
+ * The wheel is a ring of buckets, one per tick. Scheduling puts an item in
+ * the bucket that many ticks ahead of the cursor, and each advance() hands
+ * the items in the next bucket to a callback. Both operations are O(1) per
+ * item, so the cost of a tick depends on how many items come due rather
+ * than on how many are scheduled. Delays longer than the wheel are shortened
+ * to fit, which makes the item come due early.
+ *
+ * A wheel is not thread-safe; it is meant to be owned by a game loop.
+ */
+public class TimingWheel<T> {
+    private final ArrayDeque<T>[] buckets;
+    private int cursor = 0;
+    private int size = 0;
+
+    /** Creates a wheel that can schedule items up to ticks - 1 ticks ahead */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(final int ticks) {
+        buckets = new ArrayDeque[ticks];
+        for (int i = 0; i < ticks; i++) buckets[i] = new ArrayDeque<>();
+    }
+
+    /** Schedules item to come due after delayTicks calls to advance() */
+    public void schedule(final T item, final int delayTicks) {
+        final int delay = Math.max(1, Math.min(delayTicks, buckets.length - 1));
+        buckets[(cursor + delay) % buckets.length].add(item);
+        size++;
+    }
+
+    /**
+     * Moves the wheel one tick forward and passes every item that came due
+     * to expired; expired may schedule items again
+     */
+    public void advance(final Consumer<T> expired) {
+        cursor = (cursor + 1) % buckets.length;
+        final ArrayDeque<T> bucket = buckets[cursor];
+        for (int n = bucket.size(); n > 0; n--) {
+            size--;
+            expired.accept(bucket.poll());
+        }
+    }
+
+    /** Returns the number of scheduled items */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,34 @@
+package com.marcusposey;
+
+/** A bot that keeps the center of its paddle level with the ball */
+public class TrackingController implements PaddleController {
+    // How far the ball may be from the paddle's center before it moves
+    private final int deadZone;
+
+    /**
+     * Creates a bot
+     * @param deadZone how far the ball may be from the paddle's center,
+     *                 in pixels, before the paddle moves
+     */
+    public TrackingController(final int deadZone) {
+        this.deadZone = deadZone;
+    }
+
+    @Override
+    public Directive decide(final GameState match, final int playerIndex) {
+        final Player player = match.getPlayers()[playerIndex];
+        final Ball ball = match.getBall();
+        final int target = ball.getY() + ball.getHeight() / 2;
+        final int center = player.getY() + player.getHeight() / 2;
+        final int velocity = player.getStore().yVelocity[player.getSlot()];
+
+        // Only send a directive when the movement changes.
+        if (target < center - deadZone) {
+            return velocity < 0 ? null : Directive.MOVE_PLAYER_UP;
+        }
+        if (target > center + deadZone) {
+            return velocity > 0 ? null : Directive.MOVE_PLAYER_DOWN;
+        }
+        return velocity == 0 ? null : Directive.STOP_MOVING_PLAYER;
+    }
+}
@@ -0,0 +1,21 @@
+package com.marcusposey;
+
+import java.io.IOException;
+
+/**
+ * Accepts WebSocket connections and carries their messages
+ *
+ * A transport reports connection events to a TransportListener. Connections
+ * are WebSockets whichever implementation carries them, so the rest of the
+ * server does not depend on the transport.
+ */
+public interface Transport {
+    /** Starts accepting connections */
+    void start() throws IOException;
+
+    /**
+     * Closes every connection and stops accepting new ones
+     * @param timeoutMillis how long connections may take to close cleanly
+     */
+    void stop(int timeoutMillis) throws InterruptedException;
+}
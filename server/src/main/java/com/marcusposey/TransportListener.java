@@ -0,0 +1,37 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives connection events from a Transport
+ *
+ * Events for one connection arrive on one thread at a time, but events for
+ * different connections may arrive on different threads at once.
+ */
+public interface TransportListener {
+    /** Called once the transport is accepting connections */
+    void onStart();
+
+    /**
+     * Called when a connection completes its handshake
+     * @param resource the path and query the client requested, e.g. "/watch"
+     */
+    void onOpen(WebSocket socket, String resource);
+
+    /**
+     * Called for each binary message
+     * The message is only valid during the call and must not be kept.
+     */
+    void onMessage(WebSocket socket, ByteBuffer message);
+
+    /** Called when the client answers a ping */
+    void onPong(WebSocket socket);
+
+    /** Called once when an open connection closes */
+    void onClose(WebSocket socket);
+
+    /** Called when a connection fails; socket is null if none was involved */
+    void onError(WebSocket socket, Exception e);
+}
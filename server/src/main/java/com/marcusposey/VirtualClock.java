@@ -0,0 +1,26 @@
+package com.marcusposey;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when someone waits on it
+ *
+ * Waiting returns at once and moves the clock forward to the end of the
+ * wait, so a scheduler on this clock runs ticks back to back as fast as
+ * the CPU allows while still seeing a steady tick rate. Several schedulers
+ * may share a clock; it moves to the latest time any of them waited for.
+ */
+public class VirtualClock implements TickClock {
+    private final AtomicLong now = new AtomicLong();
+
+    @Override
+    public long nanoTime() {
+        return now.get();
+    }
+
+    @Override
+    public void park(final long nanos) {
+        final long target = now.get() + Math.max(nanos, 0);
+        now.accumulateAndGet(target, Math::max);
+    }
+}
@@ -3,107 +3,508 @@ package com.marcusposey;
 import org.java_websocket.WebSocket;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * World holds the state of a collection of players and their matches.
  *
  * A World exists within a game loop that can be started with beginLoop() and
  * permanently ended with nuke().
+ *
+ * Once nuked, snapshot() saves the live matches and the lobby, and a new
+ * world that restore()s the snapshot lets those players resume their
+ * places by reconnecting with their resume tokens.
  */
 public class World {
-    // A map of all player's id to their object
-    private ConcurrentHashMap<Integer, Player> players = new ConcurrentHashMap<>();
+    // All connected players, by id
+    private final PlayerRegistry players;
 
     // All players who are not in a match
-    private Queue<Player> lobby = new LinkedList<>();
-    // Lock for the lobby queue
-    private ReentrantLock lobbyGuard = new ReentrantLock();
+    private final Matchmaker lobby = new Matchmaker();
+    private final Predicate<Player> canJoinMatch = this::canJoinMatch;
+
+    // A mapping from a match's id to the match, for spectators
+    private ConcurrentHashMap<Integer, GameState> matchesById =
+            new ConcurrentHashMap<>();
+    // The id of the next match to be created
+    private int nextMatchId = 1;
+
+    // The shards that update matches; each match lives in exactly one
+    private final Shard[] shards;
+    // Ended matches whose players have been released by their shard
+    private final Queue<GameState> finishedMatches = new ConcurrentLinkedQueue<>();
+
+    // Players whose connection closed, waiting to be removed by the world loop
+    private final Queue<Player> disconnects = new ConcurrentLinkedQueue<>();
+    // Places held before a restart that no player has resumed yet, by token
+    private final ConcurrentHashMap<Long, ResumeSeat> seats = new ConcurrentHashMap<>();
+    // Seats resumed since the last tick
+    private final Queue<ResumeSeat> resumes = new ConcurrentLinkedQueue<>();
+    // The time after which unresumed seats are given up, or 0 if none are held
+    private long resumeDeadlineNanos = 0;
+
+    // Players who joined since the last tick and need a heartbeat
+    private final Queue<Player> joins = new ConcurrentLinkedQueue<>();
+    // Checks each player for inactivity when their heartbeat comes due
+    private final TimingWheel<Player> heartbeats;
+    private final Consumer<Player> checkHeartbeat = this::checkHeartbeat;
+    // The time at which the current tick started
+    private long tickStartNanos;
+    private final long tickPeriodNanos;
+
+    // Idle players are pinged after kDefaultHeartbeatMillis and disconnected
+    // after kDefaultIdleTimeoutMillis.
+    public static final int kDefaultHeartbeatMillis = 5000;
+    public static final int kDefaultIdleTimeoutMillis = 15000;
+    private volatile long heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(kDefaultHeartbeatMillis);
+    private volatile long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(kDefaultIdleTimeoutMillis);
 
-    // A mapping from a player's id to their active match
-    private Map<Integer, GameState> matches = new HashMap<>();
+    // The default number of game loop iterations per second
+    public static final int kDefaultTickRate = 80;
+    // The most ticks that may run back-to-back to catch up after a stall
+    private static final int kMaxCatchUpTicks = 5;
+    // How long players have to resume their places after a restart
+    public static final int kDefaultResumeGraceMillis = 30000;
+    // How long nuke() waits for the game loop and shards to stop
+    private static final long kStopTimeoutMillis = 1000;
+
+    // Drives the game loop at a fixed rate
+    private final TickScheduler scheduler;
+    private final Metrics metrics;
+
+    // The number of ticks between full game state messages in new matches
+    private volatile int keyframeInterval = GameState.kDefaultKeyframeInterval;
+    // The number of ticks between game states sent to players in new matches
+    private volatile int snapshotInterval = 1;
+    private final int ticksPerSecond;
 
     // True if the game loop is running
     private boolean isActive = false;
+    // Runs the game loop, or null if it was never started
+    private Thread loopThread;
+
+    /** Creates a world that ticks at the default rate with a shard per core */
+    public World() {
+        this(kDefaultTickRate, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a world whose game loop runs ticksPerSecond times a second
+     * @param shardCount the number of threads that update matches
+     */
+    public World(final int ticksPerSecond, final int shardCount) {
+        this(ticksPerSecond, shardCount, new Metrics());
+    }
+
+    /**
+     * Creates a world whose game loop runs ticksPerSecond times a second
+     * @param shardCount the number of threads that update matches
+     * @param metrics records what happens in the world
+     */
+    public World(final int ticksPerSecond, final int shardCount, Metrics metrics) {
+        this(ticksPerSecond, shardCount, metrics, TickClock.kSystem);
+    }
+
+    /**
+     * Creates a world whose game loop runs ticksPerSecond times a second
+     * @param shardCount the number of threads that update matches
+     * @param metrics records what happens in the world
+     * @param clock paces the game loop and shards; a VirtualClock runs them
+     *              as fast as possible
+     */
+    public World(final int ticksPerSecond, final int shardCount, Metrics metrics,
+                 final TickClock clock) {
+        this.metrics = metrics;
+        this.ticksPerSecond = ticksPerSecond;
+        players = new PlayerRegistry(metrics);
+        scheduler = new TickScheduler(ticksPerSecond, kMaxCatchUpTicks, clock);
+        metrics.setScheduler(scheduler);
+        tickPeriodNanos = scheduler.getPeriodNanos();
+        // The wheel covers one heartbeat interval with room to spare.
+        heartbeats = new TimingWheel<>(ticksPerSecond * kDefaultHeartbeatMillis / 1000 + 2);
+        shards = new Shard[Math.max(shardCount, 1)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, ticksPerSecond, kMaxCatchUpTicks, metrics,
+                                  finishedMatches, clock, new NetworkSink(metrics));
+        }
+    }
 
     /** Starts the game loop in another thread */
     public synchronized void beginLoop() {
-        if (!isActive) isActive = true;
-
-        new Thread(() -> {
-            while (isActive) {
-                removeDisconnectedPlayers();
-                createMatches();
-                matches.values().parallelStream().forEach(GameState::update);
+        if (isActive) return;
+        isActive = true;
 
-                try { Thread.sleep(12); }
-                catch (InterruptedException e) {Thread.currentThread().interrupt();}
-            }
-        }).start();
+        for (Shard shard : shards) shard.start();
+        loopThread = new Thread(() -> scheduler.run(this::tick), "world-loop");
+        loopThread.start();
     }
 
-    /** Performs a permanent, graceful teardown of the world state */
+    /**
+     * Performs a permanent, graceful teardown of the world state
+     *
+     * The game loop and shards are stopped before every player's connection
+     * is closed with code 1012, which tells clients to resume after the
+     * restart, so the matches and lobby stay as they were for snapshot().
+     */
     public void nuke() {
-        if (!isActive) return;
-        // todo: broadcast message
-        // todo: close active connections
-        isActive = false;
-    }
-
-    /** Creates and adds a player to the world, returning their unique id */
-    public synchronized int addPlayer(WebSocket webSocket) {
-        Player player = null;
-        while (player == null) {
-            // todo: Find a better way to get unique Id's.
-            player = new Player(webSocket);
-            if (players.containsKey(player.getId())) {
-                player = null;
+        synchronized (this) {
+            if (!isActive) return;
+            isActive = false;
+        }
+        scheduler.stop();
+        for (Shard shard : shards) shard.stop();
+        try {
+            if (loopThread != null) loopThread.join(kStopTimeoutMillis);
+            for (Shard shard : shards) shard.join(kStopTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        players.forEach(player -> player.getSocket().close(1012, "Server is restarting"));
+    }
+
+    /**
+     * Saves the live matches and the lobby, by the players' resume tokens
+     *
+     * Call this after nuke(), when nothing changes the world anymore.
+     * Matches that were restored but not resumed yet are not saved.
+     */
+    public WorldSnapshot snapshot() {
+        final List<MatchSnapshot> matches = new ArrayList<>();
+        for (GameState match : matchesById.values()) {
+            if (!match.isOver()) matches.add(MatchSnapshot.capture(match));
+        }
+
+        final List<Player> waiting = new ArrayList<>();
+        for (Player player : lobby.getWaiting()) {
+            if (player.getMatch() == null && players.contains(player)) waiting.add(player);
+        }
+        final long now = System.nanoTime();
+        final long[] tokens = new long[waiting.size()];
+        final long[] waitNanos = new long[waiting.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = waiting.get(i).getResumeToken();
+            waitNanos[i] = now - waiting.get(i).getLobbyEntryNanos();
+        }
+        return new WorldSnapshot(nextMatchId, matches, tokens, waitNanos);
+    }
+
+    /**
+     * Holds the places saved in a snapshot for the players who resume them
+     * within kDefaultResumeGraceMillis; call before beginLoop()
+     */
+    public void restore(final WorldSnapshot snapshot) {
+        restore(snapshot, kDefaultResumeGraceMillis);
+    }
+
+    /**
+     * Holds the places saved in a snapshot for the players who resume them
+     * @param graceMillis how long the places are held
+     */
+    void restore(final WorldSnapshot snapshot, final int graceMillis) {
+        nextMatchId = Math.max(nextMatchId, snapshot.getNextMatchId());
+        for (MatchSnapshot match : snapshot.getMatches()) {
+            final Player[] arrivals = new Player[2];
+            final long[] tokens = match.getTokens();
+            for (int i = 0; i < tokens.length; i++) {
+                seats.put(tokens[i], new ResumeSeat(match, i, arrivals));
             }
         }
-        players.put(player.getId(), player);
+        final long[] lobbyTokens = snapshot.getLobbyTokens();
+        for (int i = 0; i < lobbyTokens.length; i++) {
+            seats.put(lobbyTokens[i], new ResumeSeat(snapshot.getLobbyWaitNanos()[i]));
+        }
+        if (!seats.isEmpty()) {
+            resumeDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMillis);
+        }
+    }
 
-        lobbyGuard.lock();
-        lobby.add(player);
-        lobbyGuard.unlock();
+    /** Returns the scheduler that drives the game loop */
+    public TickScheduler getScheduler() {
+        return scheduler;
+    }
 
-        return player.getId();
+    /** Sets the number of ticks between full game state messages */
+    public void setKeyframeInterval(final int ticks) {
+        keyframeInterval = ticks;
     }
 
     /**
-     * Sends a movement signal to the player to go in a specific direction
-     * The player will continue moving until stopMovingPlayer(int) is called.
+     * Sets how many game states per second new matches send to players
+     *
+     * Physics still runs at the tick rate. The rate is rounded to a whole
+     * number of ticks between states, and is at most the tick rate.
      */
-    public void movePlayer(final int playerId, final Player.Direction direction) {
+    public void setSnapshotRate(final int snapshotsPerSecond) {
+        snapshotInterval = Math.max(1, Math.round((float) ticksPerSecond
+                                                  / Math.max(snapshotsPerSecond, 1)));
+    }
+
+    /**
+     * Limits the game states sent to a player to the frame rate their client
+     * reported; safe to call from any thread
+     * @param framesPerSecond 0 if the client is not drawing at all
+     */
+    public void setClientFrameRate(final int playerId, final int framesPerSecond) {
         final Player player = players.get(playerId);
         if (player == null) return;
-        player.move(direction);
+        if (framesPerSecond <= 0) {
+            player.getThrottle().setClientInterval(SnapshotThrottle.kMaxInterval);
+        } else {
+            // Round up so the client is never sent more than it draws.
+            player.getThrottle().setClientInterval(
+                    (ticksPerSecond + framesPerSecond - 1) / framesPerSecond);
+        }
+    }
+
+    /**
+     * Sets how long a player may be silent before they are pinged, and how
+     * long before they are disconnected
+     *
+     * Pongs count as activity, so only connections that stop responding
+     * are disconnected. Intervals longer than the default are checked more
+     * often than needed, which is harmless.
+     */
+    public void setHeartbeat(final int heartbeatMillis, final int idleTimeoutMillis) {
+        heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    }
+
+    /** Changes how players in the lobby are paired, starting next tick */
+    public void setPairingPolicy(final PairingPolicy policy) {
+        lobby.setPolicy(policy);
     }
 
-    /** Makes the player stop moving */
-    public void stopMovingPlayer(final int playerId) {
+    /**
+     * Records every match that starts from now on
+     *
+     * A match restored after a restart is recorded along with the state it
+     * resumed from, so its recording replays from that state rather than
+     * from the start of the match.
+     *
+     * @param recorder writes the recordings, or null to stop recording
+     */
+    public void setRecorder(final MatchRecorder recorder) {
+        for (Shard shard : shards) {
+            shard.setRecording(recorder == null ? null : recorder.newBuffer());
+        }
+    }
+
+    /** Returns the metrics that describe the world */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /** Returns the shards that update matches */
+    public Shard[] getShards() {
+        return shards;
+    }
+
+    /**
+     * Advances the world by one fixed step
+     *
+     * Match updates happen on the shard threads; the world loop only handles
+     * connections and matchmaking.
+     */
+    void tick() {
+        final long start = System.nanoTime();
+        tickStartNanos = start;
+        removeDisconnectedPlayers();
+        returnOpponentsToLobby();
+        resumePlayers();
+        scheduleHeartbeats();
+        final long pruned = System.nanoTime();
+        createMatches();
+        final long end = System.nanoTime();
+
+        metrics.pruneNanos.record(pruned - start);
+        metrics.matchmakingNanos.record(end - pruned);
+        metrics.tickNanos.record(end - start);
+    }
+
+    /** Returns the shard with the fewest matches */
+    private Shard leastLoadedShard() {
+        Shard best = shards[0];
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].getLoad() < best.getLoad()) best = shards[i];
+        }
+        return best;
+    }
+
+    /**
+     * Creates and adds a player to the world, returning their unique id
+     *
+     * The player is attached to the socket, which is how later messages from
+     * the socket are authenticated.
+     *
+     * @throws IllegalStateException if the world cannot hold more players
+     */
+    public int addPlayer(WebSocket webSocket) {
+        return addPlayer(webSocket, 0).getId();
+    }
+
+    /**
+     * Creates and adds a player to the world
+     *
+     * A player who presents the resume token of a place held since a
+     * restart takes that place on the next tick; everyone else enters the
+     * lobby.
+     *
+     * @param resumeToken the token the client was given before the restart,
+     *                    or 0
+     * @throws IllegalStateException if the world cannot hold more players
+     */
+    public Player addPlayer(WebSocket webSocket, final long resumeToken) {
+        return addPlayer(webSocket, resumeToken, ArrayBufferProtocol.kVersion1);
+    }
+
+    /**
+     * Creates and adds a player to the world
+     *
+     * @param resumeToken the token the client was given before the restart,
+     *                    or 0
+     * @param protocolVersion the ArrayBufferProtocol version the player's
+     *                        client speaks
+     * @throws IllegalStateException if the world cannot hold more players
+     */
+    public Player addPlayer(WebSocket webSocket, final long resumeToken,
+                            final int protocolVersion) {
+        final Player player = players.add(webSocket);
+        player.setProtocolVersion(protocolVersion);
+        webSocket.setAttachment(player);
+        joins.add(player);
+
+        final ResumeSeat seat = resumeToken == 0 ? null : seats.remove(resumeToken);
+        if (seat == null) {
+            lobby.enqueue(player);
+        } else {
+            seat.claim(player);
+            resumes.add(seat);
+        }
+        return player;
+    }
+
+    /**
+     * Sends a movement signal to the player to go in a specific direction
+     * The player will continue moving until stopMovingPlayer() is called.
+     *
+     * The signal is applied by the player's match on its next tick. Players
+     * who are not in a match cannot move, so their signals are ignored.
+     *
+     * @param sequence the client's number for the input, which game states
+     *                 echo once it is applied, or 0
+     * @return true if the signal was queued on the player's match
+     */
+    public boolean movePlayer(final int playerId, final Player.Direction direction,
+                              final int sequence) {
+        return queueInput(playerId, direction == Player.Direction.UP
+                                    ? Directive.MOVE_PLAYER_UP
+                                    : Directive.MOVE_PLAYER_DOWN, sequence);
+    }
+
+    /**
+     * Makes the player stop moving on their match's next tick
+     * @return true if the signal was queued on the player's match
+     */
+    public boolean stopMovingPlayer(final int playerId, final int sequence) {
+        return queueInput(playerId, Directive.STOP_MOVING_PLAYER, sequence);
+    }
+
+    /** Queues a movement directive on the player's match */
+    private boolean queueInput(final int playerId, final Directive directive,
+                               final int sequence) {
         final Player player = players.get(playerId);
-        if (player == null) return;
-        player.stopMoving();
+        if (player == null) return false;
+        final GameState match = player.getMatch();
+        if (match == null) return false;
+        if (!match.queueInput(player, directive, sequence)) {
+            metrics.inputsDropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes a spectator watch a match, replacing any match it was watching
+     *
+     * The spectator receives the current score right away and game states
+     * from the next tick on. When the match ends, the spectator is detached
+     * and sent MATCH_ENDED.
+     *
+     * @param rateDivisor the spectator receives a state every rateDivisor ticks
+     * @return false if there is no live match with the id
+     */
+    public boolean addSpectator(final Spectator spectator, final int matchId,
+                                final int rateDivisor) {
+        final GameState match = matchesById.get(matchId);
+        if (match == null) return false;
+
+        removeSpectator(spectator);
+        spectator.setRateDivisor(rateDivisor);
+        spectator.setMatch(match);
+        match.getSpectators().add(spectator);
+        if (match.isOver()) {
+            // The match ended while joining, maybe after its spectators were
+            // sent away.
+            removeSpectator(spectator);
+            return false;
+        }
+
+        try {
+            spectator.getSocket().send(
+                    ArrayBufferProtocol.encodeGameScore(match.getScores()));
+        } catch (WebsocketNotConnectedException e) {
+            removeSpectator(spectator);
+        }
+        return true;
+    }
+
+    /** Stops a spectator from watching its match */
+    public void removeSpectator(final Spectator spectator) {
+        final GameState match = spectator.getMatch();
+        if (match == null) return;
+        match.getSpectators().remove(spectator);
+        spectator.setMatch(null);
+    }
+
+    /**
+     * Notes that a player's connection has closed; safe to call from any thread
+     *
+     * The player is removed on the next tick.
+     */
+    public void playerDisconnected(final Player player) {
+        disconnects.add(player);
     }
 
     /** Returns true if the WebSocket belongs to the player; false otherwise */
-    public synchronized boolean isSenderAuthentic(final WebSocket ws, int playerId) {
-        final Player player = players.get(playerId);
-        return player != null && player.getSocket() == ws;
+    public boolean isSenderAuthentic(final WebSocket ws, int playerId) {
+        final Object attachment = ws.getAttachment();
+        return attachment instanceof Player
+               && ((Player) attachment).getId() == playerId
+               && players.contains((Player) attachment);
     }
 
     /** Creates matches for players that are waiting in the lobby */
     private void createMatches() {
-        lobbyGuard.lock();
-        while (lobby.size() > 1) {
-            createMatch(lobby.poll(), lobby.poll());
+        final List<Player> pairs = lobby.pair(canJoinMatch);
+        metrics.lobbySize.set(lobby.size());
+        for (int i = 0; i + 1 < pairs.size(); i += 2) {
+            createMatch(pairs.get(i), pairs.get(i + 1));
         }
-        lobbyGuard.unlock();
+    }
+
+    /** Returns true if a player in the lobby can still be given a match */
+    private boolean canJoinMatch(final Player player) {
+        return player.getMatch() == null && players.contains(player)
+               && player.getSocket().isOpen();
     }
 
     /**
@@ -113,66 +514,211 @@ public class World {
      * connection could drop during the creation process, throwing the
      * widowed opponent back into the lobby.
      */
-    private synchronized void createMatch(Player a, Player b) {
-        GameState state = new GameState(a, b);
-        matches.put(a.getId(), state);
-        matches.put(b.getId(), state);
+    private void createMatch(Player a, Player b) {
+        startMatch(new GameState(nextMatchId++, a, b, keyframeInterval,
+                                 ThreadLocalRandom.current().nextLong()));
+    }
 
-        final byte[] stateMessage = ArrayBufferProtocol.encodeGameState(state);
-        try {
-            a.getSocket().send(stateMessage);
-            b.getSocket().send(stateMessage);
-            System.out.println("New match between " + a.getId() + " and "
-                               + b.getId());
-        } catch (WebsocketNotConnectedException e) {
+    /** Hands a new or restored match to a shard */
+    private void startMatch(final GameState state) {
+        final Player a = state.getPlayers()[0];
+        final Player b = state.getPlayers()[1];
+        state.setSnapshotInterval(snapshotInterval);
+        a.setMatch(state);
+        b.setMatch(state);
+        // Nothing left over from a previous match applies to this one.
+        a.getThrottle().reset();
+        b.getThrottle().reset();
+        a.getOutbox().discardState();
+        b.getOutbox().discardState();
+
+        final ByteBuffer stateMessage = ByteBuffer.wrap(ArrayBufferProtocol.encodeGameState(state));
+        final ByteBuffer scoreMessage = ByteBuffer.wrap(
+                ArrayBufferProtocol.encodeGameScore(state.getScores()));
+        final ByteBuffer compactMessage = ByteBuffer.wrap(
+                ArrayBufferProtocol.encodeCompactGameState(state));
+        if (offerStart(a, 0, stateMessage, scoreMessage, compactMessage)
+            && offerStart(b, 1, stateMessage, scoreMessage, compactMessage)) {
+            matchesById.put(state.getId(), state);
+            leastLoadedShard().add(state);
+
+            final long now = System.nanoTime();
+            metrics.lobbyWaitNanos.record(now - a.getLobbyEntryNanos());
+            metrics.lobbyWaitNanos.record(now - b.getLobbyEntryNanos());
+            metrics.activeMatches.incrementAndGet();
+            System.out.println("New match " + state.getId() + " between "
+                               + a.getId() + " and " + b.getId());
+        } else {
             // Bad timing, eh?
-            if (a.getSocket().isOpen()) lobby.add(a);
-            else lobby.add(b);
+            a.setMatch(null);
+            b.setMatch(null);
+            if (a.getSocket().isOpen()) lobby.enqueue(a);
+            else lobby.enqueue(b);
+        }
+    }
+
+    /**
+     * Queues the score and state a player starts a match with, in the
+     * protocol version they speak
+     * @param compactMessage a version 2 state, which also holds the score
+     */
+    private static boolean offerStart(final Player player, final int index,
+                                      final ByteBuffer stateMessage,
+                                      final ByteBuffer scoreMessage,
+                                      final ByteBuffer compactMessage) {
+        if (player.getProtocolVersion() >= ArrayBufferProtocol.kVersion2) {
+            ArrayBufferProtocol.stampCompactReceiver(compactMessage, index,
+                                                     player.getInputAck());
+            return player.getOutbox().offerState(compactMessage);
         }
+        ArrayBufferProtocol.stampReceiver(stateMessage, index, player.getInputAck());
+        return player.getOutbox().offerReliable(scoreMessage)
+               && player.getOutbox().offerState(stateMessage);
     }
 
     /**
-     * Removes references to players that have disconnected
+     * Puts players whose match ended back into the lobby and sends its
+     * spectators away
      *
-     * Opponents of disconnected players are moved to the front of the lobby
-     * queue and instantly put into a game if other players are waiting.
+     * Opponents of disconnected players are paired again later in the same
+     * tick if other players are waiting. The shard has published the
+     * match's last state, so spectators are told it ended after seeing it.
      */
-    private void removeDisconnectedPlayers() {
-        for (int playerId : players.keySet()) {
-            Player player = players.get(playerId);
-            WebSocket playerSocket = player.getSocket();
-
-            if (playerSocket.getReadyState() == WebSocket.READYSTATE.CLOSED) {
-                if (matches.containsKey(playerId)) {
-                    Player opponent = matches.get(playerId).getOther(player);
-                    matches.remove(playerId);
-                    matches.remove(opponent.getId());
-
-                    // Put the disconnected player's opponent in a new game if
-                    // someone is waiting in the lobby.
-                    lobbyGuard.lock();
-                    Player lobbyPlayer;
-                    if (!lobby.isEmpty()) {
-                        lobbyPlayer = lobby.poll();
-                        createMatch(opponent, lobbyPlayer);
-                    } else {
-                        lobby.add(opponent);
-                    }
-                    lobbyGuard.unlock();
-                } else {
-                    lobbyGuard.lock();
-                    lobby.remove(player);
-                    lobbyGuard.unlock();
+    private void returnOpponentsToLobby() {
+        GameState match;
+        while ((match = finishedMatches.poll()) != null) {
+            match.getSpectators().endMatch(match.getId());
+            for (final Player player : match.getPlayers()) {
+                if (!player.getSocket().isOpen() || !players.contains(player)) {
+                    continue;
                 }
+                player.markLobbyEntry();
+                lobby.enqueue(player);
+            }
+        }
+    }
 
-                // Todo: Signal to the opponent that they left.
-                players.remove(playerId);
-                System.out.println("Removed " + playerId);
-            } else {
-                try {
-                    playerSocket.sendPing();
-                } catch (WebsocketNotConnectedException e) {}
+    /**
+     * Puts players who resumed a place back where they were
+     *
+     * A restored match continues once both of its players are back. Places
+     * not resumed in time are given up, and anyone waiting on an opponent
+     * who did not come back enters the lobby.
+     */
+    private void resumePlayers() {
+        ResumeSeat seat;
+        while ((seat = resumes.poll()) != null) {
+            final Player player = seat.getPlayer();
+            if (!players.contains(player)) continue;
+            if (seat.getMatch() == null) {
+                player.markLobbyEntry(seat.getWaitedNanos());
+                lobby.enqueue(player);
+                continue;
             }
+
+            final Player[] arrivals = seat.getArrivals();
+            arrivals[seat.getPlayerIndex()] = player;
+            final Player opponent = arrivals[1 - seat.getPlayerIndex()];
+            if (opponent == null) continue;
+            if (!canJoinMatch(opponent)) {
+                lobby.enqueue(player);
+                continue;
+            }
+            startMatch(seat.getMatch().restore(arrivals[0], arrivals[1], keyframeInterval));
+        }
+
+        if (resumeDeadlineNanos == 0 || tickStartNanos - resumeDeadlineNanos < 0) return;
+        resumeDeadlineNanos = 0;
+        for (Long token : seats.keySet()) {
+            // A player may claim the seat concurrently; only one remove wins.
+            final ResumeSeat abandoned = seats.remove(token);
+            if (abandoned == null || abandoned.getMatch() == null) continue;
+            final Player opponent = abandoned.getArrivals()[1 - abandoned.getPlayerIndex()];
+            if (opponent != null && canJoinMatch(opponent)) lobby.enqueue(opponent);
         }
     }
+
+    /** Removes references to players that have disconnected */
+    private void removeDisconnectedPlayers() {
+        Player player;
+        while ((player = disconnects.poll()) != null) {
+            // A player can be reported more than once, e.g. by onError and
+            // then onClose.
+            if (!players.contains(player)) continue;
+
+            // Only the world thread sets matches, so this is up to date.
+            final GameState match = player.getMatch();
+            if (match != null) {
+                match.end();
+                matchesById.remove(match.getId());
+                metrics.activeMatches.decrementAndGet();
+                match.getOther(player).setMatch(null);
+                player.setMatch(null);
+                // The opponent returns to the lobby once the shard has
+                // released the match.
+            }
+            // Players in the lobby are dropped from it on the next pairing.
+
+            // Todo: Signal to the opponent that they left.
+            players.remove(player);
+            System.out.println("Removed " + player.getId());
+        }
+    }
+
+    /** Starts the heartbeat of players who joined since the last tick */
+    private void scheduleHeartbeats() {
+        Player player;
+        while ((player = joins.poll()) != null) {
+            // Ping right away so the lobby knows the player's round-trip time.
+            if (!ping(player)) continue;
+            heartbeats.schedule(player, ticksUntil(heartbeatNanos));
+        }
+        heartbeats.advance(checkHeartbeat);
+    }
+
+    /**
+     * Pings a player who has been quiet for a heartbeat interval, or closes
+     * their connection if they have been quiet for too long
+     *
+     * Players in a match are pinged every interval even if they are active,
+     * which keeps the round-trip times their paddles are rewound by current.
+     */
+    private void checkHeartbeat(final Player player) {
+        if (!players.contains(player)) return;
+
+        final long idle = tickStartNanos - player.getLastActivityNanos();
+        if (idle >= idleTimeoutNanos) {
+            player.getSocket().close(1001, "Connection timed out");
+            // Closing produces an onClose event, but don't rely on it.
+            disconnects.add(player);
+            return;
+        }
+
+        long nextCheck = heartbeatNanos - idle;
+        if (nextCheck <= 0 || player.getMatch() != null) {
+            if (!ping(player)) return;
+            nextCheck = Math.min(heartbeatNanos, idleTimeoutNanos - idle);
+        }
+        heartbeats.schedule(player, ticksUntil(nextCheck));
+    }
+
+    /**
+     * Pings a player, marking them as disconnected if that fails
+     * @return false if the player is not connected
+     */
+    private boolean ping(final Player player) {
+        try {
+            player.markPingSent();
+            player.getSocket().sendPing();
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            disconnects.add(player);
+            return false;
+        }
+    }
+
+    /** Returns the number of ticks that cover a duration, rounded up */
+    private int ticksUntil(final long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, (nanos + tickPeriodNanos - 1) / tickPeriodNanos);
+    }
 }
@@ -0,0 +1,158 @@
+package com.marcusposey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything a World needs to carry its players over a restart
+ *
+ * The file holds, in order: the magic number kMagic, the format version,
+ * the next match id, the live matches, and the lobby as pairs of a resume
+ * token and how long that player had waited. Everything is big-endian.
+ */
+public class WorldSnapshot {
+    // "PONG" in ASCII
+    static final int kMagic = 0x504F4E47;
+    static final int kVersion = 2;
+
+    private final int nextMatchId;
+    private final List<MatchSnapshot> matches;
+    private final long[] lobbyTokens;
+    private final long[] lobbyWaitNanos;
+
+    /**
+     * Creates a snapshot
+     * @param lobbyTokens the resume tokens of the players in the lobby,
+     *                    oldest first
+     * @param lobbyWaitNanos how long each of those players had waited
+     */
+    public WorldSnapshot(final int nextMatchId, final List<MatchSnapshot> matches,
+                         final long[] lobbyTokens, final long[] lobbyWaitNanos) {
+        this.nextMatchId = nextMatchId;
+        this.matches = matches;
+        this.lobbyTokens = lobbyTokens;
+        this.lobbyWaitNanos = lobbyWaitNanos;
+    }
+
+    /** Returns the id to give the next new match */
+    public int getNextMatchId() {
+        return nextMatchId;
+    }
+
+    public List<MatchSnapshot> getMatches() {
+        return Collections.unmodifiableList(matches);
+    }
+
+    public long[] getLobbyTokens() {
+        return lobbyTokens.clone();
+    }
+
+    public long[] getLobbyWaitNanos() {
+        return lobbyWaitNanos.clone();
+    }
+
+    /**
+     * Writes the snapshot to a file
+     *
+     * The file is written next to its destination and then moved over it,
+     * so a crash never leaves half a snapshot behind.
+     */
+    public void write(final Path file) throws IOException {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(kMagic);
+            out.writeShort(kVersion);
+            out.writeInt(nextMatchId);
+            out.writeInt(matches.size());
+            for (MatchSnapshot match : matches) match.write(out);
+            out.writeInt(lobbyTokens.length);
+            for (int i = 0; i < lobbyTokens.length; i++) {
+                out.writeLong(lobbyTokens[i]);
+                out.writeLong(lobbyWaitNanos[i]);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot a previous run saved and removes the file, so a
+     * crash later cannot bring back its stale places
+     *
+     * A file that cannot be read, e.g. one saved by another version or cut
+     * short, is moved aside to <file>.bad, and the world starts empty.
+     *
+     * @return the snapshot, or null if there is none or it cannot be read
+     */
+    public static WorldSnapshot take(final Path file) {
+        if (!Files.exists(file)) return null;
+        final WorldSnapshot snapshot;
+        try {
+            snapshot = read(file);
+        } catch (IOException e) {
+            final Path aside = file.resolveSibling(file.getFileName() + ".bad");
+            System.err.println("Could not restore the world from " + file + ": " + e);
+            try {
+                Files.move(file, aside, StandardCopyOption.REPLACE_EXISTING);
+                System.err.println("Moved it to " + aside);
+            } catch (IOException moveError) {
+                System.err.println("Could not move it aside: " + moveError);
+            }
+            return null;
+        }
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            System.err.println("Could not remove " + file + ": " + e);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads a snapshot written by write()
+     * @throws IOException if the file is not a snapshot of this version
+     */
+    public static WorldSnapshot read(final Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != kMagic) throw new IOException(file + " is not a snapshot");
+            final int version = in.readShort();
+            if (version != kVersion) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+
+            final int nextMatchId = in.readInt();
+            final int matchCount = count(in, file);
+            final List<MatchSnapshot> matches = new ArrayList<>(matchCount);
+            for (int i = 0; i < matchCount; i++) matches.add(MatchSnapshot.read(in));
+
+            final int lobbySize = count(in, file);
+            final long[] tokens = new long[lobbySize];
+            final long[] waits = new long[lobbySize];
+            for (int i = 0; i < lobbySize; i++) {
+                tokens[i] = in.readLong();
+                waits[i] = in.readLong();
+            }
+            return new WorldSnapshot(nextMatchId, matches, tokens, waits);
+        }
+    }
+
+    /** Reads a count of entries, which a file of its size could hold */
+    private static int count(final DataInputStream in, final Path file) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > Files.size(file)) {
+            throw new IOException(file + " is corrupt");
+        }
+        return count;
+    }
+}
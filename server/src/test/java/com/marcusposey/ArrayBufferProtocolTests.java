@@ -0,0 +1,171 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** Tests for the ArrayBufferProtocol class */
+public class ArrayBufferProtocolTests {
+    /** A delta should only contain the fields that changed */
+    @Test
+    public void testEncodeGameStateDelta_changedFields() {
+        GameState state = new GameState(new Player(null), new Player(null));
+        int[] baseline = new int[ArrayBufferProtocol.kStateFields];
+        ArrayBufferProtocol.captureGameState(state, baseline);
+
+        state.getBall().setX(state.getBall().getX() + 3);
+        state.getPlayers()[1].setY(7);
+
+        ByteBuffer message = ByteBuffer.wrap(
+                ArrayBufferProtocol.encodeGameStateDelta(state, baseline));
+        Assert.assertEquals(ArrayBufferProtocol.kStateHeaderSize + 1 + 2 * 2,
+                            message.remaining());
+        Assert.assertEquals(Directive.GAME_STATE_DELTA.ordinal(), message.get());
+        message.position(ArrayBufferProtocol.kStateHeaderSize);
+        Assert.assertEquals((1 << 3) | (1 << 4), message.get());
+        Assert.assertEquals(7, message.getShort());
+        Assert.assertEquals(state.getBall().getX(), message.getShort());
+
+        // The baseline should now match the state.
+        Assert.assertEquals(7, baseline[3]);
+        Assert.assertEquals(state.getBall().getX(), baseline[4]);
+    }
+
+    /** Nothing should be sent if the state did not change */
+    @Test
+    public void testEncodeGameStateDelta_unchanged() {
+        GameState state = new GameState(new Player(null), new Player(null));
+        int[] baseline = new int[ArrayBufferProtocol.kStateFields];
+        ArrayBufferProtocol.captureGameState(state, baseline);
+
+        Assert.assertNull(ArrayBufferProtocol.encodeGameStateDelta(state, baseline));
+    }
+
+    /**
+     * A game state carries the match tick and, once stamped, the receiving
+     * player and their last applied input
+     */
+    @Test
+    public void testStampReceiver_header() {
+        Player a = new Player(null);
+        Player b = new Player(null);
+        GameState state = new GameState(a, b);
+        state.queueInput(b, Directive.MOVE_PLAYER_UP, 0xFFFE);
+        state.finishTick(state.step(null));
+        state.finishTick(state.step(null));
+        Assert.assertEquals(0xFFFE, b.getInputAck());
+        Assert.assertEquals(0, a.getInputAck());
+
+        ByteBuffer message = ByteBuffer.allocate(ArrayBufferProtocol.kGameStateSize);
+        ArrayBufferProtocol.writeGameState(state, message);
+        message.flip();
+        Assert.assertEquals(ArrayBufferProtocol.kGameStateSize, message.remaining());
+        Assert.assertEquals(ArrayBufferProtocol.kSpectatorReceiver, message.get(5) & 0xFF);
+
+        ArrayBufferProtocol.stampReceiver(message, 1, b.getInputAck());
+        Assert.assertEquals(0, message.position());
+        Assert.assertEquals(Directive.GAME_STATE.ordinal(), message.get());
+        Assert.assertEquals(2, message.getInt());
+        Assert.assertEquals(1, message.get());
+        Assert.assertEquals(0xFFFE, message.getShort() & 0xFFFF);
+        Assert.assertEquals(a.getX(), message.getInt());
+    }
+
+    /** Clients ask for a version and get the newest one both sides speak */
+    @Test
+    public void testNegotiateVersion() {
+        Assert.assertEquals(ArrayBufferProtocol.kVersion1, ArrayBufferProtocol.negotiateVersion(null));
+        Assert.assertEquals(ArrayBufferProtocol.kVersion1, ArrayBufferProtocol.negotiateVersion("x"));
+        Assert.assertEquals(ArrayBufferProtocol.kVersion2, ArrayBufferProtocol.negotiateVersion("2"));
+        Assert.assertEquals(ArrayBufferProtocol.kLatestVersion,
+                            ArrayBufferProtocol.negotiateVersion("99"));
+    }
+
+    /** Only client messages of the right length for their directive are valid */
+    @Test
+    public void testIsValidClientMessage() {
+        final byte up = (byte) Directive.MOVE_PLAYER_UP.ordinal();
+        final byte fps = (byte) Directive.CLIENT_FPS.ordinal();
+        final byte watch = (byte) Directive.WATCH_MATCH.ordinal();
+        final byte stop = (byte) Directive.STOP_WATCHING.ordinal();
+        Assert.assertTrue(isValid(new byte[]{up, 0, 0, 0, 1, 0, 7}, false));
+        Assert.assertTrue(isValid(new byte[]{up, 0, 0, 0, 1}, false));
+        Assert.assertFalse(isValid(new byte[]{up, 0, 0}, false));
+        Assert.assertFalse(isValid(new byte[]{up, 0, 0, 0, 1, 0, 7, 0}, false));
+        Assert.assertTrue(isValid(new byte[]{fps, 0, 0, 0, 1, 60}, false));
+        Assert.assertFalse(isValid(new byte[]{watch, 0, 0, 0, 1}, false));
+        Assert.assertFalse(isValid(new byte[]{(byte) 0x80, 0, 0, 0, 1}, false));
+        Assert.assertFalse(isValid(new byte[0], false));
+
+        Assert.assertTrue(isValid(new byte[]{watch, 0, 0, 0, 1, 2}, true));
+        Assert.assertTrue(isValid(new byte[]{stop}, true));
+        Assert.assertFalse(isValid(new byte[]{stop, 0}, true));
+        Assert.assertFalse(isValid(new byte[]{up, 0, 0, 0, 1}, true));
+    }
+
+    private static boolean isValid(final byte[] message, final boolean spectator) {
+        return ArrayBufferProtocol.isValidClientMessage(ByteBuffer.wrap(message), spectator);
+    }
+
+    /**
+     * A client that applies version 2 states and deltas should always hold
+     * the match's coordinates and scores, in fewer bytes than version 1
+     */
+    @Test
+    public void testCompactGameState_decodes() {
+        Player a = new Player(null);
+        Player b = new Player(null);
+        GameState state = new GameState(0, a, b, GameState.kDefaultKeyframeInterval, 5);
+        Random random = new Random(3);
+        Directive[] moves = {Directive.MOVE_PLAYER_UP, Directive.MOVE_PLAYER_DOWN,
+                             Directive.STOP_MOVING_PLAYER};
+
+        int[] client = new int[ArrayBufferProtocol.kCompactStateFields];
+        int[] expected = new int[ArrayBufferProtocol.kCompactStateFields];
+        int[] baseline = new int[ArrayBufferProtocol.kCompactStateFields];
+        int[] legacyBaseline = new int[ArrayBufferProtocol.kStateFields];
+        ByteBuffer message = ByteBuffer.allocate(ArrayBufferProtocol.kMaxTickMessageSize);
+        ByteBuffer legacy = ByteBuffer.allocate(ArrayBufferProtocol.kMaxTickMessageSize);
+
+        ArrayBufferProtocol.writeCompactGameState(state, message);
+        Assert.assertEquals(ArrayBufferProtocol.kCompactGameStateSize, message.position());
+        message.flip();
+        ArrayBufferProtocol.stampCompactReceiver(message, 1, 9);
+        Assert.assertEquals(Directive.GAME_STATE.ordinal() | 1 << 6, message.get(0));
+        Assert.assertEquals(9, message.getShort(4));
+        ArrayBufferProtocol.readCompactGameState(message, client);
+        ArrayBufferProtocol.captureCompactGameState(state, baseline);
+        ArrayBufferProtocol.captureGameState(state, legacyBaseline);
+
+        long bytes = 0;
+        long legacyBytes = 0;
+        int points = 0;
+        for (int tick = 0; tick < 5000; tick++) {
+            if (random.nextInt(10) == 0) {
+                state.queueInput(random.nextBoolean() ? a : b, moves[random.nextInt(3)]);
+            }
+            final int winner = state.step(null);
+            state.finishTick(winner);
+            if (winner != -1) points++;
+
+            message.clear();
+            if (!ArrayBufferProtocol.writeCompactGameStateDelta(state, baseline, message, false)) {
+                continue;
+            }
+            bytes += message.position();
+            message.flip();
+            ArrayBufferProtocol.readCompactGameState(message, client);
+            ArrayBufferProtocol.captureCompactGameState(state, expected);
+            Assert.assertArrayEquals(expected, client);
+
+            legacy.clear();
+            ArrayBufferProtocol.writeGameStateDelta(state, legacyBaseline, legacy, true);
+            legacyBytes += legacy.position();
+            if (winner != -1) legacyBytes += ArrayBufferProtocol.kGameScoreSize;
+        }
+        Assert.assertTrue("Expected points to be scored", points > 0);
+        Assert.assertTrue(bytes * 3 < legacyBytes * 2);
+    }
+}
@@ -42,6 +42,31 @@ public class BallTests {
         Assert.assertTrue(ball.getX() <= ballXPos);
     }
 
+    /** Each paddle hit should speed the ball up, to no more than its top speed */
+    @Test
+    public void testCollision_speedsUp() {
+        Ball ball = new Ball();
+        ball.setX(150);
+        // Two paddles as tall as the canvas keep the ball in a rally.
+        Player[] players = {new Player(null), new Player(null)};
+        players[0].setX(100);
+        players[1].setX(200);
+        for (Player player : players) {
+            player.setY(0);
+            player.setHeight(GameState.kCanvasHeight);
+        }
+
+        int lastSpeed = Ball.kSpeed;
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertFalse(ball.move(players));
+            final int speed = Math.abs(ball.getStore().xVelocity[ball.getSlot()]);
+            Assert.assertTrue(speed >= lastSpeed);
+            Assert.assertTrue(speed <= Ball.kMaxSpeed);
+            lastSpeed = speed;
+        }
+        Assert.assertEquals(Ball.kMaxSpeed, lastSpeed);
+    }
+
     /** Ensure the ball resets if it goes out of the map bounds */
     @Test
     public void testReset() {
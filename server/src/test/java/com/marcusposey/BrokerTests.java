@@ -0,0 +1,174 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for the Broker class */
+public class BrokerTests {
+    private static final long kSecond = 1_000_000_000L;
+
+    /** Consecutive players should be paired on one node, then spread by load */
+    @Test
+    public void testAssign_pairsThenBalances() throws Exception {
+        Broker broker = new Broker(0);
+        broker.heartbeat("ws://a", 100, 50, 0, 25, 0);
+        broker.heartbeat("ws://b", 100, 10, 0, 5, 0);
+
+        // b is less loaded; the second player joins the first one waiting there.
+        Assert.assertEquals("ws://b", broker.assign(0).getAddress());
+        Assert.assertEquals("ws://b", broker.assign(0).getAddress());
+
+        // A player waiting on a busier node still comes first.
+        broker.heartbeat("ws://a", 100, 50, 1, 25, 0);
+        Assert.assertEquals("ws://a", broker.assign(0).getAddress());
+        Assert.assertEquals("ws://b", broker.assign(0).getAddress());
+    }
+
+    /** Full nodes and nodes that stopped reporting should get no players */
+    @Test
+    public void testAssign_skipsFullAndStale() throws Exception {
+        Broker broker = new Broker(0, 3000);
+        broker.heartbeat("ws://full", 10, 10, 1, 4, 0);
+        broker.heartbeat("ws://stale", 100, 0, 0, 0, 0);
+        broker.heartbeat("ws://live", 100, 60, 0, 30, 2 * kSecond);
+
+        Assert.assertEquals("ws://live", broker.assign(4 * kSecond).getAddress());
+        Assert.assertFalse(broker.describe().contains("ws://stale"));
+
+        broker.leave("ws://live");
+        Assert.assertNull(broker.assign(4 * kSecond));
+    }
+
+    /** A node's heartbeats should make the broker send clients to it */
+    @Test
+    public void testBrokerClient_registers() throws Exception {
+        Broker broker = new Broker(0);
+        broker.start();
+        try {
+            final String url = "http://localhost:" + broker.getPort();
+            Assert.assertEquals(503, get(url + "/assign").getResponseCode());
+
+            Metrics metrics = new Metrics();
+            metrics.activeConnections.set(3);
+            BrokerClient client = new BrokerClient(url, "ws://localhost:8001", 100, metrics);
+            client.heartbeat();
+            Assert.assertTrue(broker.describe().contains("connections=3"));
+
+            HttpURLConnection assign = get(url + "/assign");
+            Assert.assertEquals(200, assign.getResponseCode());
+            try (InputStream in = assign.getInputStream()) {
+                Assert.assertEquals("ws://localhost:8001",
+                                    new Scanner(in, "UTF-8").useDelimiter("\\A").next());
+            }
+        } finally {
+            broker.stop();
+        }
+    }
+
+    /** Only nodes presenting the secret should be able to join or leave */
+    @Test
+    public void testHeartbeat_requiresSecret() throws Exception {
+        Broker broker = new Broker(0, Broker.kDefaultNodeTimeoutMillis, "s3cret");
+        broker.start();
+        try {
+            final String url = "http://localhost:" + broker.getPort();
+            final String form = "address=ws%3A%2F%2Fattacker&capacity=100";
+            Assert.assertEquals(403, post(url + "/heartbeat", form, null));
+            Assert.assertEquals(403, post(url + "/heartbeat", form, "guess"));
+            Assert.assertEquals("", broker.describe());
+
+            new BrokerClient(url, "ws://node:8001", 100, new Metrics(), "s3cret").heartbeat();
+            Assert.assertTrue(broker.describe().contains("ws://node:8001"));
+            Assert.assertEquals(403, post(url + "/leave", "address=ws%3A%2F%2Fnode%3A8001", null));
+            Assert.assertTrue(broker.describe().contains("ws://node:8001"));
+
+            final String http = "address=http%3A%2F%2Fnode&capacity=100";
+            Assert.assertEquals(400, post(url + "/heartbeat", http, "s3cret"));
+        } finally {
+            broker.stop();
+        }
+    }
+
+    /** Players should only ever be sent to WebSocket addresses */
+    @Test
+    public void testIsNodeAddress_acceptsOnlyWebSockets() {
+        Assert.assertTrue(Broker.isNodeAddress("ws://localhost:8001"));
+        Assert.assertTrue(Broker.isNodeAddress("wss://game1.example.com"));
+        Assert.assertFalse(Broker.isNodeAddress("http://game1.example.com"));
+        Assert.assertFalse(Broker.isNodeAddress("javascript:alert(1)"));
+        Assert.assertFalse(Broker.isNodeAddress("ws://"));
+        Assert.assertFalse(Broker.isNodeAddress(null));
+    }
+
+    /** A game server process should join its broker with the secret and leave on exit */
+    @Test
+    public void testApplication_joinsAndLeaves() throws Exception {
+        Broker broker = new Broker(0, Broker.kDefaultNodeTimeoutMillis, "s3cret");
+        broker.start();
+        final int port = freePort();
+        final String java = System.getProperty("java.home") + File.separator + "bin"
+                            + File.separator + "java";
+        Process server = new ProcessBuilder(
+                java, "-cp", System.getProperty("java.class.path"),
+                "-Dpong.port=" + port, "-Dpong.metrics.port=" + freePort(),
+                "-Dpong.broker=http://localhost:" + broker.getPort(),
+                "-Dpong.broker.secret=s3cret", Application.class.getName())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            final String address = "ws://localhost:" + port;
+            final long deadline = System.nanoTime() + 20 * kSecond;
+            while (!broker.describe().contains(address) && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue(broker.describe().contains(address));
+
+            try (Writer console = new OutputStreamWriter(server.getOutputStream(),
+                                                                 StandardCharsets.UTF_8)) {
+                console.write("exit\n");
+            }
+            Assert.assertTrue(server.waitFor(20, TimeUnit.SECONDS));
+            Assert.assertFalse(broker.describe().contains(address));
+        } finally {
+            server.destroyForcibly();
+            broker.stop();
+        }
+    }
+
+    private static HttpURLConnection get(final String url) throws Exception {
+        return (HttpURLConnection) new URL(url).openConnection();
+    }
+
+    /** Posts a form, with the secret as a bearer token unless it is null */
+    private static int post(final String url, final String form, final String secret)
+            throws Exception {
+        HttpURLConnection connection = get(url);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (secret != null) connection.setRequestProperty("Authorization", "Bearer " + secret);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(form.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection.getResponseCode();
+    }
+
+    /** Returns a port that nothing listens on */
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
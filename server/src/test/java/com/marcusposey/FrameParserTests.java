@@ -0,0 +1,95 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/** Tests for the FrameParser class */
+public class FrameParserTests {
+    private static final int kMask = 0x37FA213D;
+
+    /** A masked input message should be unmasked in place */
+    @Test
+    public void testParse_input() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) 0x7F);
+        writeFrame(buffer, FrameParser.kBinary, new byte[]{1, 0, 0, 0, 42});
+        buffer.flip();
+        buffer.position(1);
+
+        FrameParser parser = new FrameParser(1024);
+        Assert.assertEquals(2 + 4 + 5, parser.parse(buffer));
+        Assert.assertEquals(FrameParser.kBinary, parser.getOpcode());
+        Assert.assertTrue(parser.isFin());
+        Assert.assertEquals(1 + 6, parser.getPayloadOffset());
+        Assert.assertEquals(5, parser.getPayloadLength());
+        Assert.assertEquals(1, buffer.get(7));
+        Assert.assertEquals(42, buffer.getInt(8));
+        Assert.assertEquals(1, buffer.position());
+    }
+
+    /** A frame that was only partly received should not be decoded */
+    @Test
+    public void testParse_incomplete() {
+        ByteBuffer buffer = ByteBuffer.allocate(400);
+        writeFrame(buffer, FrameParser.kBinary, new byte[300]);
+        final int length = buffer.position();
+        FrameParser parser = new FrameParser(1024);
+
+        for (int end = 0; end < length; end++) {
+            buffer.position(0).limit(end);
+            Assert.assertEquals(FrameParser.kIncomplete, parser.parse(buffer));
+        }
+        buffer.limit(length);
+        Assert.assertEquals(length, parser.parse(buffer));
+        Assert.assertEquals(300, parser.getPayloadLength());
+    }
+
+    /** Unmasked frames and payloads above the limit should be rejected */
+    @Test
+    public void testParse_rejected() {
+        FrameParser parser = new FrameParser(100);
+        ByteBuffer unmasked = ByteBuffer.wrap(new byte[]{(byte) 0x82, 1, 7});
+        Assert.assertEquals(FrameParser.kInvalid, parser.parse(unmasked));
+
+        ByteBuffer large = ByteBuffer.allocate(200);
+        writeFrame(large, FrameParser.kBinary, new byte[101]);
+        large.flip();
+        Assert.assertEquals(FrameParser.kTooLarge, parser.parse(large));
+    }
+
+    /** Headers should use the shortest length encoding */
+    @Test
+    public void testWriteHeader_lengths() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        Assert.assertEquals(2, FrameParser.writeHeader(buffer, FrameParser.kBinary, true, 125));
+        Assert.assertEquals((byte) 0x82, buffer.get(0));
+        Assert.assertEquals(125, buffer.get(1));
+
+        buffer.clear();
+        Assert.assertEquals(4, FrameParser.writeHeader(buffer, FrameParser.kBinary, true, 300));
+        Assert.assertEquals(126, buffer.get(1));
+        Assert.assertEquals(300, buffer.getShort(2));
+
+        buffer.clear();
+        Assert.assertEquals(10, FrameParser.writeHeader(buffer, FrameParser.kText, false, 70000));
+        Assert.assertEquals(0x01, buffer.get(0));
+        Assert.assertEquals(70000, buffer.getLong(2));
+    }
+
+    /** Writes a masked client frame */
+    static void writeFrame(final ByteBuffer buffer, final int opcode, final byte[] payload) {
+        buffer.put((byte) (0x80 | opcode));
+        if (payload.length < 126) {
+            buffer.put((byte) (0x80 | payload.length));
+        } else {
+            buffer.put((byte) (0x80 | 126));
+            buffer.putShort((short) payload.length);
+        }
+        buffer.putInt(kMask);
+        for (int i = 0; i < payload.length; i++) {
+            buffer.put((byte) (payload[i] ^ (kMask >>> (24 - 8 * (i & 3)))));
+        }
+    }
+}
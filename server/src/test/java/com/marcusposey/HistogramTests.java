@@ -0,0 +1,34 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the Histogram class */
+public class HistogramTests {
+    /** Every value should land in a bucket whose bounds contain it */
+    @Test
+    public void testIndexOf_bounds() {
+        final long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L,
+                               Long.MAX_VALUE};
+        for (final long value : values) {
+            final int index = Histogram.indexOf(value);
+            Assert.assertTrue(Histogram.lowestEquivalent(index) <= value);
+            Assert.assertTrue(Histogram.highestEquivalent(index) >= value);
+        }
+    }
+
+    /** Percentiles should be within the histogram's precision */
+    @Test
+    public void testGetPercentile() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) histogram.record(i);
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMax());
+        Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+
+        final long median = histogram.getPercentile(50);
+        Assert.assertTrue("median = " + median, median >= 500 && median <= 532);
+        Assert.assertEquals(1000, histogram.getPercentile(100));
+    }
+}
@@ -0,0 +1,67 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/** Tests for the InputLimiter class */
+public class InputLimiterTests {
+    private static final long kSecond = TimeUnit.SECONDS.toNanos(1);
+
+    /** A burst is allowed at once, and then messages at the steady rate */
+    @Test
+    public void testTryAcquire_allowsBurstThenRate() {
+        InputLimiter limiter = new InputLimiter(10, 5, 0);
+        for (int i = 0; i < 5; i++) Assert.assertTrue(limiter.tryAcquire(0));
+        Assert.assertFalse(limiter.tryAcquire(0));
+
+        // A client sending a little too fast still gets the full rate.
+        int accepted = 0;
+        for (long now = kSecond; now < 3 * kSecond; now += kSecond / 15) {
+            if (limiter.tryAcquire(now)) accepted++;
+        }
+        // The bucket is full again, so another burst and two seconds at 10
+        // per second
+        Assert.assertTrue(accepted >= 24 && accepted <= 26);
+        Assert.assertFalse(limiter.isAbusive(3 * kSecond));
+    }
+
+    /** A connection that keeps flooding overflows its drops and becomes abusive */
+    @Test
+    public void testIsAbusive_afterSustainedFlood() {
+        InputLimiter limiter = new InputLimiter(10, 5, 0);
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire(0);
+            Assert.assertFalse(limiter.isAbusive(0));
+        }
+        limiter.tryAcquire(0);
+        Assert.assertTrue(limiter.isAbusive(0));
+        // Dropped messages drain over time.
+        Assert.assertFalse(limiter.isAbusive(kSecond));
+    }
+
+    /**
+     * Only repeats of an input queued in the same match are collapsed, until
+     * the repeat interval passes
+     */
+    @Test
+    public void testIsRepeat_collapsesQueuedInputs() {
+        InputLimiter limiter = new InputLimiter(0);
+        GameState match = new GameState(new Player(null), new Player(null));
+        final int up = Directive.MOVE_PLAYER_UP.ordinal();
+        final int stop = Directive.STOP_MOVING_PLAYER.ordinal();
+        Assert.assertFalse(limiter.isRepeat(up, match, 0));
+        // An input that was not queued, e.g. because the queue was full,
+        // is not collapsed when it is sent again.
+        Assert.assertFalse(limiter.isRepeat(up, match, 1));
+
+        limiter.markQueued(up, match, 1);
+        Assert.assertTrue(limiter.isRepeat(up, match, 2));
+        Assert.assertFalse(limiter.isRepeat(stop, match, 2));
+        Assert.assertFalse(limiter.isRepeat(up, null, 2));
+        Assert.assertFalse(limiter.isRepeat(
+                up, new GameState(new Player(null), new Player(null)), 2));
+        Assert.assertFalse(limiter.isRepeat(up, match, 1 + InputLimiter.kRepeatNanos));
+    }
+}
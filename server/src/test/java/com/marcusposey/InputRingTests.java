@@ -0,0 +1,69 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/** Tests for the InputRing class */
+public class InputRingTests {
+    /** Values should come out in the order they went in */
+    @Test
+    public void testPoll_order() {
+        InputRing ring = new InputRing(4);
+        Assert.assertEquals(-1, ring.poll());
+
+        // Go around the ring several times.
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) Assert.assertTrue(ring.offer(i));
+            for (int i = 0; i < 4; i++) Assert.assertEquals(i, ring.poll());
+            Assert.assertEquals(-1, ring.poll());
+        }
+    }
+
+    /** A full ring should reject new values instead of blocking */
+    @Test
+    public void testOffer_full() {
+        InputRing ring = new InputRing(2);
+        Assert.assertTrue(ring.offer(1));
+        Assert.assertTrue(ring.offer(2));
+        Assert.assertFalse(ring.offer(3));
+
+        Assert.assertEquals(1, ring.poll());
+        Assert.assertTrue(ring.offer(3));
+    }
+
+    /** Values from concurrent producers should all arrive exactly once */
+    @Test
+    public void testOffer_concurrent() throws InterruptedException {
+        final int kProducers = 4;
+        final int kPerProducer = 10000;
+        InputRing ring = new InputRing(1024);
+
+        Thread[] producers = new Thread[kProducers];
+        for (int p = 0; p < kProducers; p++) {
+            final int base = p * kPerProducer;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < kPerProducer; i++) {
+                    while (!ring.offer(base + i)) Thread.yield();
+                }
+            });
+            producers[p].start();
+        }
+
+        boolean[] seen = new boolean[kProducers * kPerProducer];
+        int[] lastFromProducer = new int[kProducers];
+        Arrays.fill(lastFromProducer, -1);
+        for (int received = 0; received < seen.length; ) {
+            final int value = ring.poll();
+            if (value == -1) continue;
+            Assert.assertFalse(seen[value]);
+            seen[value] = true;
+            // Each producer's values must stay in order.
+            Assert.assertTrue(value > lastFromProducer[value / kPerProducer]);
+            lastFromProducer[value / kPerProducer] = value;
+            received++;
+        }
+        for (Thread producer : producers) producer.join();
+    }
+}
@@ -0,0 +1,41 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+
+/** Tests for the MatchRecorder class */
+public class MatchRecorderTests {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** Records submitted after the recorder stopped are dropped and counted */
+    @Test
+    public void testSubmit_dropsAfterStop() throws Exception {
+        Metrics metrics = new Metrics();
+        MatchRecorder recorder = new MatchRecorder(folder.newFolder("recordings").toPath(),
+                                                   metrics);
+        recorder.start();
+        RecordingBuffer recording = recorder.newBuffer();
+        recorder.stop();
+
+        GameState match = new GameState(7, new Player(null, 1), new Player(null, 2),
+                                        GameState.kDefaultKeyframeInterval, 1234);
+        for (int i = 0; i < 3; i++) {
+            recording.start(match);
+            recording.end(match);
+            recording.flush();
+        }
+        Assert.assertEquals(6, metrics.getRecordsDropped());
+
+        // The shard keeps the buffer it has instead of taking new ones.
+        ByteBuffer buffer = recorder.takeBuffer();
+        buffer.put(MatchRecorder.kMatchEnd).putInt(7).putInt(0).putInt(0).putInt(0);
+        Assert.assertFalse(recorder.submit(buffer));
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(7, metrics.getRecordsDropped());
+    }
+}
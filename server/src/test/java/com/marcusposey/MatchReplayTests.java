@@ -0,0 +1,103 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+/** Tests for the MatchReplay class */
+public class MatchReplayTests {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** A replayed match ends in exactly the state the recorded one did */
+    @Test
+    public void testReplay_rebuildsRecordedMatch() throws Exception {
+        final Path directory = folder.newFolder("recordings").toPath();
+        MatchRecorder recorder = new MatchRecorder(directory);
+        recorder.start();
+        RecordingBuffer recording = recorder.newBuffer();
+
+        GameState live = new GameState(7, new Player(null, 1), new Player(null, 2),
+                                       GameState.kDefaultKeyframeInterval, 1234);
+        recording.start(live);
+        play(live, recording, new Random(99), 5000);
+        recording.end(live);
+        recording.flush();
+        recorder.stop();
+
+        MatchLog log = MatchLog.read(directory, 7);
+        Assert.assertNotNull(log);
+        Assert.assertTrue(log.isComplete());
+        Assert.assertEquals(1234, log.getSeed());
+        Assert.assertEquals(5000, log.getEndTick());
+        Assert.assertTrue(log.getRewindCount() > 0);
+        Assert.assertTrue(MatchReplay.verify(log));
+
+        GameState replayed = MatchReplay.replay(log);
+        Assert.assertTrue(live.getScores()[0] + live.getScores()[1] > 0);
+        Assert.assertArrayEquals(live.getScores(), replayed.getScores());
+        int[] expected = new int[ArrayBufferProtocol.kStateFields];
+        int[] actual = new int[ArrayBufferProtocol.kStateFields];
+        ArrayBufferProtocol.captureGameState(live, expected);
+        ArrayBufferProtocol.captureGameState(replayed, actual);
+        Assert.assertArrayEquals(expected, actual);
+        Assert.assertNull(MatchLog.read(directory, 8));
+    }
+
+    /** A match restored after a restart replays from the state it resumed from */
+    @Test
+    public void testReplay_startsFromRestoredState() throws Exception {
+        final Path directory = folder.newFolder("recordings").toPath();
+        MatchRecorder recorder = new MatchRecorder(directory);
+        recorder.start();
+        RecordingBuffer recording = recorder.newBuffer();
+
+        GameState saved = new GameState(7, new Player(null, 1), new Player(null, 2),
+                                        GameState.kDefaultKeyframeInterval, 1234);
+        play(saved, null, new Random(5), 3000);
+        GameState live = MatchSnapshot.capture(saved).restore(
+                new Player(null, 3), new Player(null, 4), GameState.kDefaultKeyframeInterval);
+        recording.start(live);
+        play(live, recording, new Random(6), 3000);
+        recording.end(live);
+        recording.flush();
+        recorder.stop();
+
+        MatchLog log = MatchLog.read(directory, 7);
+        Assert.assertNotNull(log.getInitialState());
+        Assert.assertEquals(3000, log.getStartTick());
+        Assert.assertEquals(6000, log.getEndTick());
+        Assert.assertTrue(MatchReplay.verify(log));
+
+        GameState replayed = MatchReplay.replay(log);
+        Assert.assertEquals(live.getTick(), replayed.getTick());
+        int[] expected = new int[ArrayBufferProtocol.kStateFields];
+        int[] actual = new int[ArrayBufferProtocol.kStateFields];
+        ArrayBufferProtocol.captureGameState(live, expected);
+        ArrayBufferProtocol.captureGameState(replayed, actual);
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    /** Plays a match for a number of ticks with random inputs and rewinds */
+    private static void play(GameState match, RecordingBuffer recording, Random random,
+                             int ticks) {
+        Directive[] moves = {Directive.MOVE_PLAYER_UP, Directive.MOVE_PLAYER_DOWN,
+                             Directive.STOP_MOVING_PLAYER};
+        for (int tick = 0; tick < ticks; tick++) {
+            if (random.nextInt(10) == 0) {
+                match.queueInput(match.getPlayers()[random.nextInt(2)],
+                                 moves[random.nextInt(moves.length)]);
+            }
+            if (random.nextInt(500) == 0) {
+                match.getPlayers()[random.nextInt(2)]
+                        .setRewindSteps(random.nextInt(Player.kMaxRewindSteps + 1));
+            }
+            match.finishTick(match.step(recording));
+            if (recording != null) recording.flush();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/** Tests for the Matchmaker class */
+public class MatchmakerTests {
+    /** FIFO pairing matches players in the order they arrive */
+    @Test
+    public void testPair_fifoPairsInArrivalOrder() {
+        Matchmaker lobby = new Matchmaker();
+        Player[] players = new Player[5];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = new Player(null, i + 1);
+            lobby.enqueue(players[i]);
+        }
+
+        List<Player> pairs = lobby.pair(p -> true);
+        Assert.assertEquals(4, pairs.size());
+        for (int i = 0; i < 4; i++) Assert.assertSame(players[i], pairs.get(i));
+        Assert.assertEquals(1, lobby.size());
+
+        // The odd one out waits for the next arrival.
+        Player late = new Player(null, 6);
+        lobby.enqueue(late);
+        pairs = lobby.pair(p -> true);
+        Assert.assertEquals(2, pairs.size());
+        Assert.assertSame(players[4], pairs.get(0));
+        Assert.assertSame(late, pairs.get(1));
+        Assert.assertEquals(0, lobby.size());
+    }
+
+    /** Players that are no longer eligible leave the lobby unpaired */
+    @Test
+    public void testPair_dropsIneligiblePlayers() {
+        Matchmaker lobby = new Matchmaker();
+        Player a = new Player(null, 1);
+        Player gone = new Player(null, 2);
+        Player b = new Player(null, 3);
+        lobby.enqueue(a);
+        lobby.enqueue(gone);
+        lobby.enqueue(b);
+
+        List<Player> pairs = lobby.pair(p -> p != gone);
+        Assert.assertEquals(2, pairs.size());
+        Assert.assertSame(a, pairs.get(0));
+        Assert.assertSame(b, pairs.get(1));
+        Assert.assertEquals(0, lobby.size());
+    }
+
+    /** Bucketed pairing keeps players with distant keys apart until overdue */
+    @Test
+    public void testPair_bucketedKeepsDistantKeysApart() {
+        // Keys are the player ids: 1 and 2 share a bucket, 15 and 21 do not.
+        Matchmaker lobby = new Matchmaker(
+                new BucketedPairingPolicy(Player::getId, 10, Long.MAX_VALUE));
+        Player near1 = new Player(null, 1);
+        Player far1 = new Player(null, 15);
+        Player near2 = new Player(null, 2);
+        Player far2 = new Player(null, 21);
+        lobby.enqueue(near1);
+        lobby.enqueue(far1);
+        lobby.enqueue(near2);
+        lobby.enqueue(far2);
+
+        List<Player> pairs = lobby.pair(p -> true);
+        Assert.assertEquals(2, pairs.size());
+        Assert.assertSame(near1, pairs.get(0));
+        Assert.assertSame(near2, pairs.get(1));
+        Assert.assertEquals(2, lobby.size());
+
+        // Once players have waited long enough, anyone will do.
+        lobby.setPolicy(new BucketedPairingPolicy(Player::getId, 10, 0));
+        pairs = lobby.pair(p -> true);
+        Assert.assertEquals(2, pairs.size());
+        Assert.assertSame(far1, pairs.get(0));
+        Assert.assertSame(far2, pairs.get(1));
+    }
+}
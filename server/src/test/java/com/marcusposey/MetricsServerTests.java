@@ -0,0 +1,54 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Scanner;
+
+/** Tests for the MetricsServer class */
+public class MetricsServerTests {
+    /** Counters should be served in the Prometheus text format */
+    @Test
+    public void testMetrics_servesCounters() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recordSend(40);
+        metrics.recordSend(2);
+        metrics.messagesRateLimited.add(7);
+        metrics.activeMatches.set(3);
+
+        MetricsServer server = new MetricsServer(0, metrics);
+        server.start();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/metrics").openConnection();
+            Assert.assertEquals(200, connection.getResponseCode());
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+            }
+            Assert.assertTrue(body.contains("# TYPE pong_messages_out_total counter\n"));
+            Assert.assertTrue(body.contains("\npong_messages_out_total 2\n"));
+            Assert.assertTrue(body.contains("\npong_bytes_out_total 42\n"));
+            Assert.assertTrue(body.contains("\npong_messages_rate_limited_total 7\n"));
+            Assert.assertTrue(body.contains("\npong_matches 3\n"));
+            Assert.assertTrue(body.contains("\npong_tick_seconds_count 0\n"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /** The server should not listen beyond this host unless told to */
+    @Test
+    public void testMetricsServer_bindsLoopback() throws Exception {
+        MetricsServer server = new MetricsServer(0, new Metrics());
+        try {
+            Assert.assertEquals(InetAddress.getLoopbackAddress(), server.getAddress().getAddress());
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Tests for the Metrics class */
+public class MetricsTests {
+    /** The counters should be readable as attributes of the registered MBean */
+    @Test
+    public void testRegisterMBean_exposesAttributes() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recordReceive(5);
+        metrics.inputsCollapsed.add(4);
+        metrics.lobbySize.set(2);
+        metrics.tickNanos.record(1_000_000);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.marcusposey:type=Metrics");
+        metrics.registerMBean();
+        try {
+            Assert.assertEquals(1L, server.getAttribute(name, "MessagesIn"));
+            Assert.assertEquals(5L, server.getAttribute(name, "BytesIn"));
+            Assert.assertEquals(4L, server.getAttribute(name, "InputsCollapsed"));
+            Assert.assertEquals(2L, server.getAttribute(name, "LobbySize"));
+            Assert.assertEquals(1L, server.getAttribute(name, "TickCount"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for the NioTransport class */
+public class NioTransportTests {
+    /** Records the events of a transport */
+    private static class Recorder implements TransportListener {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        volatile WebSocket socket;
+
+        public void onStart() { }
+
+        public void onOpen(WebSocket socket, String resource) {
+            this.socket = socket;
+            events.add("open " + resource);
+        }
+
+        public void onMessage(WebSocket socket, ByteBuffer message) {
+            events.add("message " + message.get() + " " + message.getInt());
+        }
+
+        public void onPong(WebSocket socket) {
+            events.add("pong");
+        }
+
+        public void onClose(WebSocket socket) {
+            events.add("close");
+        }
+
+        public void onError(WebSocket socket, Exception e) {
+            events.add("error " + e);
+        }
+    }
+
+    /** A client should handshake, send input and receive binary frames */
+    @Test
+    public void testTransport_roundTrip() throws Exception {
+        Recorder recorder = new Recorder();
+        NioTransport transport = new NioTransport(new InetSocketAddress("127.0.0.1", 0),
+                                                  recorder, 1, 2);
+        transport.start();
+        try (Socket client = new Socket("127.0.0.1", transport.getPort())) {
+            client.setSoTimeout(5000);
+            OutputStream out = client.getOutputStream();
+            DataInputStream in = new DataInputStream(client.getInputStream());
+
+            final String key = "dGhlIHNhbXBsZSBub25jZQ==";
+            out.write(("GET /?v=1 HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                       + "Connection: Upgrade\r\nSec-WebSocket-Key: " + key + "\r\n"
+                       + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            final String response = readHeader(in);
+            Assert.assertTrue(response.startsWith("HTTP/1.1 101"));
+            // The accept value for this key is given in RFC 6455.
+            Assert.assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+            Assert.assertEquals("open /?v=1", recorder.events.poll(5, TimeUnit.SECONDS));
+
+            // Two inputs in one write, the second split across writes.
+            ByteBuffer frames = ByteBuffer.allocate(64);
+            FrameParserTests.writeFrame(frames, FrameParser.kBinary, new byte[]{0, 0, 0, 0, 7});
+            FrameParserTests.writeFrame(frames, FrameParser.kBinary, new byte[]{1, 0, 0, 1, 0});
+            out.write(frames.array(), 0, frames.position() - 3);
+            out.flush();
+            Thread.sleep(50);
+            out.write(frames.array(), frames.position() - 3, 3);
+            Assert.assertEquals("message 0 7", recorder.events.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals("message 1 256", recorder.events.poll(5, TimeUnit.SECONDS));
+
+            recorder.socket.send(new byte[]{9, 8, 7});
+            Assert.assertEquals(0x82, in.readUnsignedByte());
+            Assert.assertEquals(3, in.readUnsignedByte());
+            Assert.assertEquals(9, in.readByte());
+            Assert.assertEquals(8, in.readByte());
+            Assert.assertEquals(7, in.readByte());
+
+            recorder.socket.sendPing();
+            Assert.assertEquals(0x89, in.readUnsignedByte());
+            Assert.assertEquals(0, in.readUnsignedByte());
+            ByteBuffer pong = ByteBuffer.allocate(8);
+            FrameParserTests.writeFrame(pong, FrameParser.kPong, new byte[0]);
+            out.write(pong.array(), 0, pong.position());
+            Assert.assertEquals("pong", recorder.events.poll(5, TimeUnit.SECONDS));
+
+            recorder.socket.close(1001, "bye");
+            Assert.assertEquals(0x88, in.readUnsignedByte());
+            Assert.assertEquals(5, in.readUnsignedByte());
+            Assert.assertEquals(1001, in.readShort());
+            Assert.assertEquals("bye", new String(new byte[]{in.readByte(), in.readByte(),
+                                                             in.readByte()}, StandardCharsets.UTF_8));
+            Assert.assertEquals("close", recorder.events.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(-1, in.read());
+        } finally {
+            transport.stop(1000);
+        }
+        Assert.assertTrue(recorder.events.isEmpty());
+    }
+
+    /** A request that is not a WebSocket handshake should be refused */
+    @Test
+    public void testTransport_badHandshake() throws Exception {
+        Recorder recorder = new Recorder();
+        NioTransport transport = new NioTransport(new InetSocketAddress("127.0.0.1", 0),
+                                                  recorder, 1, 1);
+        transport.start();
+        try (Socket client = new Socket("127.0.0.1", transport.getPort())) {
+            client.setSoTimeout(5000);
+            client.getOutputStream().write(
+                    "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            Assert.assertTrue(readHeader(in).startsWith("HTTP/1.1 400"));
+            Assert.assertEquals(-1, in.read());
+        } finally {
+            transport.stop(1000);
+        }
+        Assert.assertTrue(recorder.events.isEmpty());
+    }
+
+    /** Reads an HTTP response header */
+    private static String readHeader(final DataInputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        while (!header.toString().endsWith("\r\n\r\n")) header.append((char) in.readUnsignedByte());
+        return header.toString();
+    }
+}
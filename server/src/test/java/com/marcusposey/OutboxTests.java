@@ -0,0 +1,82 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for the Outbox class */
+public class OutboxTests {
+    /** An outbox whose socket queue length is set by the test */
+    private static class TestOutbox extends Outbox {
+        int backlog = 0;
+        final List<Byte> written = new ArrayList<>();
+
+        TestOutbox() {
+            super(null);
+        }
+
+        @Override
+        int backlog() {
+            return backlog;
+        }
+
+        @Override
+        void write(final ByteBuffer payload) {
+            written.add(payload.get(0));
+            backlog++;
+        }
+    }
+
+    private static ByteBuffer message(final int first) {
+        return ByteBuffer.wrap(new byte[]{(byte) first, 0, 0});
+    }
+
+    /** Messages go straight to a socket that is keeping up */
+    @Test
+    public void testOffer_sendsImmediatelyWhenNotBackedUp() {
+        TestOutbox outbox = new TestOutbox();
+        Assert.assertTrue(outbox.offerState(message(1)));
+        Assert.assertEquals(1, outbox.written.size());
+        Assert.assertFalse(outbox.hasPendingState());
+    }
+
+    /** A newer state replaces an unsent one, but reliable messages stay */
+    @Test
+    public void testOffer_coalescesStatesButKeepsReliable() {
+        TestOutbox outbox = new TestOutbox();
+        outbox.backlog = Outbox.kMaxInFlight;
+
+        outbox.offerState(message(1));
+        outbox.offerReliable(message(2));
+        outbox.offerState(message(3));
+        outbox.offerReliable(message(4));
+        outbox.offerState(message(5));
+        Assert.assertTrue(outbox.written.isEmpty());
+        Assert.assertTrue(outbox.hasPendingState());
+
+        // The socket drains completely.
+        outbox.backlog = -100;
+        outbox.flush();
+        Assert.assertEquals(3, outbox.written.size());
+        Assert.assertEquals(2, (int) outbox.written.get(0));
+        Assert.assertEquals(4, (int) outbox.written.get(1));
+        Assert.assertEquals(5, (int) outbox.written.get(2));
+        Assert.assertFalse(outbox.hasPendingState());
+    }
+
+    /** A connection with too many reliable messages waiting is evicted */
+    @Test
+    public void testOfferReliable_evictsWhenFull() {
+        TestOutbox outbox = new TestOutbox();
+        outbox.backlog = Outbox.kMaxInFlight;
+        for (int i = 0; i < Outbox.kMaxReliable; i++) {
+            Assert.assertTrue(outbox.offerReliable(message(i)));
+        }
+        Assert.assertFalse(outbox.offerReliable(message(0)));
+        Assert.assertTrue(outbox.isEvicted());
+        Assert.assertFalse(outbox.offerState(message(0)));
+    }
+}
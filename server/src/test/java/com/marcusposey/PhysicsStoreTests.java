@@ -0,0 +1,177 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/** Tests for the PhysicsStore class */
+public class PhysicsStoreTests {
+    /** Stepping a shard store should match moving each entity on its own */
+    @Test
+    public void testStep_matchesObjectPhysics() {
+        final int kMatches = 50;
+        Random random = new Random(42);
+        PhysicsStore store = new PhysicsStore(kMatches * PhysicsStore.kSlotsPerMatch);
+
+        GameState[] bulk = new GameState[kMatches];
+        GameState[] single = new GameState[kMatches];
+        for (int m = 0; m < kMatches; m++) {
+            bulk[m] = new GameState(new Player(null), new Player(null));
+            single[m] = new GameState(new Player(null), new Player(null));
+            final int ballY = random.nextInt(GameState.kCanvasHeight - 20);
+            final int paddleY = random.nextInt(GameState.kCanvasHeight - 100);
+            final Player.Direction direction = random.nextBoolean()
+                    ? Player.Direction.UP : Player.Direction.DOWN;
+            for (GameState state : new GameState[]{bulk[m], single[m]}) {
+                state.getBall().setY(ballY);
+                state.getPlayers()[0].setY(paddleY);
+                state.getPlayers()[1].move(direction);
+            }
+            bulk[m].bind(store, m);
+        }
+
+        final int steps = Ball.kDefaultStepsPerTick;
+        int[] stepsLeft = new int[kMatches];
+        for (int tick = 0; tick < 1000; tick++) {
+            store.step(kMatches, steps, stepsLeft);
+            for (int m = 0; m < kMatches; m++) {
+                final int winner = stepsLeft[m] == -1
+                        ? -1 : bulk[m].getBall().finishPoint(stepsLeft[m]);
+                // Both balls share a seed, so they also respawn alike.
+                Assert.assertEquals(single[m].step(null), winner);
+                assertSameEntities(single[m], bulk[m]);
+            }
+        }
+    }
+
+    /** A match should play out the same whether it ticks at 40 or 80 Hz */
+    @Test
+    public void testStep_sameAtAnyTickRate() {
+        final Random random = new Random(7);
+        GameState slow = new GameState(0, new Player(null), new Player(null),
+                                       GameState.kDefaultKeyframeInterval, 99);
+        GameState fast = new GameState(0, new Player(null), new Player(null),
+                                       GameState.kDefaultKeyframeInterval, 99);
+        slow.setStepsPerTick(PhysicsStore.stepsPerTick(40));
+        fast.setStepsPerTick(PhysicsStore.stepsPerTick(80));
+
+        final Directive[] kMoves = {Directive.MOVE_PLAYER_UP, Directive.MOVE_PLAYER_DOWN,
+                                    Directive.STOP_MOVING_PLAYER};
+        int points = 0;
+        for (int tick = 0; tick < 20000; tick++) {
+            // Inputs arrive between 40 Hz ticks, so both matches apply them
+            // at the same time.
+            if (random.nextInt(8) == 0) {
+                final int index = random.nextInt(2);
+                final Directive move = kMoves[random.nextInt(kMoves.length)];
+                slow.queueInput(slow.getPlayers()[index], move);
+                fast.queueInput(fast.getPlayers()[index], move);
+            }
+
+            final int slowWinner = slow.step(null);
+            slow.finishTick(slowWinner);
+            int fastWinner = -1;
+            for (int half = 0; half < 2; half++) {
+                final int winner = fast.step(null);
+                fast.finishTick(winner);
+                if (winner != -1) fastWinner = winner;
+            }
+
+            Assert.assertEquals(slowWinner, fastWinner);
+            assertSameEntities(slow, fast);
+            if (slowWinner != -1) points++;
+        }
+        Assert.assertArrayEquals(slow.getScores(), fast.getScores());
+        Assert.assertTrue("Expected points to be scored", points > 0);
+    }
+
+    /** A fast ball should bounce off a paddle even if a tick carries it past */
+    @Test
+    public void testStep_noTunneling() {
+        GameState match = new GameState(new Player(null), new Player(null));
+        // 10 Hz ticks move a ball at full speed 48 pixels, which would carry
+        // it from just before the paddle to just past it.
+        match.setStepsPerTick(PhysicsStore.stepsPerTick(10));
+        final Player second = match.getPlayers()[1];
+        final Ball ball = match.getBall();
+        ball.setY(second.getY() + 10);
+        ball.setX(second.getX() - ball.getWidth() - 4);
+        ball.getStore().xVelocity[ball.getSlot()] = Ball.kMaxSpeed;
+        ball.getStore().yVelocity[ball.getSlot()] = 0;
+
+        Assert.assertEquals(-1, match.step(null));
+        Assert.assertTrue(ball.getStore().xVelocity[ball.getSlot()] < 0);
+        Assert.assertTrue(ball.getX() + ball.getWidth() <= second.getX());
+    }
+
+    /** The ball should bounce off where a lagging player's paddle was */
+    @Test
+    public void testStep_rewoundPaddle() {
+        for (final int rewindSteps : new int[]{0, 8 * Ball.kDefaultStepsPerTick}) {
+            GameState match = new GameState(new Player(null), new Player(null));
+            final Player second = match.getPlayers()[1];
+            final Ball ball = match.getBall();
+            second.setRewindSteps(rewindSteps);
+            second.setY(0);
+            ball.getStore().xVelocity[ball.getSlot()] = 0;
+            ball.getStore().yVelocity[ball.getSlot()] = 0;
+            for (int tick = 0; tick < 10; tick++) match.finishTick(match.step(null));
+
+            // The paddle jumps away from where the ball will arrive.
+            second.setY(GameState.kCanvasHeight - second.getHeight());
+            ball.setY(20);
+            ball.setX(second.getX() - ball.getWidth() - 4);
+            ball.getStore().xVelocity[ball.getSlot()] = Ball.kMaxSpeed;
+            match.finishTick(match.step(null));
+
+            final boolean bounced = ball.getStore().xVelocity[ball.getSlot()] < 0;
+            Assert.assertEquals(rewindSteps > 0, bounced);
+        }
+    }
+
+    /** A lagging player's current paddle should not hit the ball as well */
+    @Test
+    public void testStep_rewoundPaddleOnly() {
+        for (final int rewindSteps : new int[]{0, 8 * Ball.kDefaultStepsPerTick}) {
+            GameState match = new GameState(new Player(null), new Player(null));
+            final Player second = match.getPlayers()[1];
+            final Ball ball = match.getBall();
+            second.setRewindSteps(rewindSteps);
+            second.setY(0);
+            ball.getStore().xVelocity[ball.getSlot()] = 0;
+            ball.getStore().yVelocity[ball.getSlot()] = 0;
+            for (int tick = 0; tick < 10; tick++) match.finishTick(match.step(null));
+
+            // The paddle jumps to where the ball will arrive.
+            second.setY(GameState.kCanvasHeight - second.getHeight());
+            ball.setY(GameState.kCanvasHeight - second.getHeight() + 20);
+            ball.setX(second.getX() - ball.getWidth() - 4);
+            ball.getStore().xVelocity[ball.getSlot()] = Ball.kMaxSpeed;
+            match.finishTick(match.step(null));
+
+            final boolean bounced = ball.getStore().xVelocity[ball.getSlot()] < 0;
+            Assert.assertEquals(rewindSteps == 0, bounced);
+        }
+    }
+
+    private static void assertSameEntities(GameState expected, GameState actual) {
+        Assert.assertArrayEquals(entities(expected), entities(actual));
+    }
+
+    /** Returns the exact positions and velocities of a match's entities */
+    private static int[] entities(GameState state) {
+        final Entity[] entities = {state.getPlayers()[0], state.getPlayers()[1],
+                                   state.getBall()};
+        final int[] values = new int[4 * entities.length];
+        for (int i = 0; i < entities.length; i++) {
+            final PhysicsStore s = entities[i].getStore();
+            final int slot = entities[i].getSlot();
+            values[4 * i] = s.x[slot];
+            values[4 * i + 1] = s.y[slot];
+            values[4 * i + 2] = s.xVelocity[slot];
+            values[4 * i + 3] = s.yVelocity[slot];
+        }
+        return values;
+    }
+}
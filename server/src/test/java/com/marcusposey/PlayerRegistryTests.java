@@ -0,0 +1,56 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the PlayerRegistry class */
+public class PlayerRegistryTests {
+    /** Players can be found by their id until they are removed */
+    @Test
+    public void testGet_findsRegisteredPlayers() {
+        PlayerRegistry registry = new PlayerRegistry();
+        Player a = registry.add(null);
+        Player b = registry.add(null);
+
+        Assert.assertTrue(a.getId() > 0);
+        Assert.assertNotEquals(a.getId(), b.getId());
+        Assert.assertSame(a, registry.get(a.getId()));
+        Assert.assertSame(b, registry.get(b.getId()));
+        Assert.assertEquals(2, registry.size());
+
+        Assert.assertTrue(registry.remove(a));
+        Assert.assertFalse(registry.remove(a));
+        Assert.assertNull(registry.get(a.getId()));
+        Assert.assertSame(b, registry.get(b.getId()));
+        Assert.assertEquals(1, registry.size());
+    }
+
+    /** An old id does not resolve to the player who reuses its slot */
+    @Test
+    public void testAdd_reusedSlotGetsNewId() {
+        PlayerRegistry registry = new PlayerRegistry();
+        for (int i = 0; i < 1000; i++) {
+            Player old = registry.add(null);
+            registry.remove(old);
+            Player next = registry.add(null);
+
+            Assert.assertNotEquals(old.getId(), next.getId());
+            Assert.assertNull(registry.get(old.getId()));
+            Assert.assertSame(next, registry.get(next.getId()));
+            registry.remove(next);
+        }
+    }
+
+    /** The registry grows past its initial capacity */
+    @Test
+    public void testAdd_grows() {
+        PlayerRegistry registry = new PlayerRegistry();
+        Player[] added = new Player[1000];
+        for (int i = 0; i < added.length; i++) added[i] = registry.add(null);
+        for (Player player : added) {
+            Assert.assertSame(player, registry.get(player.getId()));
+        }
+        Assert.assertNull(registry.get(0));
+        Assert.assertNull(registry.get(-1));
+    }
+}
@@ -35,4 +35,28 @@ public class PlayerTests {
                                         playerB.getY()),
                           playerB.getY() <= GameState.kCanvasHeight);
     }
-}
\ No newline at end of file
+
+    /**
+     * An input dropped as a repeat is acknowledged once the input it repeats
+     * is applied, but never in place of a later one
+     */
+    @Test
+    public void testRepeatAck_followsQueuedInput() {
+        Player a = new Player(null);
+        Player b = new Player(null);
+        GameState state = new GameState(a, b);
+        state.queueInput(a, Directive.MOVE_PLAYER_UP, 0xFFFF);
+        a.setRepeatAck(1);
+        state.finishTick(state.step(null));
+        Assert.assertEquals(1, a.getInputAck());
+
+        a.setRepeatAck(0);
+        state.queueInput(a, Directive.STOP_MOVING_PLAYER, 3);
+        state.finishTick(state.step(null));
+        Assert.assertEquals(3, a.getInputAck());
+        // A note read before the later input was queued does not undo it.
+        a.setRepeatAck(2);
+        state.finishTick(state.step(null));
+        Assert.assertEquals(3, a.getInputAck());
+    }
+}
@@ -0,0 +1,35 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the Simulator class */
+public class SimulatorTests {
+    /** A seed should give the same totals for any number of threads */
+    @Test
+    public void testRun_deterministic() throws InterruptedException {
+        SimulationStats one = new Simulator(1, new TrackingController(10), null)
+                .run(40, 3000, 7);
+        SimulationStats three = new Simulator(3, new TrackingController(10), null)
+                .run(40, 3000, 7);
+
+        Assert.assertEquals(40, one.getMatches());
+        Assert.assertEquals(40 * 3000, one.getTicks());
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(one.getPoints(i), three.getPoints(i));
+            Assert.assertEquals(one.getWins(i), three.getWins(i));
+        }
+        Assert.assertEquals(one.getDraws(), three.getDraws());
+    }
+
+    /** A tracking bot should return balls that a still paddle misses */
+    @Test
+    public void testRun_trackingLengthensRallies() throws InterruptedException {
+        SimulationStats still = new Simulator(2, null, null).run(20, 6000, 1);
+        SimulationStats tracking = new Simulator(2, new TrackingController(10), null)
+                .run(20, 6000, 1);
+
+        Assert.assertTrue(still.getPoints(0) + still.getPoints(1) > 0);
+        Assert.assertTrue(tracking.getMeanRallyTicks() > still.getMeanRallyTicks());
+    }
+}
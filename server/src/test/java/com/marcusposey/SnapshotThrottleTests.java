@@ -0,0 +1,55 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the SnapshotThrottle class */
+public class SnapshotThrottleTests {
+    /** States are sent once per snapshot interval */
+    @Test
+    public void testShouldSend_followsSnapshotInterval() {
+        SnapshotThrottle throttle = new SnapshotThrottle();
+        int sent = 0;
+        for (long tick = 1; tick <= 12; tick++) {
+            if (throttle.shouldSend(tick, 3, null)) sent++;
+        }
+        Assert.assertEquals(4, sent);
+    }
+
+    /** A client that asks for fewer states gets fewer states */
+    @Test
+    public void testShouldSend_followsClientInterval() {
+        SnapshotThrottle throttle = new SnapshotThrottle();
+        throttle.setClientInterval(4);
+        int sent = 0;
+        for (long tick = 1; tick <= 12; tick++) {
+            if (throttle.shouldSend(tick, 1, null)) sent++;
+        }
+        Assert.assertEquals(3, sent);
+
+        throttle.setClientInterval(1000);
+        Assert.assertEquals(SnapshotThrottle.kMaxInterval, throttle.getInterval());
+    }
+
+    /** Only a player who saw the last message can use the next delta */
+    @Test
+    public void testHasSeen_tracksLastMessage() {
+        SnapshotThrottle throttle = new SnapshotThrottle();
+        Assert.assertFalse(throttle.hasSeen(0));
+        throttle.markSeen(1);
+        Assert.assertTrue(throttle.hasSeen(1));
+        Assert.assertFalse(throttle.hasSeen(2));
+    }
+
+    /** A player's next match is sent states from its first tick */
+    @Test
+    public void testReset_startsNextMatch() {
+        SnapshotThrottle throttle = new SnapshotThrottle();
+        Assert.assertTrue(throttle.shouldSend(600, 1, null));
+        throttle.markSeen(5);
+
+        throttle.reset();
+        Assert.assertTrue(throttle.shouldSend(1, 1, null));
+        Assert.assertFalse(throttle.hasSeen(5));
+    }
+}
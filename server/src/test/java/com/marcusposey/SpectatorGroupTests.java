@@ -0,0 +1,42 @@
+package com.marcusposey;
+
+import org.java_websocket.WebSocket;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for the SpectatorGroup class */
+public class SpectatorGroupTests {
+    /** Spectators of an ended match are detached and told it ended */
+    @Test
+    public void testEndMatch_detachesSpectators() {
+        GameState match = new GameState(3, new Player(null, 1), new Player(null, 2),
+                                         GameState.kDefaultKeyframeInterval, 1);
+        List<byte[]> sent = new ArrayList<>();
+        Spectator spectator = new Spectator(recordingSocket(sent));
+        spectator.setMatch(match);
+        match.getSpectators().add(spectator);
+
+        match.getSpectators().endMatch(match.getId());
+        Assert.assertEquals(0, match.getSpectators().size());
+        Assert.assertNull(spectator.getMatch());
+        Assert.assertEquals(1, sent.size());
+        Assert.assertArrayEquals(ArrayBufferProtocol.encodeMatchEnded(3), sent.get(0));
+        Assert.assertEquals(Directive.MATCH_ENDED.ordinal(), sent.get(0)[0]);
+    }
+
+    /** Returns a socket that keeps the binary messages sent through it */
+    private static WebSocket recordingSocket(List<byte[]> sent) {
+        return (WebSocket) Proxy.newProxyInstance(
+                WebSocket.class.getClassLoader(), new Class<?>[]{WebSocket.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("send") && args[0] instanceof byte[]) {
+                        sent.add((byte[]) args[0]);
+                    }
+                    return null;
+                });
+    }
+}
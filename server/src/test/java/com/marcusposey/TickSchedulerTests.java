@@ -0,0 +1,63 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the TickScheduler class */
+public class TickSchedulerTests {
+    /** No ticks should be due before the scheduled time */
+    @Test
+    public void testTicksDue_early() {
+        TickScheduler scheduler = new TickScheduler(100, 5);
+        scheduler.setNextTickNanos(1_000_000_000L);
+
+        Assert.assertEquals(0, scheduler.ticksDue(999_000_000L));
+    }
+
+    /** A late scheduler should run every missed tick within its budget */
+    @Test
+    public void testTicksDue_catchUp() {
+        TickScheduler scheduler = new TickScheduler(100, 5);
+        final long period = scheduler.getPeriodNanos();
+        scheduler.setNextTickNanos(0);
+
+        // Three periods late means the current tick and three missed ones.
+        Assert.assertEquals(4, scheduler.ticksDue(3 * period));
+        // The schedule should now be aligned to the next period.
+        Assert.assertEquals(0, scheduler.ticksDue(3 * period + 1));
+        Assert.assertEquals(1, scheduler.ticksDue(4 * period));
+        Assert.assertEquals(0, scheduler.getSkippedCount());
+    }
+
+    /** Ticks beyond the catch-up budget should be skipped, not replayed */
+    @Test
+    public void testTicksDue_skip() {
+        TickScheduler scheduler = new TickScheduler(100, 5);
+        final long period = scheduler.getPeriodNanos();
+        scheduler.setNextTickNanos(0);
+
+        Assert.assertEquals(5, scheduler.ticksDue(99 * period));
+        Assert.assertEquals(95, scheduler.getSkippedCount());
+        Assert.assertEquals(1, scheduler.ticksDue(100 * period));
+    }
+
+    /** A virtual clock should run every tick at the scheduled times at once */
+    @Test
+    public void testRun_virtualClock() {
+        VirtualClock clock = new VirtualClock();
+        TickScheduler scheduler = new TickScheduler(60, 5, clock);
+        final long[] times = new long[600];
+
+        scheduler.run(() -> {
+            final int tick = (int) scheduler.getTickCount();
+            times[tick] = clock.nanoTime();
+            if (tick == times.length - 1) scheduler.stop();
+        });
+
+        Assert.assertEquals(times.length, scheduler.getTickCount());
+        Assert.assertEquals(0, scheduler.getSkippedCount());
+        for (int i = 0; i < times.length; i++) {
+            Assert.assertEquals(i * scheduler.getPeriodNanos(), times[i]);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for the TimingWheel class */
+public class TimingWheelTests {
+    /** Items should come due after exactly their delay */
+    @Test
+    public void testAdvance_delay() {
+        TimingWheel<String> wheel = new TimingWheel<>(8);
+        List<String> due = new ArrayList<>();
+        wheel.schedule("a", 1);
+        wheel.schedule("c", 3);
+
+        wheel.advance(due::add);
+        Assert.assertEquals(1, due.size());
+        Assert.assertEquals("a", due.get(0));
+
+        wheel.advance(due::add);
+        Assert.assertEquals(1, due.size());
+        wheel.advance(due::add);
+        Assert.assertEquals("c", due.get(1));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    /** Rescheduling from the callback should not make an item due twice */
+    @Test
+    public void testAdvance_reschedule() {
+        TimingWheel<String> wheel = new TimingWheel<>(4);
+        List<String> due = new ArrayList<>();
+        wheel.schedule("a", 10);
+
+        // Long delays are shortened to the size of the wheel.
+        for (int i = 0; i < 3; i++) {
+            wheel.advance(item -> {
+                due.add(item);
+                wheel.schedule(item, 4);
+            });
+        }
+        Assert.assertEquals(1, due.size());
+        Assert.assertEquals(1, wheel.size());
+    }
+}
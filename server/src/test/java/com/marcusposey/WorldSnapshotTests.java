@@ -0,0 +1,119 @@
+package com.marcusposey;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/** Tests for the WorldSnapshot class */
+public class WorldSnapshotTests {
+    private static final Directive[] kMoves = {Directive.MOVE_PLAYER_UP,
+                                               Directive.MOVE_PLAYER_DOWN,
+                                               Directive.STOP_MOVING_PLAYER};
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A match saved to a file and restored for new players plays on exactly
+     * as it would have without the restart, respawns included
+     */
+    @Test
+    public void testRestore_continuesMatchAsIfUninterrupted() throws Exception {
+        final Metrics metrics = new Metrics();
+        GameState live = new GameState(12, new Player(null, 1, metrics, 111),
+                                       new Player(null, 2, metrics, 222),
+                                       GameState.kDefaultKeyframeInterval, 4321);
+        play(live, new Random(5), 3000);
+
+        final Path file = folder.newFile("world.snap").toPath();
+        new WorldSnapshot(13, Collections.singletonList(MatchSnapshot.capture(live)),
+                          new long[]{333}, new long[]{42}).write(file);
+        WorldSnapshot read = WorldSnapshot.read(file);
+
+        Assert.assertEquals(13, read.getNextMatchId());
+        Assert.assertArrayEquals(new long[]{333}, read.getLobbyTokens());
+        Assert.assertArrayEquals(new long[]{42}, read.getLobbyWaitNanos());
+        Assert.assertEquals(1, read.getMatches().size());
+        MatchSnapshot saved = read.getMatches().get(0);
+        Assert.assertEquals(12, saved.getId());
+        Assert.assertArrayEquals(new long[]{111, 222}, saved.getTokens());
+
+        GameState restored = saved.restore(new Player(null, 3), new Player(null, 4),
+                                           GameState.kDefaultKeyframeInterval);
+        Assert.assertArrayEquals(live.getScores(), restored.getScores());
+        Assert.assertEquals(live.getTick(), restored.getTick());
+
+        final int[] before = live.getScores();
+        play(live, new Random(6), 6000);
+        play(restored, new Random(6), 6000);
+        Assert.assertTrue(live.getScores()[0] + live.getScores()[1]
+                          > before[0] + before[1]);
+        Assert.assertArrayEquals(live.getScores(), restored.getScores());
+        int[] expected = new int[ArrayBufferProtocol.kStateFields];
+        int[] actual = new int[ArrayBufferProtocol.kStateFields];
+        ArrayBufferProtocol.captureGameState(live, expected);
+        ArrayBufferProtocol.captureGameState(restored, actual);
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    /** A snapshot is removed once it has been read */
+    @Test
+    public void testTake_removesFile() throws Exception {
+        final Path file = folder.newFile("world.snap").toPath();
+        new WorldSnapshot(5, Collections.emptyList(), new long[]{7}, new long[]{1}).write(file);
+
+        WorldSnapshot taken = WorldSnapshot.take(file);
+        Assert.assertNotNull(taken);
+        Assert.assertArrayEquals(new long[]{7}, taken.getLobbyTokens());
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertNull(WorldSnapshot.take(file));
+    }
+
+    /** A snapshot saved by another version is set aside instead of restored */
+    @Test
+    public void testTake_setsAsideWrongVersion() throws Exception {
+        final Path file = folder.newFile("world.snap").toPath();
+        new WorldSnapshot(5, Collections.emptyList(), new long[0], new long[0]).write(file);
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[5] = (byte) (WorldSnapshot.kVersion + 1);
+        Files.write(file, bytes);
+
+        Assert.assertNull(WorldSnapshot.take(file));
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertArrayEquals(bytes, Files.readAllBytes(file.resolveSibling("world.snap.bad")));
+    }
+
+    /** A snapshot cut short is set aside instead of restored */
+    @Test
+    public void testTake_setsAsideTruncated() throws Exception {
+        final Path file = folder.newFile("world.snap").toPath();
+        GameState live = new GameState(12, new Player(null, 1), new Player(null, 2),
+                                       GameState.kDefaultKeyframeInterval, 4321);
+        new WorldSnapshot(13, Collections.singletonList(MatchSnapshot.capture(live)),
+                          new long[]{333}, new long[]{42}).write(file);
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+
+        Assert.assertNull(WorldSnapshot.take(file));
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertTrue(Files.exists(file.resolveSibling("world.snap.bad")));
+    }
+
+    /** Plays a match with random inputs, without sending anything */
+    private static void play(final GameState match, final Random random, final int ticks) {
+        for (int tick = 0; tick < ticks; tick++) {
+            if (random.nextInt(10) == 0) {
+                match.queueInput(match.getPlayers()[random.nextInt(2)],
+                                 kMoves[random.nextInt(kMoves.length)]);
+            }
+            match.finishTick(match.step(null));
+        }
+    }
+}